@@ -0,0 +1,33 @@
+package com.github.davidmoten.jns;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with the GC profiler enabled so that allocation
+ * bytes per operation are reported alongside operations per second. Accepts
+ * the usual JMH command line options (for example a regular expression to
+ * select benchmarks).
+ */
+public final class BenchmarksMain {
+
+    private BenchmarksMain() {
+        // prevent instantiation
+    }
+
+    public static void main(String[] args) throws Exception {
+        final CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp()) {
+            cmd.showHelp();
+        } else if (cmd.shouldList()) {
+            new Runner(cmd).list();
+        } else {
+            final Options options = new OptionsBuilder().parent(cmd)
+                    .addProfiler(GCProfiler.class).build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures computing every cell of the next generation of a lazy mesh (see
+ * {@link LazyMesh#next(Mesh, double)}), which steps each cell with
+ * {@link Solver} through the {@link CellData} of the new generation, and the
+ * same cells stepped directly with {@link Solver#step(Cell, double)} for
+ * comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LazyMeshBenchmark {
+
+    @Param({ "10", "20", "40" })
+    public int size;
+
+    private final Solver solver = new Solver();
+    private Mesh whirlpool;
+
+    @Setup
+    public void setup() {
+        whirlpool = Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(size, size)).build();
+    }
+
+    @Benchmark
+    public double nextGeneration() {
+        final Mesh next = LazyMesh.next(whirlpool, 0.1);
+        double sum = 0;
+        for (int north = 0; north < size; north++)
+            for (int east = 0; east < size; east++) {
+                final Cell cell = next.cell(east, north, 0);
+                if (cell.type() == CellType.FLUID)
+                    sum += cell.pressure();
+            }
+        return sum;
+    }
+
+    @Benchmark
+    public double solverOnly() {
+        double sum = 0;
+        for (int north = 0; north < size; north++)
+            for (int east = 0; east < size; east++) {
+                final Cell cell = whirlpool.cell(east, north, 0);
+                if (cell.type() == CellType.FLUID)
+                    sum += solver.step(cell, 0.1).getPressure();
+            }
+        return sum;
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full {@link Mesh#step(double)} followed by reading every cell of
+ * the new generation (which forces computation of a lazy mesh) for the still
+ * water box of {@link CellCreator} and the lid driven cavity of
+ * {@link Util#createMeshForWhirlpool2D(int, int)}. The <code>dense-cg</code>
+ * and <code>dense-mg</code> storages solve pressure with
+ * {@link ConjugateGradientPressureSolver} and {@link MultigridPressureSolver}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MeshBenchmark {
+
+    @Param({ "10", "20", "40" })
+    public int size;
+
+    @Param({ "lazy", "dense", "dense-cg", "dense-mg" })
+    public String storage;
+
+    private Mesh stillWater;
+    private Mesh whirlpool;
+
+    @Setup
+    public void setup() {
+        stillWater = create(new CellCreator(size, size, size));
+        whirlpool = create(Util.createCellCreatorForWhirlpool2D(size, size));
+    }
+
+    private Mesh create(CellCreator creator) {
+        final Mesh.Builder builder = Mesh.builder().cellSize(1).creator(creator);
+        if (storage.startsWith("dense"))
+            builder.dense();
+        if ("dense-cg".equals(storage))
+            builder.pressureSolver(new ConjugateGradientPressureSolver());
+        else if ("dense-mg".equals(storage))
+            builder.pressureSolver(new MultigridPressureSolver());
+        return builder.build();
+    }
+
+    @Benchmark
+    public double stepStillWater() {
+        return force(stillWater.step(1), size, size, size);
+    }
+
+    @Benchmark
+    public double stepWhirlpool() {
+        return force(whirlpool.step(0.1), size, size, 1);
+    }
+
+    private static double force(Mesh mesh, int cellsEast, int cellsNorth, int cellsUp) {
+        double sum = 0;
+        for (int up = 0; up < cellsUp; up++)
+            for (int north = 0; north < cellsNorth; north++)
+                for (int east = 0; east < cellsEast; east++) {
+                    final Cell cell = mesh.cell(east, north, up);
+                    if (cell.type() == CellType.FLUID)
+                        sum += cell.pressure() + cell.velocity().magnitude();
+                }
+        return sum;
+    }
+
+}
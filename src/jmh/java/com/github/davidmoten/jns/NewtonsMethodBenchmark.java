@@ -0,0 +1,39 @@
+package com.github.davidmoten.jns;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link NewtonsMethod} finding the square root of 2.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NewtonsMethodBenchmark {
+
+    public double initialValue = 1;
+
+    @Benchmark
+    public Optional<Double> solve() {
+        return NewtonsMethod.solve(x -> x * x - 2, initialValue, 0.1, 0.00001, 100);
+    }
+
+    @Benchmark
+    public double solveAsDouble() {
+        return NewtonsMethod.solveAsDouble(x -> x * x - 2, initialValue, 0.1, 0.00001, 100);
+    }
+
+}
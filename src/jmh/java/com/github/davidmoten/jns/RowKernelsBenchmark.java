@@ -0,0 +1,101 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the velocity and pressure Laplacians of every cell of the still
+ * water box computed a cell at a time by {@link DenseSolver} with the same
+ * values computed a row at a time by {@link RowKernels}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowKernelsBenchmark {
+
+    @Param({ "20", "60" })
+    public int size;
+
+    private Grid grid;
+    private Fields fields;
+    private DenseSolver solver;
+    private RowKernels kernels;
+    private double[] out;
+    private double[] scratch;
+
+    @Setup
+    public void setup() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(size, size, size)).dense().build();
+        grid = mesh.grid();
+        fields = mesh.fields();
+        solver = new DenseSolver(grid);
+        kernels = new RowKernels(solver);
+        out = new double[size];
+        scratch = new double[size];
+    }
+
+    @Benchmark
+    public double laplaciansByCell() {
+        double sum = 0;
+        for (int up = 0; up < grid.cellsUp(); up++)
+            for (int north = 0; north < grid.cellsNorth(); north++) {
+                final int from = grid.index(0, north, up);
+                for (int i = from; i < from + grid.cellsEast(); i++)
+                    if (grid.isFluid(i)) {
+                        final double p = fields.pressure(i);
+                        sum += (solver.second(fields, i, 0, DenseSolver.PRESSURE, p)
+                                + solver.second(fields, i, 1, DenseSolver.PRESSURE, p))
+                                + solver.second(fields, i, 2, DenseSolver.PRESSURE, p);
+                        for (int k = 0; k < 3; k++)
+                            sum += (solver.second(fields, i, k, DenseSolver.VELOCITY_EAST,
+                                    fields.velocityEast(i))
+                                    + solver.second(fields, i, k, DenseSolver.VELOCITY_NORTH,
+                                            fields.velocityNorth(i)))
+                                    + solver.second(fields, i, k, DenseSolver.VELOCITY_UP,
+                                            fields.velocityUp(i));
+                    }
+            }
+        return sum;
+    }
+
+    @Benchmark
+    public double laplaciansByRow() {
+        double sum = 0;
+        for (int up = 0; up < grid.cellsUp(); up++)
+            for (int north = 0; north < grid.cellsNorth(); north++) {
+                final int from = grid.index(0, north, up);
+                final int to = from + grid.cellsEast();
+                kernels.pressureLaplacian(fields, from, to, out, scratch);
+                sum += sum(from, to);
+                for (int k = 0; k < 3; k++) {
+                    kernels.velocityLaplacian(fields, k, from, to, out, scratch);
+                    sum += sum(from, to);
+                }
+            }
+        return sum;
+    }
+
+    private double sum(int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++)
+            if (grid.isFluid(i))
+                sum += out[i - from];
+        return sum;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Solver#step(Cell, double)} for single cells of a still water
+ * box.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SolverBenchmark {
+
+    private final Solver solver = new Solver();
+    private Cell interior;
+    private Cell wall;
+    private Cell surface;
+
+    @Setup
+    public void setup() {
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10))
+                .build();
+        interior = mesh.cell(5, 5, 5);
+        // obstacle below
+        wall = mesh.cell(5, 5, 0);
+        // air above
+        surface = mesh.cell(5, 5, 9);
+    }
+
+    @Benchmark
+    public VelocityPressure stepInteriorCell() {
+        return solver.step(interior, 1);
+    }
+
+    @Benchmark
+    public VelocityPressure stepWallCell() {
+        return solver.step(wall, 1);
+    }
+
+    @Benchmark
+    public VelocityPressure stepSurfaceCell() {
+        return solver.step(surface, 1);
+    }
+
+}
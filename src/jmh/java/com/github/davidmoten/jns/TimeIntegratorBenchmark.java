@@ -0,0 +1,118 @@
+package com.github.davidmoten.jns;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time to advance the lid driven cavity of
+ * {@link Util#createMeshForWhirlpool2D(int, int)} by {@link #DURATION_SECONDS}
+ * with each {@link TimeIntegrator} and time step. {@link #main(String[])}
+ * prints the largest velocity error of each benchmarked combination of
+ * parameters against a run of {@link TimeIntegrator#SSP_RK3} with a much
+ * smaller time step so that accuracy can be set against the time taken.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimeIntegratorBenchmark {
+
+    private static final double DURATION_SECONDS = 2;
+    private static final double REFERENCE_TIME_STEP_SECONDS = 0.00625;
+
+    // reference result for each size, computed when first needed
+    private static final Map<Integer, DenseMesh> REFERENCES = new ConcurrentHashMap<>();
+
+    @Param({ "20" })
+    public int size;
+
+    @Param({ "EULER", "SSP_RK2", "SSP_RK3" })
+    public TimeIntegrator integrator;
+
+    @Param({ "0.4", "0.2", "0.1", "0.05" })
+    public double timeStep;
+
+    private DenseMesh whirlpool;
+
+    @Setup
+    public void setup() {
+        whirlpool = create(size, integrator);
+    }
+
+    private static DenseMesh create(int size, TimeIntegrator integrator) {
+        return (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(size, size)).dense()
+                .timeIntegrator(integrator).build();
+    }
+
+    private static DenseMesh run(DenseMesh mesh, double timeStepSeconds) {
+        return mesh.stepMultiple(timeStepSeconds, Math.round(DURATION_SECONDS / timeStepSeconds));
+    }
+
+    /**
+     * Returns the largest velocity error after {@link #DURATION_SECONDS} of
+     * <code>integrator</code> with time step <code>timeStepSeconds</code>.
+     */
+    static double maxVelocityError(int size, TimeIntegrator integrator,
+            double timeStepSeconds) {
+        final DenseMesh reference = REFERENCES.computeIfAbsent(size,
+                n -> run(create(n, TimeIntegrator.SSP_RK3), REFERENCE_TIME_STEP_SECONDS));
+        final DenseMesh a = run(create(size, integrator), timeStepSeconds);
+        final Grid grid = a.grid();
+        double max = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i))
+                max = Math.max(max, Math.abs(a.fields().velocityEast(i)
+                        - reference.fields().velocityEast(i))
+                        + Math.abs(a.fields().velocityNorth(i)
+                                - reference.fields().velocityNorth(i))
+                        + Math.abs(a.fields().velocityUp(i) - reference.fields().velocityUp(i)));
+        return max;
+    }
+
+    @Benchmark
+    public double run() {
+        final DenseMesh m = run(whirlpool, timeStep);
+        return m.fields().velocityEast(m.grid().index(size / 2, size / 2, 0));
+    }
+
+    /**
+     * Prints the largest velocity error of every combination of the
+     * parameters of this benchmark.
+     * 
+     * @param args
+     *            ignored
+     * @throws NoSuchFieldException
+     *             never
+     */
+    public static void main(String[] args) throws NoSuchFieldException {
+        System.out.println("size integrator timeStep maxVelocityError");
+        for (final String size : values("size"))
+            for (final String integrator : values("integrator"))
+                for (final String timeStep : values("timeStep"))
+                    System.out.println(size + " " + integrator + " " + timeStep + " "
+                            + maxVelocityError(Integer.parseInt(size),
+                                    TimeIntegrator.valueOf(integrator),
+                                    Double.parseDouble(timeStep)));
+    }
+
+    private static String[] values(String field) throws NoSuchFieldException {
+        return TimeIntegratorBenchmark.class.getField(field).getAnnotation(Param.class).value();
+    }
+
+}
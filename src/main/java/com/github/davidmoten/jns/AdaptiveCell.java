@@ -0,0 +1,115 @@
+package com.github.davidmoten.jns;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A leaf of an {@link AdaptiveMesh} identified by its level (the number of
+ * times its base cell was divided) and its indices in units of cells of that
+ * level.
+ */
+final class AdaptiveCell implements Cell {
+
+    private final AdaptiveMesh mesh;
+    private final int level;
+    private final int east;
+    private final int north;
+    private final int up;
+    private final AdaptiveMesh.Values values;
+
+    AdaptiveCell(AdaptiveMesh mesh, int level, int east, int north, int up,
+            AdaptiveMesh.Values values) {
+        this.mesh = mesh;
+        this.level = level;
+        this.east = east;
+        this.north = north;
+        this.up = up;
+        this.values = values;
+    }
+
+    int level() {
+        return level;
+    }
+
+    @Override
+    public CellType type() {
+        return values.type;
+    }
+
+    @Override
+    public Vector position() {
+        return values.position;
+    }
+
+    @Override
+    public double pressure() {
+        if (values.type != CellType.FLUID)
+            throw new NoSuchElementException("No value present");
+        return values.pressure;
+    }
+
+    @Override
+    public Vector velocity() {
+        if (values.type != CellType.FLUID)
+            throw new NoSuchElementException("No value present");
+        return values.velocity;
+    }
+
+    @Override
+    public double density() {
+        return values.density;
+    }
+
+    @Override
+    public double viscosity() {
+        return values.viscosity;
+    }
+
+    @Override
+    public boolean isBoundary() {
+        return values.isBoundary;
+    }
+
+    @Override
+    public Cell neighbour(Direction direction, int count) {
+        if (count == 0)
+            return this;
+        final int sign = count > 0 ? 1 : -1;
+        final Cell next = mesh.find(level, //
+                east + (direction == Direction.EAST ? sign : 0), //
+                north + (direction == Direction.NORTH ? sign : 0), //
+                up + (direction == Direction.UP ? sign : 0), //
+                direction, sign);
+        return next.neighbour(direction, count - sign);
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = System.identityHashCode(mesh);
+        result = prime * result + level;
+        result = prime * result + east;
+        result = prime * result + north;
+        result = prime * result + up;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final AdaptiveCell other = (AdaptiveCell) obj;
+        return mesh == other.mesh && level == other.level && east == other.east
+                && north == other.north && up == other.up;
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveCell [level=" + level + ", type=" + type() + ", position=" + position()
+                + "]";
+    }
+
+}
@@ -0,0 +1,509 @@
+package com.github.davidmoten.jns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Mesh} whose cells are the leaves of a {@link QuadTree} or
+ * {@link OctTree} rooted at each cell of a regular base grid so that fine
+ * cells are only used where the flow needs them (see {@link Refinement}).
+ *
+ * <p>
+ * Each cell has a single neighbour in each direction as {@link MeshCell}
+ * requires: the neighbour of a cell is the leaf containing the cell of the
+ * same level next to it or, if the cells there are smaller, the leaf on the
+ * face nearest the lower corner. Cells are stepped with {@link Solver} taking
+ * second derivatives in the non-uniform form where the neighbours of a cell
+ * are at uneven distances (next to a cell of another level). Cells outside the
+ * base grid are created by the creator and never change.
+ *
+ * <p>
+ * {@link #cell(int, int, int)} takes indices of the base grid and returns the
+ * leaf at the lower corner of that base cell. Use {@link #cells()} to visit
+ * every leaf.
+ */
+public final class AdaptiveMesh implements Mesh {
+
+    private static Logger log = LoggerFactory.getLogger(AdaptiveMesh.class);
+
+    private final Shared shared;
+    // the tree of each cell of the base grid, east fastest then north then up
+    private final List<RegionTree<Values>> trees;
+
+    private AdaptiveMesh(Shared shared, List<RegionTree<Values>> trees) {
+        this.shared = shared;
+        this.trees = trees;
+    }
+
+    /**
+     * Creates an adaptive mesh whose base grid cells are given by
+     * <code>creator</code>, then refines it up to
+     * {@link Refinement#maxLevel()} times. The positions returned by the
+     * creator must lie on a regular grid.
+     *
+     * @param creator
+     * @param cellsEast
+     * @param cellsNorth
+     * @param cellsUp
+     * @param cellSizeEast
+     * @param cellSizeNorth
+     * @param cellSizeUp
+     * @param refinement
+     * @return new mesh
+     */
+    static AdaptiveMesh create(Function<Indices, CellData> creator, int cellsEast,
+            int cellsNorth, int cellsUp, double cellSizeEast, double cellSizeNorth,
+            double cellSizeUp, Refinement refinement) {
+        if (creator == null)
+            throw new NullPointerException("creator must not be null");
+        if (refinement == null)
+            throw new NullPointerException("refinement must not be null");
+        if (cellsEast < 1 || cellsNorth < 1 || cellsUp < 1)
+            throw new IllegalArgumentException("cellsEast, cellsNorth and cellsUp must be >0");
+        final Vector origin = creator.apply(new Indices(0, 0, 0)).position();
+        final Vector spacing = Vector.create(
+                creator.apply(new Indices(1, 0, 0)).position().east() - origin.east(),
+                creator.apply(new Indices(0, 1, 0)).position().north() - origin.north(),
+                creator.apply(new Indices(0, 0, 1)).position().up() - origin.up());
+        final Shared shared = new Shared(creator, cellsEast, cellsNorth, cellsUp, cellSizeEast,
+                cellSizeNorth, cellSizeUp, refinement, spacing);
+        final List<RegionTree<Values>> trees = new ArrayList<>();
+        for (int up = 0; up < cellsUp; up++)
+            for (int north = 0; north < cellsNorth; north++)
+                for (int east = 0; east < cellsEast; east++)
+                    trees.add(shared.leaf(new Values(creator.apply(new Indices(east, north,
+                            up)))));
+        AdaptiveMesh mesh = new AdaptiveMesh(shared, trees);
+        for (int i = 0; i < refinement.maxLevel(); i++)
+            mesh = mesh.adapt();
+        return mesh;
+    }
+
+    @Override
+    public Cell cell(int indexEast, int indexNorth, int indexUp) {
+        return find(0, indexEast, indexNorth, indexUp, Direction.EAST, 1);
+    }
+
+    /**
+     * Returns the leaf containing the cell at <code>level</code> with the
+     * given indices (in units of cells of that level). If that cell is
+     * divided then returns the leaf of it that is on the face facing
+     * <code>sign</code> times <code>direction</code> nearest the lower
+     * corner.
+     */
+    Cell find(int level, int east, int north, int up, Direction direction, int sign) {
+        final int baseEast = east >> level;
+        final int baseNorth = north >> level;
+        final int baseUp = shared.refineUp ? up >> level : up;
+        if (baseEast < 0 || baseEast >= shared.cellsEast || baseNorth < 0
+                || baseNorth >= shared.cellsNorth || baseUp < 0 || baseUp >= shared.cellsUp)
+            return new AdaptiveCell(this, 0, baseEast, baseNorth, baseUp,
+                    shared.outside(baseEast, baseNorth, baseUp));
+        RegionTree<Values> tree = trees.get(shared.baseIndex(baseEast, baseNorth, baseUp));
+        int depth = 0;
+        int e = baseEast;
+        int n = baseNorth;
+        int u = baseUp;
+        while (tree.hasChildren()) {
+            final int bitEast;
+            final int bitNorth;
+            final int bitUp;
+            if (depth < level) {
+                final int shift = level - depth - 1;
+                bitEast = (east >> shift) & 1;
+                bitNorth = (north >> shift) & 1;
+                bitUp = shared.refineUp ? (up >> shift) & 1 : 0;
+            } else {
+                // the neighbour is smaller so take one on the facing face
+                bitEast = direction == Direction.EAST && sign < 0 ? 1 : 0;
+                bitNorth = direction == Direction.NORTH && sign < 0 ? 1 : 0;
+                bitUp = shared.refineUp && direction == Direction.UP && sign < 0 ? 1 : 0;
+            }
+            tree = tree.child(bitEast, bitNorth, bitUp);
+            e = 2 * e + bitEast;
+            n = 2 * n + bitNorth;
+            u = shared.refineUp ? 2 * u + bitUp : u;
+            depth++;
+        }
+        return new AdaptiveCell(this, depth, e, n, u, tree.value());
+    }
+
+    @Override
+    public Collection<Cell> cells() {
+        final List<Cell> list = new ArrayList<>();
+        int index = 0;
+        for (int up = 0; up < shared.cellsUp; up++)
+            for (int north = 0; north < shared.cellsNorth; north++)
+                for (int east = 0; east < shared.cellsEast; east++)
+                    collect(trees.get(index++), 0, east, north, up, list);
+        return list;
+    }
+
+    private void collect(RegionTree<Values> tree, int depth, int east, int north, int up,
+            List<Cell> list) {
+        if (tree.hasChildren())
+            forEachChild((e, n, u) -> collect(tree.child(e, n, u), depth + 1, 2 * east + e,
+                    2 * north + n, shared.refineUp ? 2 * up + u : up, list));
+        else
+            list.add(new AdaptiveCell(this, depth, east, north, up, tree.value()));
+    }
+
+    @Override
+    public double cellSizeEast() {
+        return shared.cellSizeEast;
+    }
+
+    @Override
+    public double cellSizeNorth() {
+        return shared.cellSizeNorth;
+    }
+
+    @Override
+    public double cellSizeUp() {
+        return shared.cellSizeUp;
+    }
+
+    /**
+     * Returns the size of the smallest cell that refinement can create.
+     */
+    Vector smallestCellSize() {
+        final double divisor = 1 << shared.refinement.maxLevel();
+        return Vector.create(shared.cellSizeEast / divisor, shared.cellSizeNorth / divisor,
+                shared.refineUp ? shared.cellSizeUp / divisor : shared.cellSizeUp);
+    }
+
+    /**
+     * Returns the sum over the axes along which the mesh can have more than
+     * one cell of the weights <code>2/(2d)<sup>2</sup></code> of the second
+     * derivative (as in {@link Solver}) for the smallest cell size d that
+     * refinement can create. A cell next to a larger cell has smaller weights
+     * in the non-uniform form so this bounds the weights of every cell.
+     */
+    double maxViscousWeight() {
+        final Vector size = smallestCellSize();
+        final int levels = shared.refinement.maxLevel();
+        return weight(shared.cellsEast << levels, size.east())
+                + weight(shared.cellsNorth << levels, size.north())
+                + weight(shared.refineUp ? shared.cellsUp << levels : shared.cellsUp, size.up());
+    }
+
+    private static double weight(int cells, double size) {
+        // a single cell along an axis has no neighbours to diffuse to
+        return cells == 1 ? 0 : 2 / (4 * size * size);
+    }
+
+    @Override
+    public AdaptiveMesh stepMultiple(double timeStepSeconds, long numberOfSteps) {
+        AdaptiveMesh m = this;
+        for (int i = 0; i < numberOfSteps; i++) {
+            log.debug("step {}", i);
+            m = m.step(timeStepSeconds);
+        }
+        return m;
+    }
+
+    /**
+     * Steps every fluid leaf then refines and coarsens the result once.
+     */
+    @Override
+    public AdaptiveMesh step(double timeStepSeconds) {
+        final List<RegionTree<Values>> next = forEachBase((tree, east, north,
+                up) -> step(tree, 0, east, north, up, timeStepSeconds));
+        return new AdaptiveMesh(shared, next).adapt();
+    }
+
+    private RegionTree<Values> step(RegionTree<Values> tree, int depth, int east, int north,
+            int up, double timeStepSeconds) {
+        if (tree.hasChildren())
+            return shared.branch((e, n, u) -> step(tree.child(e, n, u), depth + 1,
+                    2 * east + e, 2 * north + n, shared.refineUp ? 2 * up + u : up,
+                    timeStepSeconds));
+        final Values v = tree.value();
+        if (v.type != CellType.FLUID)
+            return tree;
+        final VelocityPressure vp = step(new AdaptiveCell(this, depth, east, north, up, v),
+                timeStepSeconds);
+        return shared.leaf(v.with(vp.getVelocity(), vp.getPressure()));
+    }
+
+    /**
+     * Returns the values of a cell of this mesh after one step.
+     */
+    // visible for testing
+    VelocityPressure step(Cell cell, double timeStepSeconds) {
+        return shared.solver.step(cell, timeStepSeconds);
+    }
+
+    /**
+     * Returns a mesh where each fluid leaf whose indicator exceeds the refine
+     * threshold is divided and each cell whose children are all fluid leaves
+     * with indicators below the coarsen threshold is merged.
+     */
+    AdaptiveMesh adapt() {
+        return new AdaptiveMesh(shared, forEachBase((tree, east, north, up) -> adapt(tree, 0,
+                east, north, up)));
+    }
+
+    private RegionTree<Values> adapt(RegionTree<Values> tree, int depth, int east, int north,
+            int up) {
+        final Refinement r = shared.refinement;
+        if (!tree.hasChildren()) {
+            final Values v = tree.value();
+            if (depth < r.maxLevel() && v.isRefinable() && indicator(new AdaptiveCell(this,
+                    depth, east, north, up, v)) > r.refineThreshold())
+                return refine(v, depth);
+            else
+                return tree;
+        }
+        if (isCoarsenable(tree, depth, east, north, up))
+            return shared.leaf(merge(tree));
+        return shared.branch((e, n, u) -> adapt(tree.child(e, n, u), depth + 1, 2 * east + e,
+                2 * north + n, shared.refineUp ? 2 * up + u : up));
+    }
+
+    private boolean isCoarsenable(RegionTree<Values> tree, int depth, int east, int north,
+            int up) {
+        final List<Boolean> coarsenable = new ArrayList<>();
+        forEachChild((e, n, u) -> {
+            final RegionTree<Values> child = tree.child(e, n, u);
+            coarsenable.add(!child.hasChildren() && child.value().isRefinable()
+                    && indicator(new AdaptiveCell(this, depth + 1, 2 * east + e, 2 * north + n,
+                            shared.refineUp ? 2 * up + u : up,
+                            child.value())) < shared.refinement.coarsenThreshold());
+        });
+        return !coarsenable.contains(false);
+    }
+
+    private RegionTree<Values> refine(Values v, int depth) {
+        final Vector gradient = Util.GRAVITY.times(v.density);
+        return shared.branch((e, n, u) -> {
+            final Vector offset = Vector.create(
+                    (e - 0.5) * shared.spacing.east() / (2 << depth),
+                    (n - 0.5) * shared.spacing.north() / (2 << depth),
+                    shared.refineUp ? (u - 0.5) * shared.spacing.up() / (2 << depth) : 0);
+            // keep the pressure hydrostatic within the cell
+            return shared.leaf(v.at(v.position.add(offset), v.velocity,
+                    v.pressure + offset.dotProduct(gradient)));
+        });
+    }
+
+    private Values merge(RegionTree<Values> tree) {
+        final List<Values> children = new ArrayList<>();
+        forEachChild((e, n, u) -> children.add(tree.child(e, n, u).value()));
+        Vector position = Vector.ZERO;
+        Vector velocity = Vector.ZERO;
+        double pressure = 0;
+        for (final Values child : children) {
+            position = position.add(child.position);
+            velocity = velocity.add(child.velocity);
+            pressure += child.pressure;
+        }
+        final int count = children.size();
+        return children.get(0).at(position.divideBy(count), velocity.divideBy(count),
+                pressure / count);
+    }
+
+    /**
+     * Returns the magnitude of the vorticity or velocity gradient at the cell
+     * times its size. Obstacles are taken to have zero velocity and unknown
+     * cells are ignored.
+     */
+    private double indicator(AdaptiveCell cell) {
+        final Vector[] gradient = new Vector[3];
+        for (final Direction d : Direction.values())
+            gradient[d.ordinal()] = velocityGradient(cell, d);
+        final Vector dEast = gradient[Direction.EAST.ordinal()];
+        final Vector dNorth = gradient[Direction.NORTH.ordinal()];
+        final Vector dUp = gradient[Direction.UP.ordinal()];
+        final double value;
+        if (shared.refinement.criterion() == Refinement.Criterion.VORTICITY)
+            value = Vector.create(dNorth.up() - dUp.north(), dUp.east() - dEast.up(),
+                    dEast.north() - dNorth.east()).magnitude();
+        else
+            value = Math.sqrt(dEast.dotProduct(dEast) + dNorth.dotProduct(dNorth)
+                    + dUp.dotProduct(dUp));
+        final int scale = 1 << cell.level();
+        double size = Math.max(Math.abs(shared.spacing.east()),
+                Math.abs(shared.spacing.north())) / scale;
+        size = Math.max(size, Math.abs(shared.spacing.up()) / (shared.refineUp ? scale : 1));
+        return value * size;
+    }
+
+    private static Vector velocityGradient(Cell cell, Direction d) {
+        final Cell lower = cell.neighbour(d, -1);
+        final Cell upper = cell.neighbour(d, 1);
+        final boolean hasLower = lower.type() != CellType.UNKNOWN;
+        final boolean hasUpper = upper.type() != CellType.UNKNOWN;
+        if (hasLower && hasUpper)
+            return velocity(upper).minus(velocity(lower)).divideBy(
+                    upper.position().value(d) - lower.position().value(d));
+        else if (hasUpper)
+            return velocity(upper).minus(cell.velocity()).divideBy(
+                    upper.position().value(d) - cell.position().value(d));
+        else if (hasLower)
+            return cell.velocity().minus(velocity(lower)).divideBy(
+                    cell.position().value(d) - lower.position().value(d));
+        else
+            return Vector.ZERO;
+    }
+
+    private static Vector velocity(Cell cell) {
+        if (cell.type() == CellType.FLUID)
+            return cell.velocity();
+        else
+            return Vector.ZERO;
+    }
+
+    private List<RegionTree<Values>> forEachBase(BaseFunction f) {
+        final List<RegionTree<Values>> list = new ArrayList<>(trees.size());
+        int index = 0;
+        for (int up = 0; up < shared.cellsUp; up++)
+            for (int north = 0; north < shared.cellsNorth; north++)
+                for (int east = 0; east < shared.cellsEast; east++)
+                    list.add(f.apply(trees.get(index++), east, north, up));
+        return list;
+    }
+
+    private void forEachChild(ChildConsumer f) {
+        for (int u = 0; u < (shared.refineUp ? 2 : 1); u++)
+            for (int n = 0; n < 2; n++)
+                for (int e = 0; e < 2; e++)
+                    f.accept(e, n, u);
+    }
+
+    private static interface BaseFunction {
+        RegionTree<Values> apply(RegionTree<Values> tree, int east, int north, int up);
+    }
+
+    private static interface ChildFunction<T> {
+        T apply(int east, int north, int up);
+    }
+
+    private static interface ChildConsumer {
+        void accept(int east, int north, int up);
+    }
+
+    /**
+     * State shared by all generations of a mesh.
+     */
+    private static final class Shared {
+
+        final Function<Indices, CellData> creator;
+        final int cellsEast;
+        final int cellsNorth;
+        final int cellsUp;
+        final double cellSizeEast;
+        final double cellSizeNorth;
+        final double cellSizeUp;
+        final Refinement refinement;
+        final boolean refineUp;
+        // distance between the centres of neighbouring base cells
+        final Vector spacing;
+        final Solver solver = new Solver(true);
+        final ConcurrentHashMap<Indices, Values> outside = new ConcurrentHashMap<>();
+
+        Shared(Function<Indices, CellData> creator, int cellsEast, int cellsNorth,
+                int cellsUp, double cellSizeEast, double cellSizeNorth, double cellSizeUp,
+                Refinement refinement, Vector spacing) {
+            this.creator = creator;
+            this.cellsEast = cellsEast;
+            this.cellsNorth = cellsNorth;
+            this.cellsUp = cellsUp;
+            this.cellSizeEast = cellSizeEast;
+            this.cellSizeNorth = cellSizeNorth;
+            this.cellSizeUp = cellSizeUp;
+            this.refinement = refinement;
+            this.refineUp = refinement.refineUp() && cellsUp > 1;
+            this.spacing = spacing;
+        }
+
+        int baseIndex(int east, int north, int up) {
+            return east + cellsEast * (north + cellsNorth * up);
+        }
+
+        Values outside(int east, int north, int up) {
+            return outside.computeIfAbsent(new Indices(east, north, up),
+                    i -> new Values(creator.apply(i)));
+        }
+
+        RegionTree<Values> leaf(Values values) {
+            if (refineUp)
+                return new OctTree<>(values);
+            else
+                return new QuadTree<>(values);
+        }
+
+        RegionTree<Values> branch(ChildFunction<RegionTree<Values>> f) {
+            if (refineUp) {
+                final EnumMap<OctTree.Position, OctTree<Values>> children = new EnumMap<>(
+                        OctTree.Position.class);
+                for (int u = 0; u < 2; u++)
+                    for (int n = 0; n < 2; n++)
+                        for (int e = 0; e < 2; e++)
+                            children.put(OctTree.Position.of(e, n, u),
+                                    (OctTree<Values>) f.apply(e, n, u));
+                return new OctTree<>(children);
+            } else {
+                final EnumMap<QuadTree.Position, QuadTree<Values>> children = new EnumMap<>(
+                        QuadTree.Position.class);
+                for (int n = 0; n < 2; n++)
+                    for (int e = 0; e < 2; e++)
+                        children.put(QuadTree.Position.of(e, n),
+                                (QuadTree<Values>) f.apply(e, n, 0));
+                return new QuadTree<>(children);
+            }
+        }
+    }
+
+    /**
+     * The values of a leaf.
+     */
+    static final class Values {
+
+        final CellType type;
+        final Vector position;
+        final Vector velocity;
+        final double pressure;
+        final double density;
+        final double viscosity;
+        final boolean isBoundary;
+
+        private Values(CellType type, Vector position, Vector velocity, double pressure,
+                double density, double viscosity, boolean isBoundary) {
+            this.type = type;
+            this.position = position;
+            this.velocity = velocity;
+            this.pressure = pressure;
+            this.density = density;
+            this.viscosity = viscosity;
+            this.isBoundary = isBoundary;
+        }
+
+        Values(CellData c) {
+            this(c.type(), c.position(), c.type() == CellType.FLUID ? c.velocity() : null,
+                    c.type() == CellType.FLUID ? c.pressure() : Double.NaN, c.density(),
+                    c.viscosity(), c.isBoundary());
+        }
+
+        Values with(Vector velocity, double pressure) {
+            return at(position, velocity, pressure);
+        }
+
+        Values at(Vector position, Vector velocity, double pressure) {
+            return new Values(type, position, velocity, pressure, density, viscosity,
+                    isBoundary);
+        }
+
+        boolean isRefinable() {
+            return type == CellType.FLUID && !isBoundary;
+        }
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.github.davidmoten.jns;
+
+/**
+ * How a dense mesh treats the convective term of the momentum equation (see
+ * {@link Mesh.Builder#advection(Advection)}).
+ */
+public enum Advection {
+
+    /**
+     * The convective term is evaluated explicitly with the finite differences
+     * of {@link Solver} so the time step is limited by the CFL condition.
+     */
+    CENTRAL,
+
+    /**
+     * Each fluid cell takes the velocity found at the point it came from in
+     * the previous generation (see {@link SemiLagrangian}). This is stable for
+     * any time step, so the CFL condition no longer applies, but is more
+     * diffusive than {@link #CENTRAL}.
+     */
+    SEMI_LAGRANGIAN;
+
+}
@@ -0,0 +1,73 @@
+package com.github.davidmoten.jns;
+
+import java.util.Arrays;
+
+/**
+ * {@link Fields} held in on-heap primitive arrays, one array per quantity.
+ */
+public final class ArrayFields implements Fields {
+
+    final double[] pressure;
+    final double[] velocityEast;
+    final double[] velocityNorth;
+    final double[] velocityUp;
+
+    public ArrayFields(int size) {
+        this.pressure = new double[size];
+        this.velocityEast = new double[size];
+        this.velocityNorth = new double[size];
+        this.velocityUp = new double[size];
+        Arrays.fill(pressure, Double.NaN);
+        Arrays.fill(velocityEast, Double.NaN);
+        Arrays.fill(velocityNorth, Double.NaN);
+        Arrays.fill(velocityUp, Double.NaN);
+    }
+
+    @Override
+    public int size() {
+        return pressure.length;
+    }
+
+    @Override
+    public double pressure(int index) {
+        return pressure[index];
+    }
+
+    @Override
+    public double velocityEast(int index) {
+        return velocityEast[index];
+    }
+
+    @Override
+    public double velocityNorth(int index) {
+        return velocityNorth[index];
+    }
+
+    @Override
+    public double velocityUp(int index) {
+        return velocityUp[index];
+    }
+
+    @Override
+    public void set(int index, double pressure, double velocityEast, double velocityNorth,
+            double velocityUp) {
+        this.pressure[index] = pressure;
+        this.velocityEast[index] = velocityEast;
+        this.velocityNorth[index] = velocityNorth;
+        this.velocityUp[index] = velocityUp;
+    }
+
+    @Override
+    public void copyAll(Fields fields) {
+        if (!(fields instanceof ArrayFields)) {
+            Fields.super.copyAll(fields);
+            return;
+        }
+        final ArrayFields from = (ArrayFields) fields;
+        System.arraycopy(from.pressure, 0, pressure, 0, pressure.length);
+        System.arraycopy(from.velocityEast, 0, velocityEast, 0, velocityEast.length);
+        System.arraycopy(from.velocityNorth, 0, velocityNorth, 0, velocityNorth.length);
+        System.arraycopy(from.velocityUp, 0, velocityUp, 0, velocityUp.length);
+    }
+
+}
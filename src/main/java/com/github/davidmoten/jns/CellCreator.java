@@ -5,6 +5,9 @@ import java.util.function.Function;
 
 public class CellCreator implements Function<Indices, CellData> {
 
+    private final int eastSize;
+    private final int northSize;
+    private final int upSize;
     private final double density;
     private final double viscosity;
     private final Function<Indices, Vector> positionFunction;
@@ -22,6 +25,9 @@ public class CellCreator implements Function<Indices, CellData> {
             Optional<Function<Indices, CellType>> typeFunction,
             Optional<Function<Indices, Double>> pressureFunction,
             Optional<Function<Indices, Boolean>> isBoundaryFunction) {
+        this.eastSize = eastSize;
+        this.northSize = northSize;
+        this.upSize = upSize;
         this.density = density;
         this.viscosity = viscosity;
         this.positionFunctionDefault = i -> {
@@ -58,6 +64,18 @@ public class CellCreator implements Function<Indices, CellData> {
                 Optional.empty(), Optional.empty());
     }
 
+    public int eastSize() {
+        return eastSize;
+    }
+
+    public int northSize() {
+        return northSize;
+    }
+
+    public int upSize() {
+        return upSize;
+    }
+
     private final Function<Indices, Boolean> isBoundaryFunctionDefault = i -> false;
 
     private static final Function<Indices, Vector> velocityFunctionDefault = i -> Vector.ZERO;
@@ -0,0 +1,354 @@
+package com.github.davidmoten.jns;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Writes and reads the state of a {@link DenseMesh} in a compact binary
+ * format so that a long run can be restarted from its last checkpoint.
+ *
+ * <p>
+ * The format (big endian) is a header of
+ * <ul>
+ * <li>magic number and version (int, int)</li>
+ * <li>halo, cellsEast, cellsNorth, cellsUp (ints)</li>
+ * <li>cellSizeEast, cellSizeNorth, cellSizeUp, timeStepSeconds, density,
+ * viscosity (6 doubles)</li>
+ * <li>the positions along each axis including the halo (doubles)</li>
+ * </ul>
+ * followed by one record per horizontal layer (slab) of the stored cells
+ * holding the flags of each cell (see {@link Grid}) then the pressures and the
+ * east, north and up velocities (doubles). Reading and writing go a slab at a
+ * time so neither needs more than a slab of memory beyond the mesh. A range
+ * of rows can be read on its own (see {@link Decomposition}).
+ */
+public final class Checkpoint {
+
+    private static final int MAGIC = 0x4A4E5343;
+    private static final int VERSION = 1;
+    private static final int HEADER_INTS = 4;
+    private static final int HEADER_DOUBLES = 6;
+    private static final int QUANTITIES = 4;
+
+    private Checkpoint() {
+        // prevent instantiation
+    }
+
+    /**
+     * Writes <code>mesh</code> to <code>file</code>. The file is written
+     * beside the target then moved into place so an existing checkpoint is
+     * only replaced once the new one is complete.
+     *
+     * @param mesh
+     * @param timeStepSeconds
+     *            recorded in the header for the restarted run
+     * @param file
+     */
+    public static void write(DenseMesh mesh, double timeStepSeconds, Path file) {
+        final Grid grid = mesh.grid();
+        final Fields fields = mesh.fields();
+        final Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final int totalEast = grid.cells(Direction.EAST) + 2 * Grid.HALO;
+                final int totalNorth = grid.cells(Direction.NORTH) + 2 * Grid.HALO;
+                final int totalUp = grid.cells(Direction.UP) + 2 * Grid.HALO;
+                final ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES + headerBytes(
+                        totalEast, totalNorth, totalUp));
+                header.putInt(MAGIC).putInt(VERSION);
+                header.putInt(Grid.HALO).putInt(grid.cellsEast()).putInt(grid.cellsNorth())
+                        .putInt(grid.cellsUp());
+                header.putDouble(mesh.cellSizeEast()).putDouble(mesh.cellSizeNorth())
+                        .putDouble(mesh.cellSizeUp()).putDouble(timeStepSeconds)
+                        .putDouble(grid.density()).putDouble(grid.viscosity());
+                for (int i = 0; i < totalEast; i++)
+                    header.putDouble(grid.position(i, Direction.EAST));
+                for (int i = 0; i < totalNorth; i++)
+                    header.putDouble(grid.position(i * grid.stride(Direction.NORTH),
+                            Direction.NORTH));
+                for (int i = 0; i < totalUp; i++)
+                    header.putDouble(grid.position(i * grid.stride(Direction.UP),
+                            Direction.UP));
+                header.flip();
+                writeFully(channel, header);
+                final int slabSize = grid.stride(Direction.UP);
+                final ByteBuffer slab = ByteBuffer.allocateDirect(slabBytes(slabSize));
+                for (int start = 0; start < grid.size(); start += slabSize) {
+                    slab.clear();
+                    for (int i = start; i < start + slabSize; i++)
+                        slab.put(Grid.flags(grid.type(i), grid.isBoundary(i)));
+                    final DoubleBuffer values = slab.asDoubleBuffer();
+                    for (int i = start; i < start + slabSize; i++)
+                        values.put(fields.pressure(i));
+                    for (int i = start; i < start + slabSize; i++)
+                        values.put(fields.velocityEast(i));
+                    for (int i = start; i < start + slabSize; i++)
+                        values.put(fields.velocityNorth(i));
+                    for (int i = start; i < start + slabSize; i++)
+                        values.put(fields.velocityUp(i));
+                    slab.position(0);
+                    writeFully(channel, slab);
+                }
+                channel.force(false);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes <code>mesh</code> to <code>file</code> using
+     * <code>executor</code> so that stepping can continue while the checkpoint
+     * is written. A {@link DenseMesh} returned to the caller is never modified
+     * by later steps so no copy is made.
+     *
+     * @param mesh
+     * @param timeStepSeconds
+     * @param file
+     * @param executor
+     * @return future that completes with <code>file</code> once written
+     */
+    public static CompletableFuture<Path> writeAsync(DenseMesh mesh, double timeStepSeconds,
+            Path file, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            write(mesh, timeStepSeconds, file);
+            return file;
+        }, executor);
+    }
+
+    /**
+     * Reads a mesh written by {@link #write(DenseMesh, double, Path)} that
+     * steps sequentially with storage on the heap. Use
+     * {@link Mesh.Builder#checkpoint(Path)} for other settings.
+     *
+     * @param file
+     * @return mesh
+     */
+    public static DenseMesh read(Path file) {
+        return read(file, DenseSettings.defaults());
+    }
+
+    static DenseMesh read(Path file, DenseSettings settings) {
+        return readRows(file, 0, header(file).cellsNorth(), settings);
+    }
+
+    /**
+     * Reads the <code>cellsNorth</code> rows along {@link Direction#NORTH}
+     * from <code>fromNorth</code> of a checkpoint and the {@link Grid#HALO}
+     * rows either side (as its halo) into a mesh of those rows. Only those
+     * rows are read from each slab.
+     *
+     * @param file
+     * @param fromNorth
+     * @param cellsNorth
+     * @param settings
+     * @return mesh
+     */
+    static DenseMesh readRows(Path file, int fromNorth, int cellsNorth,
+            DenseSettings settings) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final Header h = readHeader(channel);
+            if (fromNorth < 0 || cellsNorth < 1 || fromNorth + cellsNorth > h.cellsNorth)
+                throw new IllegalArgumentException("rows " + fromNorth + " to "
+                        + (fromNorth + cellsNorth - 1) + " are not in the " + h.cellsNorth
+                        + " rows of the checkpoint");
+            final int totalEast = h.cellsEast + 2 * Grid.HALO;
+            final double[] positionEast = readDoubles(channel, totalEast);
+            final double[] positionNorth = Arrays.copyOfRange(
+                    readDoubles(channel, h.cellsNorth + 2 * Grid.HALO), fromNorth,
+                    fromNorth + cellsNorth + 2 * Grid.HALO);
+            final double[] positionUp = readDoubles(channel, h.cellsUp + 2 * Grid.HALO);
+            final long start = channel.position();
+            final int fileSlabSize = totalEast * (h.cellsNorth + 2 * Grid.HALO);
+            // the halo row below the first row is at fromNorth in the slab
+            final long offset = (long) fromNorth * totalEast;
+            final int size = Grid.size(h.cellsEast, cellsNorth, h.cellsUp);
+            final int slabSize = totalEast * (cellsNorth + 2 * Grid.HALO);
+            final ByteBuffer flags = settings.storage.cellFlags(size);
+            final Fields fields = settings.storage.fields(size, slabSize);
+            final ByteBuffer slabFlags = ByteBuffer.allocateDirect(slabSize);
+            final ByteBuffer slabValues = ByteBuffer.allocateDirect(
+                    QUANTITIES * slabSize * Double.BYTES);
+            for (int slab = 0; slab < h.cellsUp + 2 * Grid.HALO; slab++) {
+                final long position = start + (long) slab * slabBytes(fileSlabSize);
+                slabFlags.clear();
+                readFully(channel, slabFlags, position + offset);
+                slabValues.clear();
+                for (int q = 0; q < QUANTITIES; q++) {
+                    slabValues.limit((q + 1) * slabSize * Double.BYTES);
+                    readFully(channel, slabValues, position + fileSlabSize
+                            + ((long) q * fileSlabSize + offset) * Double.BYTES);
+                }
+                slabValues.flip();
+                final DoubleBuffer values = slabValues.asDoubleBuffer();
+                final int first = slab * slabSize;
+                for (int i = 0; i < slabSize; i++) {
+                    flags.put(first + i, slabFlags.get(i));
+                    fields.set(first + i, values.get(i), values.get(i + slabSize),
+                            values.get(i + 2 * slabSize), values.get(i + 3 * slabSize));
+                }
+            }
+            final Grid grid = new Grid(h.cellsEast, cellsNorth, h.cellsUp, flags, positionEast,
+                    positionNorth, positionUp, h.density, h.viscosity);
+            return DenseMesh.create(grid, fields, h.cellSizeEast, h.cellSizeNorth,
+                    h.cellSizeUp, settings);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the header of a checkpoint only.
+     *
+     * @param file
+     * @return header
+     */
+    public static Header header(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Header readHeader(FileChannel channel) throws IOException {
+        final ByteBuffer start = ByteBuffer.allocate(2 * Integer.BYTES);
+        readFully(channel, start);
+        start.flip();
+        if (start.getInt() != MAGIC)
+            throw new IllegalArgumentException("not a checkpoint");
+        final int version = start.getInt();
+        if (version != VERSION)
+            throw new IllegalArgumentException("unsupported checkpoint version " + version);
+        final ByteBuffer b = ByteBuffer.allocate(HEADER_INTS * Integer.BYTES
+                + HEADER_DOUBLES * Double.BYTES);
+        readFully(channel, b);
+        b.flip();
+        final int halo = b.getInt();
+        if (halo != Grid.HALO)
+            throw new IllegalArgumentException("unsupported halo " + halo);
+        return new Header(b.getInt(), b.getInt(), b.getInt(), b.getDouble(), b.getDouble(),
+                b.getDouble(), b.getDouble(), b.getDouble(), b.getDouble());
+    }
+
+    private static int headerBytes(int totalEast, int totalNorth, int totalUp) {
+        return HEADER_INTS * Integer.BYTES + HEADER_DOUBLES * Double.BYTES
+                + (totalEast + totalNorth + totalUp) * Double.BYTES;
+    }
+
+    private static int slabBytes(int slabSize) {
+        return slabSize + QUANTITIES * slabSize * Double.BYTES;
+    }
+
+    private static double[] readDoubles(FileChannel channel, int count) throws IOException {
+        final ByteBuffer b = ByteBuffer.allocate(count * Double.BYTES);
+        readFully(channel, b);
+        b.flip();
+        final double[] values = new double[count];
+        b.asDoubleBuffer().get(values);
+        return values;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            if (channel.read(b) < 0)
+                throw new EOFException("checkpoint is truncated");
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer b, long position)
+            throws IOException {
+        long p = position;
+        while (b.hasRemaining()) {
+            final int n = channel.read(b, p);
+            if (n < 0)
+                throw new EOFException("checkpoint is truncated");
+            p += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            channel.write(b);
+    }
+
+    /**
+     * The dimensions and settings recorded in a checkpoint.
+     */
+    public static final class Header {
+
+        private final int cellsEast;
+        private final int cellsNorth;
+        private final int cellsUp;
+        private final double cellSizeEast;
+        private final double cellSizeNorth;
+        private final double cellSizeUp;
+        private final double timeStepSeconds;
+        private final double density;
+        private final double viscosity;
+
+        Header(int cellsEast, int cellsNorth, int cellsUp, double cellSizeEast,
+                double cellSizeNorth, double cellSizeUp, double timeStepSeconds,
+                double density, double viscosity) {
+            this.cellsEast = cellsEast;
+            this.cellsNorth = cellsNorth;
+            this.cellsUp = cellsUp;
+            this.cellSizeEast = cellSizeEast;
+            this.cellSizeNorth = cellSizeNorth;
+            this.cellSizeUp = cellSizeUp;
+            this.timeStepSeconds = timeStepSeconds;
+            this.density = density;
+            this.viscosity = viscosity;
+        }
+
+        public int cellsEast() {
+            return cellsEast;
+        }
+
+        public int cellsNorth() {
+            return cellsNorth;
+        }
+
+        public int cellsUp() {
+            return cellsUp;
+        }
+
+        public double cellSizeEast() {
+            return cellSizeEast;
+        }
+
+        public double cellSizeNorth() {
+            return cellSizeNorth;
+        }
+
+        public double cellSizeUp() {
+            return cellSizeUp;
+        }
+
+        public double timeStepSeconds() {
+            return timeStepSeconds;
+        }
+
+        public double density() {
+            return density;
+        }
+
+        public double viscosity() {
+            return viscosity;
+        }
+    }
+
+}
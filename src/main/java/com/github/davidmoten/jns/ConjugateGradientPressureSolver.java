@@ -0,0 +1,107 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Solves a {@link PoissonSystem} with the conjugate gradient method
+ * preconditioned by the diagonal (Jacobi) of the system, starting from the
+ * pressures already in the fields.
+ */
+public final class ConjugateGradientPressureSolver implements PressureSolver {
+
+    private static final double DEFAULT_TOLERANCE = 1e-10;
+    private static final int DEFAULT_MAX_ITERATIONS = 10000;
+
+    private final double tolerance;
+    private final int maxIterations;
+
+    /**
+     * Constructor.
+     * 
+     * @param tolerance
+     *            iteration stops when no residual is larger than
+     *            <code>tolerance</code> times the largest term of the system
+     * @param maxIterations
+     *            an exception is thrown if not converged after this many
+     *            iterations
+     */
+    public ConjugateGradientPressureSolver(double tolerance, int maxIterations) {
+        if (tolerance <= 0)
+            throw new IllegalArgumentException("tolerance must be >0");
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("maxIterations must be 1 or more");
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+    public ConjugateGradientPressureSolver() {
+        this(DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+    }
+
+    @Override
+    public int solve(PoissonSystem system, Fields fields) {
+        final int n = system.size();
+        final double[] x = new double[n];
+        final double[] r = new double[n];
+        final double[] z = new double[n];
+        final double[] p = new double[n];
+        final double[] q = new double[n];
+        system.read(fields, x);
+        system.rightHandSide(fields, r);
+        double scale = max(r);
+        system.multiply(x, q);
+        for (int u = 0; u < n; u++) {
+            scale = Math.max(scale, Math.abs(system.diagonal(u) * x[u]));
+            r[u] -= q[u];
+        }
+        final double limit = tolerance * scale;
+        int iterations = 0;
+        if (max(r) > limit) {
+            double rz = precondition(system, r, z);
+            System.arraycopy(z, 0, p, 0, n);
+            while (true) {
+                if (iterations == maxIterations)
+                    return Util.unexpected("pressure did not converge after " + iterations
+                            + " iterations, residual=" + max(r));
+                iterations++;
+                system.multiply(p, q);
+                final double alpha = rz / dot(p, q);
+                for (int u = 0; u < n; u++) {
+                    x[u] += alpha * p[u];
+                    r[u] -= alpha * q[u];
+                }
+                if (max(r) <= limit)
+                    break;
+                final double rzNext = precondition(system, r, z);
+                final double beta = rzNext / rz;
+                rz = rzNext;
+                for (int u = 0; u < n; u++)
+                    p[u] = z[u] + beta * p[u];
+            }
+        }
+        system.write(x, fields);
+        return iterations;
+    }
+
+    private static double precondition(PoissonSystem system, double[] r, double[] z) {
+        double rz = 0;
+        for (int u = 0; u < r.length; u++) {
+            z[u] = r[u] / system.diagonal(u);
+            rz += r[u] * z[u];
+        }
+        return rz;
+    }
+
+    private static double dot(double[] a, double[] b) {
+        double sum = 0;
+        for (int u = 0; u < a.length; u++)
+            sum += a[u] * b[u];
+        return sum;
+    }
+
+    private static double max(double[] a) {
+        double max = 0;
+        for (final double value : a)
+            max = Math.max(max, Math.abs(value));
+        return max;
+    }
+
+}
@@ -0,0 +1,337 @@
+package com.github.davidmoten.jns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Steps a {@link DenseMesh} in several JVM processes on the same host, each
+ * owning a range of rows along {@link Direction#NORTH} (a subdomain, see
+ * {@link Subdomain}). After every step each process sends the
+ * {@link Grid#HALO} rows at either end of its subdomain and the largest change
+ * of a velocity component in it to this process over a loopback socket. This
+ * process reduces the changes to a global residual and forwards the rows to
+ * the neighbouring subdomains as their halos.
+ *
+ * <p>
+ * Each fluid cell is stepped from the cells within the reach of its stencil
+ * only, so the result is identical to stepping the whole mesh in one process.
+ * That requires a mesh that solves pressure cell by cell with central
+ * advection, explicit viscosity and {@link TimeIntegrator#EULER} (the
+ * defaults) and without an active set (whose halo cells would not be tracked).
+ * The {@link Validation} of the mesh is applied in every process. The
+ * processes start from their rows of a {@link Checkpoint} of the mesh and run
+ * the class path of this process.
+ */
+public final class Decomposition {
+
+    private static final long START_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final long EXIT_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private final int processes;
+    private final int parallelism;
+    private final Optional<Double> tolerance;
+    private final List<String> javaOptions;
+
+    private Decomposition(int processes, int parallelism, Optional<Double> tolerance,
+            List<String> javaOptions) {
+        this.processes = processes;
+        this.parallelism = parallelism;
+        this.tolerance = tolerance;
+        this.javaOptions = javaOptions;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Steps <code>mesh</code> <code>maxSteps</code> times (or until the
+     * residual is within the tolerance) and returns the last generation
+     * assembled in this process with the settings of <code>mesh</code>.
+     *
+     * @param mesh
+     * @param timeStepSeconds
+     * @param maxSteps
+     * @return the last generation and the residual of each step
+     */
+    public Run run(DenseMesh mesh, double timeStepSeconds, long maxSteps) {
+        if (mesh == null)
+            throw new NullPointerException("mesh must not be null");
+        if (timeStepSeconds <= 0)
+            throw new IllegalArgumentException("timeStepSeconds must be >0");
+        if (maxSteps < 0)
+            throw new IllegalArgumentException("maxSteps must be >=0");
+        if (!mesh.stepsCellsIndependently())
+            throw new IllegalArgumentException("decomposition requires a mesh without a "
+                    + "pressure solver, implicit diffusion, semi-Lagrangian advection or a "
+                    + "multistage time integrator");
+        if (mesh.hasActiveSet())
+            throw new IllegalArgumentException("decomposition requires a mesh without an "
+                    + "active set");
+        final Subdomain[] subdomains = Subdomain.split(mesh.grid().cellsNorth(), processes);
+        if (maxSteps == 0)
+            return new Run(mesh, new double[0]);
+        final List<Process> started = new ArrayList<>();
+        final Socket[] sockets = new Socket[processes];
+        Path checkpoint = null;
+        try (ServerSocket server = new ServerSocket(0, processes,
+                InetAddress.getLoopbackAddress())) {
+            checkpoint = Files.createTempFile("jns-decomposition", ".checkpoint");
+            Checkpoint.write(mesh, timeStepSeconds, checkpoint);
+            for (int rank = 0; rank < processes; rank++)
+                started.add(start(server.getLocalPort(), rank));
+            server.setSoTimeout((int) START_TIMEOUT_MS);
+            final DataInputStream[] in = new DataInputStream[processes];
+            final DataOutputStream[] out = new DataOutputStream[processes];
+            for (int i = 0; i < processes; i++) {
+                final Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                final DataInputStream input = new DataInputStream(
+                        new BufferedInputStream(socket.getInputStream()));
+                final int rank = input.readInt();
+                sockets[rank] = socket;
+                in[rank] = input;
+                out[rank] = new DataOutputStream(
+                        new BufferedOutputStream(socket.getOutputStream()));
+            }
+            for (final Subdomain s : subdomains) {
+                final DataOutputStream o = out[s.rank];
+                o.writeUTF(checkpoint.toAbsolutePath().toString());
+                o.writeInt(s.count);
+                o.writeInt(s.fromNorth);
+                o.writeInt(s.cellsNorth);
+                o.writeDouble(timeStepSeconds);
+                o.writeInt(parallelism);
+                o.writeUTF(mesh.validation().name());
+                o.flush();
+            }
+            final double[] residuals = exchange(mesh.grid(), subdomains, in, out, maxSteps);
+            final Fields fields = mesh.newFields();
+            fields.copyAll(mesh.fields());
+            for (final Subdomain s : subdomains)
+                Subdomain.readRows(mesh.grid(), fields, s.fromNorth, s.cellsNorth, in[s.rank]);
+            for (final Process p : started)
+                p.waitFor(EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            return new Run(mesh.withFields(fields), residuals);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } finally {
+            for (final Socket socket : sockets)
+                closeQuietly(socket);
+            for (final Process p : started)
+                p.destroy();
+            if (checkpoint != null)
+                checkpoint.toFile().delete();
+        }
+    }
+
+    /**
+     * Forwards the halo rows sent after each step and returns the global
+     * residual of each step.
+     */
+    private double[] exchange(Grid grid, Subdomain[] subdomains, DataInputStream[] in,
+            DataOutputStream[] out, long maxSteps) throws IOException {
+        final int bytes = Subdomain.bytes(grid, Grid.HALO);
+        final byte[][] lower = new byte[processes][];
+        final byte[][] upper = new byte[processes][];
+        double[] residuals = new double[16];
+        int steps = 0;
+        while (true) {
+            double residual = 0;
+            for (final Subdomain s : subdomains) {
+                final DataInputStream input = in[s.rank];
+                if (input.readInt() == DecompositionWorker.FAILED)
+                    Util.unexpected("subdomain " + s.rank + " failed: " + input.readUTF());
+                residual = Math.max(residual, input.readDouble());
+                if (s.hasLower())
+                    lower[s.rank] = readBytes(input, bytes);
+                if (s.hasUpper())
+                    upper[s.rank] = readBytes(input, bytes);
+            }
+            if (steps == residuals.length)
+                residuals = Arrays.copyOf(residuals, steps * 2);
+            residuals[steps++] = residual;
+            final boolean stop = steps == maxSteps
+                    || tolerance.isPresent() && residual <= tolerance.get();
+            for (final Subdomain s : subdomains) {
+                final DataOutputStream o = out[s.rank];
+                if (stop)
+                    o.writeInt(DecompositionWorker.STOP);
+                else {
+                    o.writeInt(DecompositionWorker.CONTINUE);
+                    // halo below is the top of the subdomain below
+                    if (s.hasLower())
+                        o.write(upper[s.rank - 1]);
+                    if (s.hasUpper())
+                        o.write(lower[s.rank + 1]);
+                }
+                o.flush();
+            }
+            if (stop)
+                return Arrays.copyOf(residuals, steps);
+        }
+    }
+
+    private Process start(int port, int rank) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(javaOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(DecompositionWorker.class.getName());
+        command.add(String.valueOf(port));
+        command.add(String.valueOf(rank));
+        return new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        final byte[] b = new byte[length];
+        in.readFully(b);
+        return b;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null)
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+    }
+
+    /**
+     * The outcome of {@link Decomposition#run(DenseMesh, double, long)}.
+     */
+    public static final class Run {
+
+        private final DenseMesh mesh;
+        private final double[] residuals;
+
+        Run(DenseMesh mesh, double[] residuals) {
+            this.mesh = mesh;
+            this.residuals = residuals;
+        }
+
+        /**
+         * Returns the last generation.
+         *
+         * @return mesh
+         */
+        public DenseMesh mesh() {
+            return mesh;
+        }
+
+        public int steps() {
+            return residuals.length;
+        }
+
+        /**
+         * Returns the largest change of a velocity component over all fluid
+         * cells in each step in order.
+         *
+         * @return residuals in m/s
+         */
+        public double[] residuals() {
+            return residuals.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Run[steps=" + steps() + "]";
+        }
+    }
+
+    public static final class Builder {
+
+        private int processes = 2;
+        private int parallelism = 1;
+        private Optional<Double> tolerance = Optional.empty();
+        private final List<String> javaOptions = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the number of processes (and subdomains). Each subdomain must
+         * have at least {@link Grid#HALO} rows. Defaults to 2.
+         *
+         * @param processes
+         * @return this
+         */
+        public Builder processes(int processes) {
+            if (processes < 1)
+                throw new IllegalArgumentException("processes must be 1 or more");
+            this.processes = processes;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads each process steps its subdomain with.
+         * Defaults to 1.
+         *
+         * @param parallelism
+         * @return this
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1)
+                throw new IllegalArgumentException("parallelism must be 1 or more");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Stops the run after the first step whose residual is at most
+         * <code>tolerance</code>.
+         *
+         * @param tolerance
+         * @return this
+         */
+        public Builder tolerance(double tolerance) {
+            if (tolerance < 0)
+                throw new IllegalArgumentException("tolerance must be >=0");
+            this.tolerance = Optional.of(tolerance);
+            return this;
+        }
+
+        /**
+         * Adds options (for example <code>-Xmx2g</code>) to the command line
+         * of each process.
+         *
+         * @param options
+         * @return this
+         */
+        public Builder javaOptions(String... options) {
+            for (final String option : options) {
+                if (option == null)
+                    throw new NullPointerException("option must not be null");
+                javaOptions.add(option);
+            }
+            return this;
+        }
+
+        public Decomposition build() {
+            return new Decomposition(processes, parallelism, tolerance,
+                    new ArrayList<>(javaOptions));
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.github.davidmoten.jns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.file.Paths;
+
+/**
+ * The entry point of a process started by {@link Decomposition}. Arguments
+ * are the loopback port of the coordinator and the rank of the subdomain.
+ *
+ * <p>
+ * The process reads the rows of its subdomain and the halo rows either side
+ * from the checkpoint named by the coordinator, then repeatedly steps them,
+ * sends its largest velocity change and the rows its neighbours need, and
+ * receives its halo rows until told to stop. It then sends the rows it owns.
+ */
+public final class DecompositionWorker {
+
+    static final int OK = 0;
+    static final int FAILED = 1;
+    static final int CONTINUE = 0;
+    static final int STOP = 1;
+
+    private DecompositionWorker() {
+        // prevent instantiation
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2)
+            throw new IllegalArgumentException("usage: DecompositionWorker <port> <rank>");
+        final int port = Integer.parseInt(args[0]);
+        final int rank = Integer.parseInt(args[1]);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            socket.setTcpNoDelay(true);
+            final DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(rank);
+            out.flush();
+            run(rank, in, out);
+        }
+    }
+
+    private static void run(int rank, DataInputStream in, DataOutputStream out)
+            throws IOException {
+        final String checkpoint = in.readUTF();
+        final int count = in.readInt();
+        final int fromNorth = in.readInt();
+        final int cellsNorth = in.readInt();
+        final double timeStepSeconds = in.readDouble();
+        final int parallelism = in.readInt();
+        final Validation validation = Validation.valueOf(in.readUTF());
+        final Subdomain subdomain = Subdomain.create(rank, count, fromNorth, cellsNorth);
+        DenseMesh mesh = Checkpoint.readRows(Paths.get(checkpoint), fromNorth, cellsNorth,
+                DenseSettings.builder().executor(GridExecutor.create(parallelism))
+                        .validation(validation).build());
+        final Grid grid = mesh.grid();
+        while (true) {
+            final DenseMesh next;
+            try {
+                next = mesh.step(timeStepSeconds);
+            } catch (final RuntimeException e) {
+                out.writeInt(FAILED);
+                out.writeUTF(String.valueOf(e));
+                out.flush();
+                return;
+            }
+            out.writeInt(OK);
+            out.writeDouble(maxVelocityChange(mesh, next));
+            if (subdomain.hasLower())
+                Subdomain.writeRows(grid, next.fields(), 0, Grid.HALO, out);
+            if (subdomain.hasUpper())
+                Subdomain.writeRows(grid, next.fields(), cellsNorth - Grid.HALO, Grid.HALO, out);
+            out.flush();
+            if (in.readInt() == STOP) {
+                Subdomain.writeRows(grid, next.fields(), 0, cellsNorth, out);
+                out.flush();
+                return;
+            }
+            if (subdomain.hasLower())
+                Subdomain.readRows(grid, next.fields(), -Grid.HALO, Grid.HALO, in);
+            if (subdomain.hasUpper())
+                Subdomain.readRows(grid, next.fields(), cellsNorth, Grid.HALO, in);
+            mesh = next;
+        }
+    }
+
+    /**
+     * Returns the largest change of a velocity component over the interior
+     * fluid cells.
+     */
+    static double maxVelocityChange(DenseMesh previous, DenseMesh next) {
+        final Grid grid = previous.grid();
+        final Fields a = previous.fields();
+        final Fields b = next.fields();
+        double max = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i) && grid.isInterior(i))
+                max = Math.max(max, Math.max(Math.abs(b.velocityEast(i) - a.velocityEast(i)),
+                        Math.max(Math.abs(b.velocityNorth(i) - a.velocityNorth(i)),
+                                Math.abs(b.velocityUp(i) - a.velocityUp(i)))));
+        return max;
+    }
+
+}
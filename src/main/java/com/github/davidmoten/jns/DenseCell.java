@@ -0,0 +1,99 @@
+package com.github.davidmoten.jns;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A lightweight view of a single cell of a {@link DenseMesh}. Neighbours are
+ * found by index arithmetic on the mesh {@link Grid}.
+ */
+final class DenseCell implements Cell {
+
+    private final DenseMesh mesh;
+    private final int index;
+
+    DenseCell(DenseMesh mesh, int index) {
+        this.mesh = mesh;
+        this.index = index;
+    }
+
+    int index() {
+        return index;
+    }
+
+    @Override
+    public CellType type() {
+        return mesh.grid().type(index);
+    }
+
+    @Override
+    public Vector position() {
+        return mesh.grid().position(index);
+    }
+
+    @Override
+    public double pressure() {
+        checkFluid();
+        return mesh.fields().pressure(index);
+    }
+
+    @Override
+    public Vector velocity() {
+        checkFluid();
+        final Fields fields = mesh.fields();
+        return Vector.create(fields.velocityEast(index), fields.velocityNorth(index),
+                fields.velocityUp(index));
+    }
+
+    private void checkFluid() {
+        if (!mesh.grid().isFluid(index))
+            throw new NoSuchElementException("No value present");
+    }
+
+    @Override
+    public double density() {
+        return mesh.grid().density();
+    }
+
+    @Override
+    public double viscosity() {
+        return mesh.grid().viscosity();
+    }
+
+    @Override
+    public boolean isBoundary() {
+        return mesh.grid().isBoundary(index);
+    }
+
+    @Override
+    public Cell neighbour(Direction direction, int count) {
+        final Grid grid = mesh.grid();
+        final int i = grid.index(index, direction) + count;
+        if (i < -Grid.HALO || i >= grid.cells(direction) + Grid.HALO)
+            return Util.unexpected("neighbour is outside of dense mesh: " + direction + " "
+                    + count + " from " + position());
+        return new DenseCell(mesh, index + count * grid.stride(direction));
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(mesh) + index;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final DenseCell other = (DenseCell) obj;
+        return mesh == other.mesh && index == other.index;
+    }
+
+    @Override
+    public String toString() {
+        return "DenseCell [type=" + type() + ", position=" + position() + "]";
+    }
+
+}
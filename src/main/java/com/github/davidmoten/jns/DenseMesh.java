@@ -0,0 +1,653 @@
+package com.github.davidmoten.jns;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.DoubleAccumulator;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Mesh} over a regular box of cells held as a structure of primitive
+ * arrays (see {@link Grid} and {@link Fields}) instead of as {@link Cell}
+ * objects in a map. Stepping computes every cell of the next generation and
+ * does not retain the previous generation. Use {@link #stepLazily(double)} to
+ * compute cells on demand instead.
+ * 
+ * <p>
+ * A lazy mesh can be materialised into a dense one with
+ * <code>Mesh.builder().creator(lazy::cell)</code> and the number of cells in
+ * each direction.
+ */
+public class DenseMesh implements Mesh {
+
+    private static Logger log = LoggerFactory.getLogger(DenseMesh.class);
+
+    // reach of the stencil of a cell along each axis
+    private static final int REACH = 2;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private final Shared shared;
+    private final Grid grid;
+    private final Fields fields;
+    // cells that changed by more than the active set tolerance in the step
+    // that produced this generation, null if every cell may have changed
+    private final boolean[] changed;
+
+    private DenseMesh(Shared shared, Fields fields, boolean[] changed) {
+        this.shared = shared;
+        this.grid = shared.grid;
+        this.fields = fields;
+        this.changed = changed;
+    }
+
+    /**
+     * Creates a dense mesh by applying <code>creator</code> once to every cell
+     * in the box including its halo. The positions returned by the creator
+     * must vary along one index axis only (as on a regular grid) and density
+     * and viscosity must be the same for every cell.
+     * 
+     * @param creator
+     * @param cellsEast
+     * @param cellsNorth
+     * @param cellsUp
+     * @param cellSizeEast
+     * @param cellSizeNorth
+     * @param cellSizeUp
+     * @param settings
+     *            how the mesh is stored and stepped
+     * @return new mesh
+     */
+    static DenseMesh create(Function<Indices, CellData> creator, int cellsEast, int cellsNorth,
+            int cellsUp, double cellSizeEast, double cellSizeNorth, double cellSizeUp,
+            DenseSettings settings) {
+        if (creator == null)
+            throw new NullPointerException("creator must not be null");
+        if (cellsEast < 1 || cellsNorth < 1 || cellsUp < 1)
+            throw new IllegalArgumentException("cellsEast, cellsNorth and cellsUp must be >0");
+        final int size = Grid.size(cellsEast, cellsNorth, cellsUp);
+        final DenseStorage storage = settings.storage;
+        final ByteBuffer flags = storage.cellFlags(size);
+        final double[] positionEast = new double[cellsEast + 2 * Grid.HALO];
+        final double[] positionNorth = new double[cellsNorth + 2 * Grid.HALO];
+        final double[] positionUp = new double[cellsUp + 2 * Grid.HALO];
+        final Fields fields = storage.fields(size, (cellsEast + 2 * Grid.HALO)
+                * (cellsNorth + 2 * Grid.HALO));
+        final CellData first = creator.apply(new Indices(-Grid.HALO, -Grid.HALO, -Grid.HALO));
+        final double density = first.density();
+        final double viscosity = first.viscosity();
+        int index = 0;
+        for (int up = -Grid.HALO; up < cellsUp + Grid.HALO; up++)
+            for (int north = -Grid.HALO; north < cellsNorth + Grid.HALO; north++)
+                for (int east = -Grid.HALO; east < cellsEast + Grid.HALO; east++) {
+                    final CellData c = creator.apply(new Indices(east, north, up));
+                    final Vector position = c.position();
+                    if (up == -Grid.HALO && north == -Grid.HALO)
+                        positionEast[east + Grid.HALO] = position.east();
+                    if (up == -Grid.HALO && east == -Grid.HALO)
+                        positionNorth[north + Grid.HALO] = position.north();
+                    if (north == -Grid.HALO && east == -Grid.HALO)
+                        positionUp[up + Grid.HALO] = position.up();
+                    if (position.east() != positionEast[east + Grid.HALO]
+                            || position.north() != positionNorth[north + Grid.HALO]
+                            || position.up() != positionUp[up + Grid.HALO])
+                        throw new IllegalArgumentException(
+                                "dense mesh requires positions on a regular grid but found "
+                                        + position + " at " + new Indices(east, north, up));
+                    if (c.density() != density || c.viscosity() != viscosity)
+                        throw new IllegalArgumentException(
+                                "dense mesh requires constant density and viscosity");
+                    final CellType type = c.type();
+                    flags.put(index, Grid.flags(type, c.isBoundary()));
+                    if (type == CellType.FLUID) {
+                        final Vector v = c.velocity();
+                        fields.set(index, c.pressure(), v.east(), v.north(), v.up());
+                    }
+                    index++;
+                }
+        final Grid grid = new Grid(cellsEast, cellsNorth, cellsUp, flags, positionEast,
+                positionNorth, positionUp, density, viscosity);
+        return create(grid, fields, cellSizeEast, cellSizeNorth, cellSizeUp, settings);
+    }
+
+    /**
+     * Creates a dense mesh from an existing grid and fields (for example read
+     * from a {@link Checkpoint}).
+     */
+    static DenseMesh create(Grid grid, Fields fields, double cellSizeEast,
+            double cellSizeNorth, double cellSizeUp, DenseSettings settings) {
+        final DenseSolver solver = new DenseSolver(grid, settings.storage, settings.validation,
+                !settings.diffusion.isPresent(), settings.advection == Advection.CENTRAL);
+        return new DenseMesh(new Shared(solver, cellSizeEast, cellSizeNorth, cellSizeUp,
+                settings), fields, null);
+    }
+
+    public Grid grid() {
+        return grid;
+    }
+
+    public Fields fields() {
+        return fields;
+    }
+
+    @Override
+    public Cell cell(int indexEast, int indexNorth, int indexUp) {
+        if (!grid.contains(indexEast, indexNorth, indexUp))
+            return Util.unexpected("cell is outside of dense mesh: "
+                    + new Indices(indexEast, indexNorth, indexUp));
+        return new DenseCell(this, grid.index(indexEast, indexNorth, indexUp));
+    }
+
+    @Override
+    public Collection<Cell> cells() {
+        final List<Cell> list = new ArrayList<>(grid.size());
+        for (int i = 0; i < grid.size(); i++)
+            list.add(new DenseCell(this, i));
+        return list;
+    }
+
+    @Override
+    public double cellSizeEast() {
+        return shared.cellSizeEast;
+    }
+
+    @Override
+    public double cellSizeNorth() {
+        return shared.cellSizeNorth;
+    }
+
+    @Override
+    public double cellSizeUp() {
+        return shared.cellSizeUp;
+    }
+
+    /**
+     * Steps the mesh <code>numberOfSteps</code> times. Each generation is fully
+     * computed before the one before it is released and its storage reused
+     * for the generation after (double buffering), so no more than two
+     * generations beyond this one (and one intermediate stage of a multistage
+     * {@link TimeIntegrator}) are held in memory at any time. This mesh is not
+     * modified.
+     * 
+     * @param timeStepSeconds
+     * @param numberOfSteps
+     * @return the last generation
+     */
+    @Override
+    public DenseMesh stepMultiple(double timeStepSeconds, long numberOfSteps) {
+        DenseMesh m = this;
+        Fields spare = null;
+        boolean[] spareChanged = null;
+        // intermediate stages are never exposed so one buffer serves all steps
+        final Fields stage = numberOfSteps > 0 ? shared.newStageFields() : null;
+        for (int i = 0; i < numberOfSteps; i++) {
+            log.debug("step {}", i);
+            final Fields next = spare == null ? m.shared.newFields() : spare;
+            final DenseMesh previous = m;
+            m = m.step(next, stage, spareChanged, timeStepSeconds);
+            // the caller may still hold this mesh so don't reuse its storage
+            spare = previous == this ? null : previous.fields;
+            spareChanged = previous == this ? null : previous.changed;
+        }
+        return m;
+    }
+
+    @Override
+    public DenseMesh step(double timeStepSeconds) {
+        return step(shared.newFields(), shared.newStageFields(), null, timeStepSeconds);
+    }
+
+    private DenseMesh step(Fields next, Fields stage, boolean[] nextChanged,
+            double timeStepSeconds) {
+        if (!shared.metrics.isPresent())
+            return validated(step(next, stage, nextChanged, timeStepSeconds, null));
+        final StepRecorder recorder = new StepRecorder(DenseSolver.PRESSURE_MAX_ITERATIONS);
+        boolean failed = true;
+        try {
+            final DenseMesh m = validated(
+                    step(next, stage, nextChanged, timeStepSeconds, recorder));
+            failed = false;
+            return m;
+        } finally {
+            shared.metrics.get().record(recorder.finish(failed));
+        }
+    }
+
+    /**
+     * Writes the new generation to <code>next</code> using <code>stage</code>
+     * (null for {@link TimeIntegrator#EULER}) for the forward Euler steps of
+     * the time integrator after the first. The changed flags of an active set
+     * step are written to <code>nextChanged</code> if not null.
+     */
+    private DenseMesh step(Fields next, Fields stage, boolean[] nextChanged,
+            double timeStepSeconds, StepRecorder recorder) {
+        final DenseMesh m = forwardEuler(next, nextChanged, timeStepSeconds, recorder);
+        final TimeIntegrator integrator = shared.integrator;
+        for (int s = 1; s < integrator.stages(); s++) {
+            m.forwardEuler(stage, null, timeStepSeconds, recorder);
+            average(fields, stage, integrator.previousWeight(s), next);
+        }
+        return m;
+    }
+
+    /**
+     * Sets the stepped cells of <code>next</code> to <code>weight</code> times
+     * <code>previous</code> plus <code>1 - weight</code> times
+     * <code>stepped</code>.
+     */
+    private void average(Fields previous, Fields stepped, double weight, Fields next) {
+        final double other = 1 - weight;
+        shared.executor.forEachRow(grid, (from, to) -> {
+            for (int i = from; i < to; i++)
+                if (grid.isFluid(i) && !grid.isBoundary(i))
+                    next.set(i, weight * previous.pressure(i) + other * stepped.pressure(i),
+                            weight * previous.velocityEast(i) + other * stepped.velocityEast(i),
+                            weight * previous.velocityNorth(i)
+                                    + other * stepped.velocityNorth(i),
+                            weight * previous.velocityUp(i) + other * stepped.velocityUp(i));
+        });
+    }
+
+    private DenseMesh forwardEuler(Fields next, boolean[] nextChanged,
+            double timeStepSeconds, StepRecorder recorder) {
+        final DenseSolver solver = shared.solver;
+        // halo and non-fluid cells are not stepped
+        next.copyAll(fields);
+        if (shared.pressureSolver.isPresent() || shared.diffusion.isPresent()
+                || shared.semiLagrangian != null) {
+            // velocities of all cells first then the pressures
+            final long start = System.nanoTime();
+            final SemiLagrangian semiLagrangian = shared.semiLagrangian;
+            shared.executor.forEachRow(grid, (from, to) -> {
+                final DenseSolver.Workspace w = solver.workspace();
+                if (shared.rowKernels != null) {
+                    velocitiesOfRow(from, to, timeStepSeconds, next, w, recorder);
+                    return;
+                }
+                for (int i = from; i < to; i++) {
+                    if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                        if (semiLagrangian == null)
+                            solver.velocityAfterTime(fields, i, timeStepSeconds, w);
+                        else {
+                            semiLagrangian.advect(fields, i, timeStepSeconds, w);
+                            solver.accelerate(fields, i, timeStepSeconds, w);
+                        }
+                        next.set(i, fields.pressure(i), w.velocityEast, w.velocityNorth,
+                                w.velocityUp);
+                        if (recorder != null)
+                            recorder.cell();
+                    }
+                }
+            });
+            if (shared.diffusion.isPresent())
+                shared.diffusionSystem.solve(fields, next, timeStepSeconds,
+                        shared.diffusion.get());
+            final long afterVelocity = System.nanoTime();
+            if (shared.pressureSolver.isPresent()) {
+                final int iterations = shared.pressureSolver.get().solve(shared.poisson, next);
+                if (recorder != null)
+                    recorder.pressureSolverIterations(iterations);
+            } else
+                shared.executor.forEachRow(grid, (from, to) -> {
+                    final DenseSolver.Workspace w = solver.workspace(recorder);
+                    for (int i = from; i < to; i++) {
+                        if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                            w.velocityEast = next.velocityEast(i);
+                            w.velocityNorth = next.velocityNorth(i);
+                            w.velocityUp = next.velocityUp(i);
+                            final double p = solver.pressure(fields, i, w);
+                            next.set(i, p, w.velocityEast, w.velocityNorth, w.velocityUp);
+                        }
+                    }
+                });
+            if (recorder != null) {
+                recorder.velocity(afterVelocity - start);
+                recorder.pressure(System.nanoTime() - afterVelocity);
+            }
+        } else if (shared.activeTolerance.isPresent()) {
+            // a cell whose stencil saw no change in the previous step would
+            // be computed from the same values as last time so keeps its value
+            final double tolerance = shared.activeTolerance.get();
+            // flags of a discarded generation are overwritten for every fluid cell
+            final boolean[] flags = nextChanged == null ? new boolean[grid.size()] : nextChanged;
+            shared.executor.forEachRow(grid, (from, to) -> {
+                final DenseSolver.Workspace w = solver.workspace(recorder);
+                for (int i = from; i < to; i++) {
+                    if (grid.isFluid(i)) {
+                        if (isActive(i)) {
+                            solver.step(fields, i, timeStepSeconds, next, w);
+                            flags[i] = changed(fields, next, i, tolerance);
+                        } else
+                            flags[i] = false;
+                    }
+                }
+            });
+            return new DenseMesh(shared, next, flags);
+        } else if (shared.rowKernels != null) {
+            // as below with the velocities of a row advanced together
+            final RowKernels kernels = shared.rowKernels;
+            shared.executor.forEachRow(grid, (from, to) -> {
+                final RowKernels.Workspace v = kernels.workspace();
+                final DenseSolver.Workspace w = solver.workspace(recorder);
+                final long start = System.nanoTime();
+                kernels.velocityAfterTime(fields, from, to, timeStepSeconds, v);
+                final long afterVelocity = System.nanoTime();
+                for (int i = from; i < to; i++) {
+                    if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                        w.velocityEast = v.velocityEast[i - from];
+                        w.velocityNorth = v.velocityNorth[i - from];
+                        w.velocityUp = v.velocityUp[i - from];
+                        final double p = solver.pressure(fields, i, w);
+                        next.set(i, p, w.velocityEast, w.velocityNorth, w.velocityUp);
+                        if (recorder != null)
+                            recorder.cell();
+                    }
+                }
+                if (recorder != null) {
+                    recorder.velocity(afterVelocity - start);
+                    recorder.pressure(System.nanoTime() - afterVelocity);
+                }
+            });
+        } else
+            // each fluid cell depends only on the previous generation so rows
+            // can be computed in any order
+            shared.executor.forEachRow(grid, (from, to) -> {
+                final DenseSolver.Workspace w = solver.workspace(recorder);
+                for (int i = from; i < to; i++) {
+                    if (grid.isFluid(i))
+                        solver.step(fields, i, timeStepSeconds, next, w);
+                }
+            });
+        return new DenseMesh(shared, next, null);
+    }
+
+    /**
+     * Writes the velocity after <code>timeStepSeconds</code> (and the current
+     * pressure) of the stepped cells of a row to <code>next</code> using
+     * {@link RowKernels}, after semi-Lagrangian advection if used.
+     */
+    private void velocitiesOfRow(int from, int to, double timeStepSeconds, Fields next,
+            DenseSolver.Workspace w, StepRecorder recorder) {
+        final RowKernels kernels = shared.rowKernels;
+        final RowKernels.Workspace v = kernels.workspace();
+        final SemiLagrangian semiLagrangian = shared.semiLagrangian;
+        if (semiLagrangian == null)
+            kernels.velocityAfterTime(fields, from, to, timeStepSeconds, v);
+        else {
+            for (int i = from; i < to; i++)
+                if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                    semiLagrangian.advect(fields, i, timeStepSeconds, w);
+                    v.velocityEast[i - from] = w.velocityEast;
+                    v.velocityNorth[i - from] = w.velocityNorth;
+                    v.velocityUp[i - from] = w.velocityUp;
+                }
+            kernels.accelerate(fields, from, to, timeStepSeconds, v);
+        }
+        for (int i = from; i < to; i++)
+            if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                next.set(i, fields.pressure(i), v.velocityEast[i - from],
+                        v.velocityNorth[i - from], v.velocityUp[i - from]);
+                if (recorder != null)
+                    recorder.cell();
+            }
+    }
+
+    /**
+     * Returns the largest value over the fluid cells of the speed along each
+     * axis divided by the cell size along that axis, summed over the axes.
+     */
+    double maxAdvectiveRate() {
+        final double east = shared.cellSizeEast;
+        final double north = shared.cellSizeNorth;
+        final double up = shared.cellSizeUp;
+        final DoubleAccumulator max = new DoubleAccumulator(Math::max, 0);
+        shared.executor.forEachRow(grid, (from, to) -> {
+            double rowMax = 0;
+            for (int i = from; i < to; i++)
+                if (grid.isFluid(i))
+                    rowMax = Math.max(rowMax, Math.abs(fields.velocityEast(i)) / east
+                            + Math.abs(fields.velocityNorth(i)) / north
+                            + Math.abs(fields.velocityUp(i)) / up);
+            max.accumulate(rowMax);
+        });
+        return max.get();
+    }
+
+    /**
+     * Returns the largest sum over the stepped cells of the weights
+     * <code>2/(c - a)<sup>2</sup></code> of the second derivative along each
+     * axis where the {@link Stencil} of the cell is central (as in
+     * {@link DiffusionSystem}). The explicit viscous term is stable for time
+     * steps up to the reciprocal of this times the kinematic viscosity.
+     */
+    double maxViscousWeight() {
+        return shared.maxViscousWeight();
+    }
+
+    /**
+     * Returns true if the viscous term is applied implicitly so does not limit
+     * the time step.
+     */
+    boolean hasImplicitDiffusion() {
+        return shared.diffusion.isPresent();
+    }
+
+    /**
+     * Returns how the convective term is applied.
+     */
+    Advection advection() {
+        return shared.advection;
+    }
+
+    /**
+     * Returns when computed values are checked for NaN and infinity.
+     */
+    Validation validation() {
+        return shared.validation;
+    }
+
+    /**
+     * Returns true if only the cells near those that changed in the previous
+     * step are recomputed.
+     */
+    boolean hasActiveSet() {
+        return shared.activeTolerance.isPresent();
+    }
+
+    /**
+     * Returns true if each fluid cell is stepped from the values of the
+     * previous generation within the reach of its stencil alone (so the mesh
+     * can be split into subdomains that exchange halos, see
+     * {@link Decomposition}, or queried cell by cell, see {@link PointQuery}).
+     */
+    boolean stepsCellsIndependently() {
+        return !shared.pressureSolver.isPresent() && !shared.diffusion.isPresent()
+                && shared.advection == Advection.CENTRAL
+                && shared.integrator == TimeIntegrator.EULER;
+    }
+
+    /**
+     * Returns empty fields from the storage of this mesh.
+     */
+    Fields newFields() {
+        return shared.newFields();
+    }
+
+    /**
+     * Returns a generation of this mesh with the given values.
+     */
+    DenseMesh withFields(Fields fields) {
+        return new DenseMesh(shared, fields, null);
+    }
+
+    private static DenseMesh validated(DenseMesh m) {
+        if (m.shared.validation == Validation.END_OF_STEP)
+            m.checkValid();
+        return m;
+    }
+
+    /**
+     * Throws if the pressure or velocity of any fluid cell is NaN or infinite,
+     * reporting the first such cell. The rows are checked in a single sweep of
+     * the executor.
+     */
+    private void checkValid() {
+        final LongAccumulator first = new LongAccumulator(Math::min, Long.MAX_VALUE);
+        shared.executor.forEachRow(grid, (from, to) -> {
+            for (int i = from; i < to; i++)
+                if (grid.isFluid(i) && !isValid(i)) {
+                    first.accumulate(i);
+                    return;
+                }
+        });
+        if (first.get() != Long.MAX_VALUE) {
+            final int i = (int) first.get();
+            Util.unexpected("invalid value at "
+                    + new Indices(grid.indexEast(i), grid.indexNorth(i), grid.indexUp(i))
+                    + ": pressure=" + fields.pressure(i) + ", velocity=("
+                    + fields.velocityEast(i) + ", " + fields.velocityNorth(i) + ", "
+                    + fields.velocityUp(i) + ")");
+        }
+    }
+
+    private boolean isValid(int index) {
+        // x - x is NaN if x is NaN or infinite and zero otherwise
+        final double p = fields.pressure(index);
+        final double vEast = fields.velocityEast(index);
+        final double vNorth = fields.velocityNorth(index);
+        final double vUp = fields.velocityUp(index);
+        return (p - p) + (vEast - vEast) + (vNorth - vNorth) + (vUp - vUp) == 0;
+    }
+
+    private boolean isActive(int index) {
+        if (changed == null || changed[index])
+            return true;
+        for (final Direction d : DIRECTIONS) {
+            final int stride = grid.stride(d);
+            for (int r = 1; r <= REACH; r++)
+                if (changed[index - r * stride] || changed[index + r * stride])
+                    return true;
+        }
+        return false;
+    }
+
+    private static boolean changed(Fields previous, Fields next, int index, double tolerance) {
+        return Math.abs(next.pressure(index) - previous.pressure(index)) > tolerance
+                || Math.abs(next.velocityEast(index) - previous.velocityEast(index)) > tolerance
+                || Math.abs(next.velocityNorth(index) - previous.velocityNorth(index)) > tolerance
+                || Math.abs(next.velocityUp(index) - previous.velocityUp(index)) > tolerance;
+    }
+
+    /**
+     * Returns the number of cells that changed by more than the active set
+     * tolerance in the step that produced this generation. If this generation
+     * was not produced by an active set step then every fluid cell is counted.
+     * 
+     * @return number of changed cells
+     */
+    public int changedCells() {
+        int count = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (changed(i))
+                count++;
+        return count;
+    }
+
+    // visible for testing
+    boolean changed(int index) {
+        return changed == null ? grid.isFluid(index) : changed[index];
+    }
+
+    /**
+     * State shared by all generations of a mesh.
+     */
+    private static final class Shared {
+
+        final DenseSolver solver;
+        final Grid grid;
+        final double cellSizeEast;
+        final double cellSizeNorth;
+        final double cellSizeUp;
+        final GridExecutor executor;
+        final Optional<PressureSolver> pressureSolver;
+        final PoissonSystem poisson;
+        final DenseStorage storage;
+        final Optional<Double> activeTolerance;
+        final Optional<Metrics> metrics;
+        final Validation validation;
+        final Optional<ImplicitDiffusion> diffusion;
+        final DiffusionSystem diffusionSystem;
+        final Advection advection;
+        // null unless advection is semi-Lagrangian
+        final SemiLagrangian semiLagrangian;
+        final TimeIntegrator integrator;
+        // null unless velocities are advanced a row at a time
+        final RowKernels rowKernels;
+        // created when first needed
+        private volatile Double maxViscousWeight;
+
+        Shared(DenseSolver solver, double cellSizeEast, double cellSizeNorth,
+                double cellSizeUp, DenseSettings settings) {
+            this.solver = solver;
+            this.grid = solver.grid();
+            this.cellSizeEast = cellSizeEast;
+            this.cellSizeNorth = cellSizeNorth;
+            this.cellSizeUp = cellSizeUp;
+            this.executor = settings.executor;
+            this.pressureSolver = settings.pressureSolver;
+            // assembled once from the cell types
+            this.poisson = pressureSolver.isPresent() ? new PoissonSystem(solver) : null;
+            this.storage = settings.storage;
+            this.activeTolerance = settings.activeTolerance;
+            this.metrics = settings.metrics;
+            this.validation = settings.validation;
+            this.diffusion = settings.diffusion;
+            // assembled once from the cell types
+            this.diffusionSystem = diffusion.isPresent() ? new DiffusionSystem(solver) : null;
+            this.advection = settings.advection;
+            this.semiLagrangian = advection == Advection.SEMI_LAGRANGIAN
+                    ? new SemiLagrangian(grid) : null;
+            this.integrator = settings.integrator;
+            this.rowKernels = settings.rowKernels ? new RowKernels(solver) : null;
+        }
+
+        double maxViscousWeight() {
+            Double weight = maxViscousWeight;
+            if (weight == null) {
+                double max = 0;
+                for (int i = 0; i < grid.size(); i++)
+                    if (grid.isInterior(i) && grid.isFluid(i) && !grid.isBoundary(i)) {
+                        double sum = 0;
+                        for (final Direction d : DIRECTIONS)
+                            if (Stencil.kind(solver.stencil(i, d.ordinal())) == Stencil.CENTRAL) {
+                                final double h = grid.position(i + grid.stride(d), d)
+                                        - grid.position(i - grid.stride(d), d);
+                                sum += 2 / (h * h);
+                            }
+                        max = Math.max(max, sum);
+                    }
+                weight = max;
+                maxViscousWeight = weight;
+            }
+            return weight;
+        }
+
+        Fields newFields() {
+            return storage.fields(grid.size(), grid.stride(Direction.UP));
+        }
+
+        /**
+         * Returns fields for the intermediate stages of the time integrator,
+         * null if it has none.
+         */
+        Fields newStageFields() {
+            return integrator.stages() > 1 ? newFields() : null;
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.github.davidmoten.jns;
+
+import java.util.Optional;
+
+/**
+ * How a {@link DenseMesh} is stored and stepped, as chosen on
+ * {@link Mesh.Builder}. Settings are immutable and shared by every generation
+ * of a mesh.
+ */
+final class DenseSettings {
+
+    private static final DenseSettings DEFAULTS = builder().build();
+
+    final GridExecutor executor;
+    // if absent the pressure of each cell is found with Newton's method as per
+    // Solver
+    final Optional<PressureSolver> pressureSolver;
+    final DenseStorage storage;
+    // if present only cells with a neighbour (within the reach of the
+    // stencil) that changed by more than this in the previous step are
+    // recomputed
+    final Optional<Double> activeTolerance;
+    final Optional<Metrics> metrics;
+    final Validation validation;
+    // if present the viscous term is applied implicitly
+    final Optional<ImplicitDiffusion> diffusion;
+    final Advection advection;
+    final TimeIntegrator integrator;
+    // if true velocities are advanced a row at a time by RowKernels
+    final boolean rowKernels;
+
+    private DenseSettings(Builder b) {
+        this.executor = b.executor;
+        this.pressureSolver = b.pressureSolver;
+        this.storage = b.storage;
+        this.activeTolerance = b.activeTolerance;
+        this.metrics = b.metrics;
+        this.validation = b.validation;
+        this.diffusion = b.diffusion;
+        this.advection = b.advection;
+        this.integrator = b.integrator;
+        this.rowKernels = b.rowKernels;
+    }
+
+    /**
+     * Returns the settings of a dense mesh built with no options: sequential,
+     * on the heap, with Newton's method for pressure, central advection and
+     * {@link TimeIntegrator#EULER}.
+     *
+     * @return settings
+     */
+    static DenseSettings defaults() {
+        return DEFAULTS;
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public String toString() {
+        return "DenseSettings[executor=" + executor + ", pressureSolver=" + pressureSolver
+                + ", activeTolerance=" + activeTolerance + ", validation=" + validation
+                + ", diffusion=" + diffusion + ", advection=" + advection + ", integrator="
+                + integrator + ", rowKernels=" + rowKernels + "]";
+    }
+
+    static final class Builder {
+
+        private GridExecutor executor = GridExecutor.sequential();
+        private Optional<PressureSolver> pressureSolver = Optional.empty();
+        private DenseStorage storage = DenseStorage.heap();
+        private Optional<Double> activeTolerance = Optional.empty();
+        private Optional<Metrics> metrics = Optional.empty();
+        private Validation validation = Validation.PER_OPERATION;
+        private Optional<ImplicitDiffusion> diffusion = Optional.empty();
+        private Advection advection = Advection.CENTRAL;
+        private TimeIntegrator integrator = TimeIntegrator.EULER;
+        private boolean rowKernels = false;
+
+        private Builder() {
+        }
+
+        Builder executor(GridExecutor executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        Builder pressureSolver(Optional<PressureSolver> pressureSolver) {
+            this.pressureSolver = pressureSolver;
+            return this;
+        }
+
+        Builder storage(DenseStorage storage) {
+            this.storage = storage;
+            return this;
+        }
+
+        Builder activeTolerance(Optional<Double> activeTolerance) {
+            this.activeTolerance = activeTolerance;
+            return this;
+        }
+
+        Builder metrics(Optional<Metrics> metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        Builder validation(Validation validation) {
+            this.validation = validation;
+            return this;
+        }
+
+        Builder diffusion(Optional<ImplicitDiffusion> diffusion) {
+            this.diffusion = diffusion;
+            return this;
+        }
+
+        Builder advection(Advection advection) {
+            this.advection = advection;
+            return this;
+        }
+
+        Builder integrator(TimeIntegrator integrator) {
+            this.integrator = integrator;
+            return this;
+        }
+
+        Builder rowKernels(boolean rowKernels) {
+            this.rowKernels = rowKernels;
+            return this;
+        }
+
+        DenseSettings build() {
+            if (executor == null)
+                throw new NullPointerException("executor must not be null");
+            if (pressureSolver == null || activeTolerance == null || metrics == null
+                    || diffusion == null)
+                throw new NullPointerException("optional settings must not be null");
+            if (storage == null)
+                throw new NullPointerException("storage must not be null");
+            if (validation == null)
+                throw new NullPointerException("validation must not be null");
+            if (advection == null)
+                throw new NullPointerException("advection must not be null");
+            if (integrator == null)
+                throw new NullPointerException("integrator must not be null");
+            if (activeTolerance.isPresent()) {
+                if (pressureSolver.isPresent())
+                    throw new IllegalArgumentException(
+                            "an active set cannot be used with a pressure solver");
+                if (diffusion.isPresent())
+                    throw new IllegalArgumentException(
+                            "an active set cannot be used with implicit diffusion");
+                if (advection == Advection.SEMI_LAGRANGIAN)
+                    throw new IllegalArgumentException(
+                            "an active set cannot be used with semi-Lagrangian advection");
+                if (integrator != TimeIntegrator.EULER)
+                    throw new IllegalArgumentException(
+                            "an active set cannot be used with a multistage time integrator");
+                if (rowKernels)
+                    throw new IllegalArgumentException(
+                            "an active set cannot be used with row kernels");
+            }
+            return new DenseSettings(this);
+        }
+    }
+
+}
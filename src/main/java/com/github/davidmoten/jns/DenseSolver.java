@@ -0,0 +1,437 @@
+package com.github.davidmoten.jns;
+
+import java.nio.ByteBuffer;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Performs the same calculations as {@link Solver} for the cells of a
+ * {@link DenseMesh} but reads values directly from {@link Fields} by index
+ * instead of through {@link Cell} objects, {@link Vector}s and boxed
+ * functions. Results are numerically identical to those of {@link Solver} and
+ * stepping a cell allocates nothing on the heap.
+ *
+ * <p>
+ * Cell types never change so the {@link Stencil} code of every cell in every
+ * direction is classified once when the solver is created and derivatives
+ * dispatch on the cached byte. The codes are held in one buffer of a byte per
+ * cell for each direction from the {@link DenseStorage} of the mesh so that
+ * they live alongside the cell flags (off the heap for mapped storage).
+ * 
+ * <p>
+ * A {@link DenseSolver} is immutable and may be shared between threads. Each
+ * thread needs its own {@link Workspace}.
+ */
+final class DenseSolver {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    static final int PRESSURE = 0;
+    static final int VELOCITY_EAST = 1;
+    static final int VELOCITY_NORTH = 2;
+    static final int VELOCITY_UP = 3;
+
+    // as per Solver.solveForPressure
+    private static final double PRESSURE_DELTA = 100;
+    private static final double PRESSURE_PRECISION = 10;
+    static final int PRESSURE_MAX_ITERATIONS = 15;
+
+    private final Grid grid;
+    private final int[] strides;
+    // stencil code of each cell at stencils[direction].get(index)
+    private final ByteBuffer[] stencils;
+    private final double density;
+    private final double viscosity;
+    private final double gravityEast;
+    private final double gravityNorth;
+    private final double gravityUp;
+    private final boolean validatePerOperation;
+    private final boolean explicitViscosity;
+    private final boolean explicitAdvection;
+
+    DenseSolver(Grid grid) {
+        this(grid, DenseStorage.heap(), Validation.PER_OPERATION, true, true);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param grid
+     * @param storage
+     *            provides the buffers for the stencil codes
+     * @param validation
+     * @param explicitViscosity
+     *            if false the viscous term is left out of the velocity update
+     *            (to be applied by {@link DiffusionSystem})
+     * @param explicitAdvection
+     *            if false the convective term is left out of the velocity
+     *            update (to be applied by {@link SemiLagrangian})
+     */
+    DenseSolver(Grid grid, DenseStorage storage, Validation validation,
+            boolean explicitViscosity, boolean explicitAdvection) {
+        this.grid = grid;
+        this.validatePerOperation = validation == Validation.PER_OPERATION;
+        this.explicitViscosity = explicitViscosity;
+        this.explicitAdvection = explicitAdvection;
+        this.strides = new int[DIRECTIONS.length];
+        for (final Direction d : DIRECTIONS)
+            strides[d.ordinal()] = grid.stride(d);
+        this.density = grid.density();
+        this.viscosity = grid.viscosity();
+        final Vector g = Util.GRAVITY.times(density);
+        this.gravityEast = g.east();
+        this.gravityNorth = g.north();
+        this.gravityUp = g.up();
+        this.stencils = classify(grid, strides, storage);
+    }
+
+    private static ByteBuffer[] classify(Grid grid, int[] strides, DenseStorage storage) {
+        final int size = grid.size();
+        final ByteBuffer[] stencils = new ByteBuffer[DIRECTIONS.length];
+        for (int k = 0; k < DIRECTIONS.length; k++) {
+            final ByteBuffer codes = storage.cellFlags(size);
+            for (int i = 0; i < size; i++) {
+                final int lower = i - strides[k];
+                final int upper = i + strides[k];
+                // the outermost halo cells have no neighbour to classify
+                codes.put(i, lower >= 0 && upper < size
+                        ? Stencil.classify(grid.type(lower), grid.type(upper))
+                        : Stencil.UNHANDLED);
+            }
+            stencils[k] = codes;
+        }
+        return stencils;
+    }
+
+    Grid grid() {
+        return grid;
+    }
+
+    Workspace workspace() {
+        return new Workspace(null);
+    }
+
+    /**
+     * Returns a workspace that records the measurements of each cell stepped
+     * with it to <code>recorder</code>.
+     */
+    Workspace workspace(StepRecorder recorder) {
+        return new Workspace(recorder);
+    }
+
+    /**
+     * Writes the values of the fluid cell at <code>index</code> after
+     * <code>timeStepSeconds</code> to <code>next</code>.
+     *
+     * @param previous
+     * @param index
+     * @param timeStepSeconds
+     * @param next
+     * @param w
+     *            workspace for the current thread
+     */
+    void step(Fields previous, int index, double timeStepSeconds, Fields next, Workspace w) {
+        if (grid.isBoundary(index)) {
+            next.copy(index, previous);
+            return;
+        }
+        final StepRecorder r = w.recorder;
+        if (r == null) {
+            velocityAfterTime(previous, index, timeStepSeconds, w);
+            final double p = pressure(previous, index, w);
+            next.set(index, p, w.velocityEast, w.velocityNorth, w.velocityUp);
+        } else {
+            final long t0 = System.nanoTime();
+            velocityAfterTime(previous, index, timeStepSeconds, w);
+            final long t1 = System.nanoTime();
+            final double p = pressure(previous, index, w);
+            r.pressure(System.nanoTime() - t1);
+            r.velocity(t1 - t0);
+            r.cell();
+            next.set(index, p, w.velocityEast, w.velocityNorth, w.velocityUp);
+        }
+    }
+
+    /**
+     * Sets the velocity fields of <code>w</code> to the velocity of the cell
+     * at <code>index</code> after <code>timeStepSeconds</code> (explicit time
+     * advance as per Ferziger and Peric 7.3.2).
+     */
+    void velocityAfterTime(Fields f, int index, double timeStepSeconds, Workspace w) {
+        w.velocityEast = f.velocityEast(index);
+        w.velocityNorth = f.velocityNorth(index);
+        w.velocityUp = f.velocityUp(index);
+        accelerate(f, index, timeStepSeconds, w);
+    }
+
+    /**
+     * Adds the change in velocity over <code>timeStepSeconds</code> of the
+     * cell at <code>index</code> in <code>f</code> to the velocity fields of
+     * <code>w</code> (which may differ from the velocity in <code>f</code>, for
+     * example after semi-Lagrangian advection).
+     */
+    void accelerate(Fields f, int index, double timeStepSeconds, Workspace w) {
+        final double p = f.pressure(index);
+        final double vEast = f.velocityEast(index);
+        final double vNorth = f.velocityNorth(index);
+        final double vUp = f.velocityUp(index);
+        w.velocityEast = w.velocityEast
+                + dvdt(f, index, 0, p, vEast, vNorth, vUp, gravityEast) * timeStepSeconds;
+        w.velocityNorth = w.velocityNorth
+                + dvdt(f, index, 1, p, vEast, vNorth, vUp, gravityNorth) * timeStepSeconds;
+        w.velocityUp = w.velocityUp
+                + dvdt(f, index, 2, p, vEast, vNorth, vUp, gravityUp) * timeStepSeconds;
+        if (validatePerOperation) {
+            Util.validate(w.velocityEast);
+            Util.validate(w.velocityNorth);
+            Util.validate(w.velocityUp);
+        }
+    }
+
+    private double dvdt(Fields f, int index, int k, double p, double vEast, double vNorth,
+            double vUp, double gravity) {
+        final double velocityLaplacian = explicitViscosity
+                ? (second(f, index, k, VELOCITY_EAST, vEast)
+                        + second(f, index, k, VELOCITY_NORTH, vNorth))
+                        + second(f, index, k, VELOCITY_UP, vUp)
+                : 0;
+        final double pressureGradient = first(f, index, k, PRESSURE, p);
+        final double jacobianTimesVelocity = explicitAdvection
+                ? gradientDot(f, index, k, vEast, vNorth, vUp) : 0;
+        return dvdt(velocityLaplacian, pressureGradient, jacobianTimesVelocity, gravity);
+    }
+
+    /**
+     * Returns the rate of change of velocity in direction <code>k</code> given
+     * the terms of the momentum equation in that direction (zero for a term
+     * left out of the explicit update).
+     */
+    double dvdt(int k, double velocityLaplacian, double pressureGradient,
+            double jacobianTimesVelocity) {
+        final double gravity = k == 0 ? gravityEast : k == 1 ? gravityNorth : gravityUp;
+        return dvdt(velocityLaplacian, pressureGradient, jacobianTimesVelocity, gravity);
+    }
+
+    private double dvdt(double velocityLaplacian, double pressureGradient,
+            double jacobianTimesVelocity, double gravity) {
+        final double divergenceOfStress = velocityLaplacian * viscosity - pressureGradient
+                + gravity;
+        return divergenceOfStress / density - jacobianTimesVelocity;
+    }
+
+    boolean explicitViscosity() {
+        return explicitViscosity;
+    }
+
+    boolean explicitAdvection() {
+        return explicitAdvection;
+    }
+
+    /**
+     * Returns the pressure that satisfies the continuity equation at
+     * <code>index</code> given the new velocity in <code>w</code>, solved with
+     * Newton's method as per {@link Solver}.
+     */
+    double pressure(Fields f, int index, Workspace w) {
+        final double vEast = w.velocityEast;
+        final double vNorth = w.velocityNorth;
+        final double vUp = w.velocityUp;
+        w.fields = f;
+        w.index = index;
+        w.velocityTerm = velocityTerm(f, index, vEast, vNorth, vUp);
+        w.evaluations = 0;
+        final double p = NewtonsMethod.solveAsDouble(w, f.pressure(index), PRESSURE_DELTA,
+                PRESSURE_PRECISION, PRESSURE_MAX_ITERATIONS);
+        final StepRecorder r = w.recorder;
+        if (r != null) {
+            // one evaluation to start then two per iteration
+            r.newtonIterations((w.evaluations - 1) / 2);
+            if (Double.isNaN(p))
+                r.nonConvergence();
+            else if (p < 0)
+                r.negativePressure();
+        }
+        // don't accept negative values
+        if (Double.isNaN(p) || p < 0)
+            return Util.unexpected("could not find pressure at " + str(index));
+        return p;
+    }
+
+    /**
+     * Returns the part of the continuity function at <code>index</code> that
+     * does not depend on pressure, with the velocity of the centre cell
+     * overridden.
+     */
+    double velocityTerm(Fields f, int index, double vEast, double vNorth, double vUp) {
+        return (vEast * gradientOfGradientDot(f, index, 0, vEast, vNorth, vUp)
+                + vNorth * gradientOfGradientDot(f, index, 1, vEast, vNorth, vUp))
+                + vUp * gradientOfGradientDot(f, index, 2, vEast, vNorth, vUp);
+    }
+
+    private double continuity(Fields f, int index, double p, double velocityTerm) {
+        final double pressureLaplacian = (secondPressure(f, index, 0, p)
+                + secondPressure(f, index, 1, p)) + secondPressure(f, index, 2, p);
+        return pressureLaplacian + velocityTerm;
+    }
+
+    private double secondPressure(Fields f, int index, int k, double p) {
+        final byte code = stencil(index, k);
+        if (Stencil.kind(code) != Stencil.CENTRAL)
+            return 0;
+        final int lower = index - strides[k];
+        final int upper = index + strides[k];
+        final double f1 = Stencil.mirrorLower(code) ? p + mirrorOffset(index, lower)
+                : f.pressure(lower);
+        final double f3 = Stencil.mirrorUpper(code) ? p + mirrorOffset(index, upper)
+                : f.pressure(upper);
+        return checked(Stencil.second(code, f1, p, f3, position(lower, k), position(upper, k)));
+    }
+
+    /**
+     * Returns the derivative in direction <code>k</code> of the gradient in
+     * direction <code>k</code> of velocity dotted with velocity, where the
+     * velocity of the centre cell is overridden.
+     */
+    private double gradientOfGradientDot(Fields f, int index, int k, double vEast,
+            double vNorth, double vUp) {
+        final byte code = stencil(index, k);
+        final int lower = index - strides[k];
+        final int upper = index + strides[k];
+        final double f1 = Stencil.usesLower(code) ? gradientDotAt(f, lower, k,
+                Stencil.mirrorLower(code)) : 0;
+        final double f2 = gradientDot(f, index, k, vEast, vNorth, vUp);
+        final double f3 = Stencil.usesUpper(code) ? gradientDotAt(f, upper, k,
+                Stencil.mirrorUpper(code)) : 0;
+        return checked(Stencil.first(code, f1, f2, f3, position(lower, k), position(index, k),
+                position(upper, k)));
+    }
+
+    private double gradientDotAt(Fields f, int index, int k, boolean mirror) {
+        if (mirror)
+            // an obstacle has zero velocity
+            return 0;
+        else
+            return gradientDot(f, index, k, f.velocityEast(index), f.velocityNorth(index),
+                    f.velocityUp(index));
+    }
+
+    private double gradientDot(Fields f, int index, int k, double vEast, double vNorth,
+            double vUp) {
+        return (first(f, index, k, VELOCITY_EAST, vEast) * vEast
+                + first(f, index, k, VELOCITY_NORTH, vNorth) * vNorth)
+                + first(f, index, k, VELOCITY_UP, vUp) * vUp;
+    }
+
+    double first(Fields f, int index, int k, int quantity, double centre) {
+        final byte code = stencil(index, k);
+        final int lower = index - strides[k];
+        final int upper = index + strides[k];
+        final double f1 = Stencil.usesLower(code) ? value(f, index, lower, quantity, centre,
+                Stencil.mirrorLower(code)) : 0;
+        final double f3 = Stencil.usesUpper(code) ? value(f, index, upper, quantity, centre,
+                Stencil.mirrorUpper(code)) : 0;
+        return checked(Stencil.first(code, f1, centre, f3, position(lower, k),
+                position(index, k), position(upper, k)));
+    }
+
+    double second(Fields f, int index, int k, int quantity, double centre) {
+        final byte code = stencil(index, k);
+        if (Stencil.kind(code) != Stencil.CENTRAL)
+            return 0;
+        final int lower = index - strides[k];
+        final int upper = index + strides[k];
+        final double f1 = value(f, index, lower, quantity, centre, Stencil.mirrorLower(code));
+        final double f3 = value(f, index, upper, quantity, centre, Stencil.mirrorUpper(code));
+        return checked(Stencil.second(code, f1, centre, f3, position(lower, k),
+                position(upper, k)));
+    }
+
+    /**
+     * Returns true if derivatives and velocities are checked for NaN and
+     * infinity as they are computed.
+     */
+    boolean validatesPerOperation() {
+        return validatePerOperation;
+    }
+
+    private double checked(double d) {
+        return validatePerOperation ? Util.validate(d) : d;
+    }
+
+    private double value(Fields f, int centreIndex, int index, int quantity, double centre,
+            boolean mirror) {
+        if (mirror) {
+            if (quantity == PRESSURE)
+                return centre + mirrorOffset(centreIndex, index);
+            else
+                return 0;
+        } else if (quantity == PRESSURE)
+            return f.pressure(index);
+        else if (quantity == VELOCITY_EAST)
+            return f.velocityEast(index);
+        else if (quantity == VELOCITY_NORTH)
+            return f.velocityNorth(index);
+        else
+            return f.velocityUp(index);
+    }
+
+    /**
+     * Returns the hydrostatic pressure difference from the centre cell to an
+     * obstacle as per {@link Solver#obstacleToValue(Cell, Cell)}.
+     */
+    double mirrorOffset(int centre, int obstacle) {
+        return (position(obstacle, 0) - position(centre, 0)) * gravityEast
+                + (position(obstacle, 1) - position(centre, 1)) * gravityNorth
+                + (position(obstacle, 2) - position(centre, 2)) * gravityUp;
+    }
+
+    /**
+     * Returns true if the stencil of the cell at <code>index</code> in
+     * direction <code>k</code> is one that {@link Solver} handles.
+     */
+    boolean handles(int index, int k) {
+        return stencils[k].get(index) != Stencil.UNHANDLED;
+    }
+
+    byte stencil(int index, int k) {
+        final byte code = stencils[k].get(index);
+        if (code == Stencil.UNHANDLED)
+            return Util.unexpected("not handled " + str(index - strides[k]) + "," + str(index)
+                    + "." + str(index + strides[k]));
+        return code;
+    }
+
+    private double position(int index, int k) {
+        return grid.position(index, DIRECTIONS[k]);
+    }
+
+    private String str(int index) {
+        return "Cell[" + grid.type(index) + "," + grid.position(index) + "]";
+    }
+
+    /**
+     * Mutable per thread state used while stepping a cell. Also the
+     * continuity function of pressure whose root is the new pressure.
+     */
+    final class Workspace implements DoubleUnaryOperator {
+
+        double velocityEast;
+        double velocityNorth;
+        double velocityUp;
+        private Fields fields;
+        private int index;
+        private double velocityTerm;
+        private int evaluations;
+        private final StepRecorder recorder;
+
+        private Workspace(StepRecorder recorder) {
+            this.recorder = recorder;
+        }
+
+        @Override
+        public double applyAsDouble(double pressure) {
+            evaluations++;
+            return continuity(fields, index, pressure, velocityTerm);
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.github.davidmoten.jns;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Creates the storage for the cell flags, the stencil codes and the
+ * {@link Fields} of each generation of a {@link DenseMesh}.
+ */
+public interface DenseStorage {
+
+    /**
+     * Returns a buffer of <code>size</code> bytes for a byte per cell (the cell
+     * flags of a {@link Grid} or the stencil codes of one direction).
+     * 
+     * @param size
+     * @return buffer
+     */
+    ByteBuffer cellFlags(int size);
+
+    /**
+     * Returns storage for one generation.
+     * 
+     * @param size
+     *            number of cells
+     * @param slabSize
+     *            number of cells in a horizontal layer
+     * @return fields
+     */
+    Fields fields(int size, int slabSize);
+
+    /**
+     * Returns storage in on-heap arrays (the default).
+     * 
+     * @return storage
+     */
+    static DenseStorage heap() {
+        return new DenseStorage() {
+
+            @Override
+            public ByteBuffer cellFlags(int size) {
+                return ByteBuffer.allocate(size);
+            }
+
+            @Override
+            public Fields fields(int size, int slabSize) {
+                return new ArrayFields(size);
+            }
+        };
+    }
+
+    /**
+     * Returns storage in memory mapped files in <code>directory</code> so that
+     * meshes larger than the heap can be stepped with the operating system
+     * paging values to and from disk. The files are deleted as soon as they are
+     * mapped and their disk space is released when the storage is garbage
+     * collected.
+     * 
+     * @param directory
+     * @return storage
+     */
+    static DenseStorage mapped(Path directory) {
+        if (directory == null)
+            throw new NullPointerException("directory must not be null");
+        return new DenseStorage() {
+
+            @Override
+            public ByteBuffer cellFlags(int size) {
+                return MappedFields.map(directory, size).get(0);
+            }
+
+            @Override
+            public Fields fields(int size, int slabSize) {
+                return new MappedFields(directory, size, slabSize);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,190 @@
+package com.github.davidmoten.jns;
+
+import java.util.Arrays;
+
+/**
+ * The viscous diffusion system of {@link ImplicitDiffusion} over the fluid
+ * cells of a {@link Grid}, assembled once from the cell types.
+ *
+ * <p>
+ * The unknowns are the interior fluid cells that are not boundary cells (the
+ * cells that are stepped). Along an axis where the {@link Stencil} of a cell
+ * is central the second derivative has weight <code>1/(c - a)<sup>2</sup></code>
+ * as in {@link Solver}, a fluid neighbour that is not an unknown keeps its
+ * velocity and an obstacle neighbour has zero velocity. Along other axes the
+ * second derivative is zero.
+ */
+final class DiffusionSystem {
+
+    private static final int NONE = -1;
+    // neighbour of an unknown whose velocity is fixed
+    private static final int FIXED = -2;
+    // obstacle neighbour of an unknown with zero velocity
+    private static final int MIRROR = -3;
+    private static final int NEIGHBOURS = 6;
+
+    private final Grid grid;
+    private final double nu;
+    // grid index of each unknown
+    private final int[] unknowns;
+    // unknown number, FIXED or MIRROR for each neighbour of each unknown
+    private final int[] neighbours;
+    // grid index of each neighbour of each unknown
+    private final int[] neighbourIndices;
+    // weight of each neighbour of each unknown (zero if not used)
+    private final double[] weights;
+    // sum of the weights of each unknown
+    private final double[] weightSums;
+    // solution for each velocity component and right hand side reused by
+    // every solve
+    private final double[][] x;
+    private final double[] rhs;
+
+    DiffusionSystem(DenseSolver solver) {
+        this.grid = solver.grid();
+        this.nu = grid.viscosity() / grid.density();
+        final int[] numbers = new int[grid.size()];
+        Arrays.fill(numbers, NONE);
+        int count = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isInterior(i) && grid.isFluid(i) && !grid.isBoundary(i))
+                numbers[i] = count++;
+        this.unknowns = new int[count];
+        this.neighbours = new int[count * NEIGHBOURS];
+        this.neighbourIndices = new int[count * NEIGHBOURS];
+        this.weights = new double[count * NEIGHBOURS];
+        this.weightSums = new double[count];
+        this.x = new double[3][count];
+        this.rhs = new double[count];
+        final Direction[] directions = Direction.values();
+        for (int i = 0; i < grid.size(); i++) {
+            final int u = numbers[i];
+            if (u == NONE)
+                continue;
+            unknowns[u] = i;
+            for (final Direction d : directions) {
+                final int k = d.ordinal();
+                final byte code = solver.stencil(i, k);
+                final int lower = i - grid.stride(d);
+                final int upper = i + grid.stride(d);
+                final boolean central = Stencil.kind(code) == Stencil.CENTRAL;
+                final double h = grid.position(upper, d) - grid.position(lower, d);
+                final double w = central ? 1 / (h * h) : 0;
+                set(u, 2 * k, lower, w, numbers, Stencil.mirrorLower(code));
+                set(u, 2 * k + 1, upper, w, numbers, Stencil.mirrorUpper(code));
+                weightSums[u] += 2 * w;
+            }
+        }
+    }
+
+    private void set(int u, int m, int index, double w, int[] numbers, boolean mirror) {
+        final int n = u * NEIGHBOURS + m;
+        neighbourIndices[n] = index;
+        weights[n] = w;
+        if (mirror)
+            neighbours[n] = MIRROR;
+        else if (numbers[index] != NONE)
+            neighbours[n] = numbers[index];
+        else
+            neighbours[n] = FIXED;
+    }
+
+    int size() {
+        return unknowns.length;
+    }
+
+    /**
+     * Replaces the velocities in <code>next</code> (advanced without the
+     * viscous term from <code>previous</code>) with the solution of the
+     * diffusion system. Not thread safe as the workspace of the solution is
+     * shared by every call.
+     *
+     * @return the largest number of iterations used for a velocity component
+     */
+    int solve(Fields previous, Fields next, double timeStepSeconds,
+            ImplicitDiffusion settings) {
+        final int n = unknowns.length;
+        final double alpha = timeStepSeconds * nu;
+        final double implicit = settings.theta() * alpha;
+        final double explicit = (1 - settings.theta()) * alpha;
+        int iterations = 0;
+        for (int q = 0; q < 3; q++) {
+            final double[] xq = x[q];
+            for (int u = 0; u < n; u++) {
+                final int i = unknowns[u];
+                xq[u] = velocity(next, i, q);
+                rhs[u] = xq[u];
+                if (explicit != 0)
+                    rhs[u] += explicit * laplacian(previous, u, q);
+            }
+            iterations = Math.max(iterations, gaussSeidel(next, q, xq, rhs, implicit,
+                    settings));
+        }
+        for (int u = 0; u < n; u++) {
+            final int i = unknowns[u];
+            next.set(i, next.pressure(i), x[0][u], x[1][u], x[2][u]);
+        }
+        return iterations;
+    }
+
+    private int gaussSeidel(Fields next, int q, double[] x, double[] rhs, double implicit,
+            ImplicitDiffusion settings) {
+        final int n = unknowns.length;
+        int iterations = 0;
+        while (true) {
+            if (iterations == settings.maxIterations())
+                return Util.unexpected(
+                        "diffusion did not converge after " + iterations + " iterations");
+            iterations++;
+            double maxChange = 0;
+            for (int u = 0; u < n; u++) {
+                double sum = 0;
+                for (int m = 0; m < NEIGHBOURS; m++) {
+                    final int j = u * NEIGHBOURS + m;
+                    final double w = weights[j];
+                    if (w != 0) {
+                        final int v = neighbours[j];
+                        if (v >= 0)
+                            sum += w * x[v];
+                        else if (v == FIXED)
+                            sum += w * velocity(next, neighbourIndices[j], q);
+                    }
+                }
+                final double value = (rhs[u] + implicit * sum) / (1 + implicit * weightSums[u]);
+                maxChange = Math.max(maxChange, Math.abs(value - x[u]));
+                x[u] = value;
+            }
+            if (maxChange <= settings.tolerance())
+                return iterations;
+        }
+    }
+
+    /**
+     * Returns the Laplacian of velocity component <code>q</code> at unknown
+     * <code>u</code>.
+     */
+    private double laplacian(Fields f, int u, int q) {
+        final double centre = velocity(f, unknowns[u], q);
+        double sum = 0;
+        for (int m = 0; m < NEIGHBOURS; m++) {
+            final int j = u * NEIGHBOURS + m;
+            final double w = weights[j];
+            if (w != 0) {
+                final double value = neighbours[j] == MIRROR ? 0
+                        : velocity(f, neighbourIndices[j], q);
+                sum += w * (value - centre);
+            }
+        }
+        return sum;
+    }
+
+    private static double velocity(Fields f, int index, int q) {
+        if (q == 0)
+            return f.velocityEast(index);
+        else if (q == 1)
+            return f.velocityNorth(index);
+        else
+            return f.velocityUp(index);
+    }
+
+}
@@ -0,0 +1,44 @@
+package com.github.davidmoten.jns;
+
+/**
+ * The values of one generation of a dense mesh stored by the flat index given
+ * by {@link Grid#index(int, int, int)}. Values for cells that are not
+ * {@link CellType#FLUID} are undefined.
+ */
+public interface Fields {
+
+    int size();
+
+    double pressure(int index);
+
+    double velocityEast(int index);
+
+    double velocityNorth(int index);
+
+    double velocityUp(int index);
+
+    void set(int index, double pressure, double velocityEast, double velocityNorth,
+            double velocityUp);
+
+    default double velocity(int index, Direction direction) {
+        if (direction == Direction.EAST)
+            return velocityEast(index);
+        else if (direction == Direction.NORTH)
+            return velocityNorth(index);
+        else if (direction == Direction.UP)
+            return velocityUp(index);
+        else
+            return Util.unexpected();
+    }
+
+    default void copy(int index, Fields from) {
+        set(index, from.pressure(index), from.velocityEast(index), from.velocityNorth(index),
+                from.velocityUp(index));
+    }
+
+    default void copyAll(Fields from) {
+        for (int i = 0; i < size(); i++)
+            copy(i, from);
+    }
+
+}
@@ -0,0 +1,335 @@
+package com.github.davidmoten.jns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes generations of a {@link DenseMesh} to files on a background thread so
+ * that stepping continues while output is written. Values are read straight
+ * from {@link Fields} and only the requested (non-halo) cells are written.
+ * Non-fluid cells are written with a pressure and velocity of NaN.
+ *
+ * <p>
+ * A {@link DenseMesh} returned by {@link DenseMesh#step(double)} is never
+ * modified afterwards so is queued without copying. If the writer falls behind
+ * by more than <code>capacity</code> generations then {@link #write(DenseMesh)}
+ * blocks until there is room so that memory use is bounded.
+ *
+ * <p>
+ * {@link #write(DenseMesh)} and {@link #close()} may be called from any
+ * thread. Each write gets its own generation number.
+ */
+public final class GenerationWriter implements AutoCloseable {
+
+    public static enum Format {
+        /**
+         * VTK XML image data (.vti) with a point per cell and the arrays
+         * <code>pressure</code>, <code>type</code> (the ordinal of the
+         * {@link CellType}) and <code>velocity</code> in binary appended
+         * form.
+         */
+        VTK("vti") {
+            @Override
+            void write(DenseMesh mesh, Path file) throws IOException {
+                writeVtk(mesh, file);
+            }
+        },
+        /**
+         * Little endian 32 bit floats without a header: the pressures of all
+         * cells (east varying fastest, then north, then up) followed by the
+         * east, north and up velocities in the same order.
+         */
+        RAW("raw") {
+            @Override
+            void write(DenseMesh mesh, Path file) throws IOException {
+                writeRaw(mesh, file);
+            }
+        };
+
+        private final String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        abstract void write(DenseMesh mesh, Path file) throws IOException;
+    }
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final Item END = new Item(null, null);
+
+    private final Path directory;
+    private final Format format;
+    private final BlockingQueue<Item> queue;
+    private final Thread thread;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Throwable error;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * Constructor. Starts the writer thread.
+     *
+     * @param directory
+     *            generations are written to files named
+     *            <code>generation-000000.vti</code> and so on in this
+     *            directory
+     * @param format
+     * @param capacity
+     *            maximum number of generations waiting to be written
+     */
+    public GenerationWriter(Path directory, Format format, int capacity) {
+        if (directory == null)
+            throw new NullPointerException("directory must not be null");
+        if (format == null)
+            throw new NullPointerException("format must not be null");
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be 1 or more");
+        this.directory = directory;
+        this.format = format;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "jns-generation-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues <code>mesh</code> to be written as the next generation.
+     *
+     * @param mesh
+     * @return the path the generation will be written to
+     */
+    public Path write(DenseMesh mesh) {
+        if (mesh == null)
+            throw new NullPointerException("mesh must not be null");
+        if (closed.get())
+            throw new IllegalStateException("writer is closed");
+        checkError();
+        final Path file = directory.resolve(String.format(Locale.ROOT, "generation-%06d.%s",
+                generation.getAndIncrement(), format.extension()));
+        put(new Item(mesh, file));
+        return file;
+    }
+
+    /**
+     * Waits for queued generations to be written and stops the writer thread.
+     * Throws if any generation could not be written.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            put(END);
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        checkError();
+    }
+
+    private void put(Item item) {
+        try {
+            queue.put(item);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkError() {
+        final Throwable e = error;
+        if (e instanceof IOException)
+            throw new UncheckedIOException((IOException) e);
+        else if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        else if (e != null)
+            throw new RuntimeException(e);
+    }
+
+    private void run() {
+        while (true) {
+            final Item item;
+            try {
+                item = queue.take();
+            } catch (final InterruptedException e) {
+                return;
+            }
+            if (item == END)
+                return;
+            // once a write fails keep draining so producers don't block
+            if (error == null)
+                try {
+                    format.write(item.mesh, item.file);
+                } catch (final IOException | RuntimeException e) {
+                    error = e;
+                }
+        }
+    }
+
+    private static final class Item {
+        final DenseMesh mesh;
+        final Path file;
+
+        Item(DenseMesh mesh, Path file) {
+            this.mesh = mesh;
+            this.file = file;
+        }
+    }
+
+    static void writeVtk(DenseMesh mesh, Path file) throws IOException {
+        final Grid grid = mesh.grid();
+        final long n = (long) grid.cellsEast() * grid.cellsNorth() * grid.cellsUp();
+        final long pressureBytes = Long.BYTES + n * Float.BYTES;
+        final long typeBytes = Long.BYTES + n;
+        final StringBuilder s = new StringBuilder();
+        s.append("<?xml version=\"1.0\"?>\n");
+        s.append("<VTKFile type=\"ImageData\" version=\"1.0\" byte_order=\"LittleEndian\""
+                + " header_type=\"UInt64\">\n");
+        final String extent = "0 " + (grid.cellsEast() - 1) + " 0 " + (grid.cellsNorth() - 1)
+                + " 0 " + (grid.cellsUp() - 1);
+        final int origin = grid.index(0, 0, 0);
+        s.append("  <ImageData WholeExtent=\"" + extent + "\" Origin=\""
+                + grid.position(origin, Direction.EAST) + " "
+                + grid.position(origin, Direction.NORTH) + " "
+                + grid.position(origin, Direction.UP) + "\" Spacing=\""
+                + spacing(grid, Direction.EAST, mesh.cellSizeEast()) + " "
+                + spacing(grid, Direction.NORTH, mesh.cellSizeNorth()) + " "
+                + spacing(grid, Direction.UP, mesh.cellSizeUp()) + "\">\n");
+        s.append("    <Piece Extent=\"" + extent + "\">\n");
+        s.append("      <PointData Scalars=\"pressure\" Vectors=\"velocity\">\n");
+        s.append("        <DataArray type=\"Float32\" Name=\"pressure\" format=\"appended\""
+                + " offset=\"0\"/>\n");
+        s.append("        <DataArray type=\"UInt8\" Name=\"type\" format=\"appended\" offset=\""
+                + pressureBytes + "\"/>\n");
+        s.append("        <DataArray type=\"Float32\" Name=\"velocity\" NumberOfComponents=\"3\""
+                + " format=\"appended\" offset=\"" + (pressureBytes + typeBytes) + "\"/>\n");
+        s.append("      </PointData>\n");
+        s.append("    </Piece>\n");
+        s.append("  </ImageData>\n");
+        s.append("  <AppendedData encoding=\"raw\">\n_");
+        try (FileChannel channel = open(file)) {
+            final ByteBuffer b = buffer();
+            b.put(s.toString().getBytes(StandardCharsets.US_ASCII));
+            b.putLong(n * Float.BYTES);
+            final Fields f = mesh.fields();
+            for (int up = 0; up < grid.cellsUp(); up++)
+                for (int north = 0; north < grid.cellsNorth(); north++) {
+                    final int from = grid.index(0, north, up);
+                    for (int i = from; i < from + grid.cellsEast(); i++) {
+                        flushIfFull(channel, b, Float.BYTES);
+                        b.putFloat(grid.isFluid(i) ? (float) f.pressure(i) : Float.NaN);
+                    }
+                }
+            flushIfFull(channel, b, Long.BYTES);
+            b.putLong(n);
+            for (int up = 0; up < grid.cellsUp(); up++)
+                for (int north = 0; north < grid.cellsNorth(); north++) {
+                    final int from = grid.index(0, north, up);
+                    for (int i = from; i < from + grid.cellsEast(); i++) {
+                        flushIfFull(channel, b, 1);
+                        b.put((byte) grid.type(i).ordinal());
+                    }
+                }
+            flushIfFull(channel, b, Long.BYTES);
+            b.putLong(3 * n * Float.BYTES);
+            for (int up = 0; up < grid.cellsUp(); up++)
+                for (int north = 0; north < grid.cellsNorth(); north++) {
+                    final int from = grid.index(0, north, up);
+                    for (int i = from; i < from + grid.cellsEast(); i++) {
+                        flushIfFull(channel, b, 3 * Float.BYTES);
+                        if (grid.isFluid(i))
+                            b.putFloat((float) f.velocityEast(i))
+                                    .putFloat((float) f.velocityNorth(i))
+                                    .putFloat((float) f.velocityUp(i));
+                        else
+                            b.putFloat(Float.NaN).putFloat(Float.NaN).putFloat(Float.NaN);
+                    }
+                }
+            final byte[] end = "\n  </AppendedData>\n</VTKFile>\n"
+                    .getBytes(StandardCharsets.US_ASCII);
+            flushIfFull(channel, b, end.length);
+            b.put(end);
+            flush(channel, b);
+        }
+    }
+
+    static void writeRaw(DenseMesh mesh, Path file) throws IOException {
+        final Grid grid = mesh.grid();
+        final Fields f = mesh.fields();
+        try (FileChannel channel = open(file)) {
+            final ByteBuffer b = buffer();
+            for (int quantity = 0; quantity < 4; quantity++)
+                for (int up = 0; up < grid.cellsUp(); up++)
+                    for (int north = 0; north < grid.cellsNorth(); north++) {
+                        final int from = grid.index(0, north, up);
+                        for (int i = from; i < from + grid.cellsEast(); i++) {
+                            flushIfFull(channel, b, Float.BYTES);
+                            b.putFloat(grid.isFluid(i) ? (float) value(f, i, quantity)
+                                    : Float.NaN);
+                        }
+                    }
+            flush(channel, b);
+        }
+    }
+
+    private static double value(Fields f, int index, int quantity) {
+        if (quantity == 0)
+            return f.pressure(index);
+        else if (quantity == 1)
+            return f.velocityEast(index);
+        else if (quantity == 2)
+            return f.velocityNorth(index);
+        else
+            return f.velocityUp(index);
+    }
+
+    private static double spacing(Grid grid, Direction direction, double cellSize) {
+        final int cells = grid.cells(direction);
+        if (cells == 1)
+            return cellSize;
+        final double first = grid.position(grid.index(0, 0, 0), direction);
+        final double last = grid.position(grid.index(direction == Direction.EAST ? cells - 1
+                : 0, direction == Direction.NORTH ? cells - 1 : 0,
+                direction == Direction.UP ? cells - 1 : 0), direction);
+        return (last - first) / (cells - 1);
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static ByteBuffer buffer() {
+        return ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void flushIfFull(FileChannel channel, ByteBuffer b, int bytes)
+            throws IOException {
+        if (b.remaining() < bytes)
+            flush(channel, b);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer b) throws IOException {
+        b.flip();
+        while (b.hasRemaining())
+            channel.write(b);
+        b.clear();
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rx.Observable;
+import rx.Observable.Operator;
+import rx.Scheduler;
+import rx.Scheduler.Worker;
+import rx.Subscriber;
+import rx.functions.Action0;
+
+/**
+ * Streams the generations of a stepped {@link Mesh} as an {@link Observable}
+ * so that writers, statistics and displays can subscribe to a running
+ * simulation.
+ *
+ * <p>
+ * Stepping happens on the subscribing thread (use
+ * {@link Observable#subscribeOn(Scheduler)} to step in the background) and
+ * stops as soon as the subscriber unsubscribes. A consumer that is slower than
+ * the stepper should use {@link #latest(Scheduler)} or
+ * {@link #dropWhileBusy(Scheduler)} so that it never holds back the stepper
+ * and never queues more than one generation. Generations of a
+ * {@link DenseMesh} are not modified by later steps so may be read from any
+ * thread.
+ */
+public final class Generations {
+
+    private static final Object EMPTY = new Object();
+
+    private Generations() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the generations of <code>mesh</code> starting with
+     * <code>mesh</code> itself (generation 0) and stepping
+     * <code>timeStepSeconds</code> until unsubscribed.
+     *
+     * @param mesh
+     * @param timeStepSeconds
+     * @return generations
+     */
+    public static Observable<Generation> from(Mesh mesh, double timeStepSeconds) {
+        return from(mesh, timeStepSeconds, Long.MAX_VALUE);
+    }
+
+    /**
+     * Returns generations 0 to <code>steps</code> of <code>mesh</code> then
+     * completes.
+     *
+     * @param mesh
+     * @param timeStepSeconds
+     * @param steps
+     * @return generations
+     */
+    public static Observable<Generation> from(Mesh mesh, double timeStepSeconds, long steps) {
+        if (mesh == null)
+            throw new NullPointerException("mesh must not be null");
+        if (steps < 0)
+            throw new IllegalArgumentException("steps must be >=0");
+        return Observable.create(subscriber -> {
+            try {
+                Mesh m = mesh;
+                subscriber.onNext(new Generation(0, 0, m));
+                for (long n = 1; n <= steps && !subscriber.isUnsubscribed(); n++) {
+                    m = m.step(timeStepSeconds);
+                    subscriber.onNext(new Generation(n, n * timeStepSeconds, m));
+                }
+                if (!subscriber.isUnsubscribed())
+                    subscriber.onCompleted();
+            } catch (final RuntimeException e) {
+                subscriber.onError(e);
+            }
+        });
+    }
+
+    /**
+     * Returns an operator that delivers items on <code>scheduler</code>
+     * conflating them while the downstream subscriber is busy so that it
+     * receives the most recent item once it is ready. The last item is always
+     * delivered.
+     *
+     * @param scheduler
+     * @return operator for use with {@link Observable#lift(Operator)}
+     */
+    public static <T> Operator<T, T> latest(Scheduler scheduler) {
+        return child -> {
+            final Worker worker = scheduler.createWorker();
+            child.add(worker);
+            final AtomicReference<Object> latest = new AtomicReference<>(EMPTY);
+            final AtomicInteger wip = new AtomicInteger();
+            final AtomicReference<Throwable> error = new AtomicReference<>();
+            final AtomicBoolean done = new AtomicBoolean();
+            final Action0 drain = () -> {
+                do {
+                    final boolean finished = done.get();
+                    final Object value = latest.getAndSet(EMPTY);
+                    if (value != EMPTY) {
+                        @SuppressWarnings("unchecked")
+                        final T t = (T) value;
+                        child.onNext(t);
+                    }
+                    if (finished && latest.get() == EMPTY) {
+                        if (error.get() != null)
+                            child.onError(error.get());
+                        else
+                            child.onCompleted();
+                        return;
+                    }
+                } while (wip.decrementAndGet() != 0);
+            };
+            return new Subscriber<T>(child) {
+
+                @Override
+                public void onNext(T t) {
+                    latest.set(t);
+                    schedule();
+                }
+
+                @Override
+                public void onCompleted() {
+                    done.set(true);
+                    schedule();
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    error.set(e);
+                    done.set(true);
+                    schedule();
+                }
+
+                private void schedule() {
+                    if (wip.getAndIncrement() == 0)
+                        worker.schedule(drain);
+                }
+            };
+        };
+    }
+
+    /**
+     * Returns an operator that delivers items on <code>scheduler</code> and
+     * discards items that arrive while the downstream subscriber is still
+     * handling an earlier one.
+     *
+     * @param scheduler
+     * @return operator for use with {@link Observable#lift(Operator)}
+     */
+    public static <T> Operator<T, T> dropWhileBusy(Scheduler scheduler) {
+        return child -> {
+            final Worker worker = scheduler.createWorker();
+            child.add(worker);
+            final AtomicBoolean busy = new AtomicBoolean();
+            return new Subscriber<T>(child) {
+
+                @Override
+                public void onNext(T t) {
+                    if (busy.compareAndSet(false, true))
+                        worker.schedule(() -> {
+                            child.onNext(t);
+                            busy.set(false);
+                        });
+                }
+
+                @Override
+                public void onCompleted() {
+                    // the worker runs actions in order so this follows any
+                    // delivery in progress
+                    worker.schedule(child::onCompleted);
+                }
+
+                @Override
+                public void onError(Throwable e) {
+                    worker.schedule(() -> child.onError(e));
+                }
+            };
+        };
+    }
+
+    /**
+     * A generation of a mesh.
+     */
+    public static final class Generation {
+
+        private final long number;
+        private final double timeSeconds;
+        private final Mesh mesh;
+
+        Generation(long number, double timeSeconds, Mesh mesh) {
+            this.number = number;
+            this.timeSeconds = timeSeconds;
+            this.mesh = mesh;
+        }
+
+        /**
+         * Returns the number of steps from the first generation.
+         *
+         * @return generation number
+         */
+        public long number() {
+            return number;
+        }
+
+        public double timeSeconds() {
+            return timeSeconds;
+        }
+
+        public Mesh mesh() {
+            return mesh;
+        }
+
+        @Override
+        public String toString() {
+            return "Generation[number=" + number + ", timeSeconds=" + timeSeconds + "]";
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.github.davidmoten.jns;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout and topology of a regular dense mesh. Cells are stored with east
+ * varying fastest, then north, then up so that a horizontal layer (a slab along
+ * the up axis) is contiguous. A halo of {@link #HALO} cells surrounds the
+ * requested cells so that every stencil used by {@link Solver} can be
+ * evaluated by index arithmetic alone.
+ * 
+ * <p>
+ * Cell types, boundary flags, positions, density and viscosity do not change
+ * from one generation to the next so a single {@link Grid} is shared by every
+ * generation of a mesh. The type and boundary flag of a cell are packed into a
+ * byte of a {@link ByteBuffer} (see {@link #flags(CellType, boolean)}) which
+ * may be on-heap or memory mapped (see {@link DenseStorage}).
+ */
+public final class Grid {
+
+    public static final int HALO = 2;
+
+    private static final CellType[] TYPES = CellType.values();
+    private static final int BOUNDARY = 0x80;
+    private static final int TYPE_MASK = 0x7F;
+
+    private final int cellsEast;
+    private final int cellsNorth;
+    private final int cellsUp;
+    private final int totalEast;
+    private final int totalNorth;
+    private final int totalUp;
+    private final int strideNorth;
+    private final int strideUp;
+    private final ByteBuffer flags;
+    private final double[] positionEast;
+    private final double[] positionNorth;
+    private final double[] positionUp;
+    private final double density;
+    private final double viscosity;
+
+    Grid(int cellsEast, int cellsNorth, int cellsUp, ByteBuffer flags, double[] positionEast,
+            double[] positionNorth, double[] positionUp, double density, double viscosity) {
+        this.cellsEast = cellsEast;
+        this.cellsNorth = cellsNorth;
+        this.cellsUp = cellsUp;
+        this.totalEast = cellsEast + 2 * HALO;
+        this.totalNorth = cellsNorth + 2 * HALO;
+        this.totalUp = cellsUp + 2 * HALO;
+        this.strideNorth = totalEast;
+        this.strideUp = totalEast * totalNorth;
+        this.flags = flags;
+        this.positionEast = positionEast;
+        this.positionNorth = positionNorth;
+        this.positionUp = positionUp;
+        this.density = density;
+        this.viscosity = viscosity;
+    }
+
+    static int size(int cellsEast, int cellsNorth, int cellsUp) {
+        final long size = (long) (cellsEast + 2 * HALO) * (cellsNorth + 2 * HALO)
+                * (cellsUp + 2 * HALO);
+        if (size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many cells for a dense mesh: " + size);
+        return (int) size;
+    }
+
+    public int cellsEast() {
+        return cellsEast;
+    }
+
+    public int cellsNorth() {
+        return cellsNorth;
+    }
+
+    public int cellsUp() {
+        return cellsUp;
+    }
+
+    /**
+     * Returns the number of stored cells including the halo.
+     * 
+     * @return number of stored cells
+     */
+    public int size() {
+        return flags.capacity();
+    }
+
+    public int index(int east, int north, int up) {
+        return (east + HALO) + (north + HALO) * strideNorth + (up + HALO) * strideUp;
+    }
+
+    public int stride(Direction direction) {
+        if (direction == Direction.EAST)
+            return 1;
+        else if (direction == Direction.NORTH)
+            return strideNorth;
+        else if (direction == Direction.UP)
+            return strideUp;
+        else
+            return Util.unexpected();
+    }
+
+    public int indexEast(int index) {
+        return index % totalEast - HALO;
+    }
+
+    public int indexNorth(int index) {
+        return (index / strideNorth) % totalNorth - HALO;
+    }
+
+    public int indexUp(int index) {
+        return index / strideUp - HALO;
+    }
+
+    public int index(int index, Direction direction) {
+        if (direction == Direction.EAST)
+            return indexEast(index);
+        else if (direction == Direction.NORTH)
+            return indexNorth(index);
+        else if (direction == Direction.UP)
+            return indexUp(index);
+        else
+            return Util.unexpected();
+    }
+
+    public int cells(Direction direction) {
+        if (direction == Direction.EAST)
+            return cellsEast;
+        else if (direction == Direction.NORTH)
+            return cellsNorth;
+        else if (direction == Direction.UP)
+            return cellsUp;
+        else
+            return Util.unexpected();
+    }
+
+    /**
+     * Returns true if and only if the cell is stored (it may be in the halo).
+     * 
+     * @param east
+     * @param north
+     * @param up
+     * @return true if stored
+     */
+    public boolean contains(int east, int north, int up) {
+        return east >= -HALO && east < cellsEast + HALO && north >= -HALO
+                && north < cellsNorth + HALO && up >= -HALO && up < cellsUp + HALO;
+    }
+
+    public boolean isInterior(int index) {
+        final int east = indexEast(index);
+        final int north = indexNorth(index);
+        final int up = indexUp(index);
+        return east >= 0 && east < cellsEast && north >= 0 && north < cellsNorth && up >= 0
+                && up < cellsUp;
+    }
+
+    public CellType type(int index) {
+        return TYPES[flags.get(index) & TYPE_MASK];
+    }
+
+    public boolean isFluid(int index) {
+        return (flags.get(index) & TYPE_MASK) == CellType.FLUID.ordinal();
+    }
+
+    public boolean isBoundary(int index) {
+        return (flags.get(index) & BOUNDARY) != 0;
+    }
+
+    /**
+     * Returns the byte stored for a cell of the given type and boundary flag.
+     * 
+     * @param type
+     * @param isBoundary
+     * @return flags
+     */
+    static byte flags(CellType type, boolean isBoundary) {
+        return (byte) (type.ordinal() | (isBoundary ? BOUNDARY : 0));
+    }
+
+    public double position(int index, Direction direction) {
+        if (direction == Direction.EAST)
+            return positionEast[index % totalEast];
+        else if (direction == Direction.NORTH)
+            return positionNorth[(index / strideNorth) % totalNorth];
+        else if (direction == Direction.UP)
+            return positionUp[index / strideUp];
+        else
+            return Util.unexpected();
+    }
+
+    public Vector position(int index) {
+        return Vector.create(position(index, Direction.EAST), position(index, Direction.NORTH),
+                position(index, Direction.UP));
+    }
+
+    public double density() {
+        return density;
+    }
+
+    public double viscosity() {
+        return viscosity;
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs an action over every interior row (a run of cells in the east
+ * direction) of a {@link Grid}. Rows are ordered by up then north so a
+ * contiguous range of rows is a set of slabs along {@link Direction#UP} split
+ * into tiles along {@link Direction#NORTH}. With a parallelism greater than one
+ * the ranges are processed on a {@link ForkJoinPool}. Executors are shared per
+ * parallelism (using the common pool if its parallelism matches) so creating
+ * meshes does not create threads that are never shut down.
+ * 
+ * <p>
+ * The action must only write to cells of the row it is given so that the
+ * result does not depend on the parallelism.
+ */
+public final class GridExecutor {
+
+    /**
+     * An action over the interior cells of one row.
+     */
+    public interface RowAction {
+
+        /**
+         * Processes the interior cells of a row.
+         * 
+         * @param from
+         *            index of the most western interior cell of the row
+         * @param to
+         *            index of the most eastern interior cell of the row plus
+         *            one
+         */
+        void run(int from, int to);
+    }
+
+    private static final GridExecutor SEQUENTIAL = new GridExecutor(1, null);
+
+    private static final ConcurrentMap<Integer, GridExecutor> SHARED = new ConcurrentHashMap<>();
+
+    // aim for a few tasks per thread so that work can be stolen
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    private GridExecutor(int parallelism, ForkJoinPool pool) {
+        this.parallelism = parallelism;
+        this.pool = pool;
+    }
+
+    public static GridExecutor sequential() {
+        return SEQUENTIAL;
+    }
+
+    /**
+     * Returns an executor with the given parallelism. Repeated calls with the
+     * same parallelism return the same executor.
+     * 
+     * @param parallelism
+     * @return executor
+     */
+    public static GridExecutor create(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be 1 or more");
+        else if (parallelism == 1)
+            return SEQUENTIAL;
+        else
+            return SHARED.computeIfAbsent(parallelism, p -> new GridExecutor(p,
+                    p == ForkJoinPool.getCommonPoolParallelism() ? ForkJoinPool.commonPool()
+                            : new ForkJoinPool(p)));
+    }
+
+    public int parallelism() {
+        return parallelism;
+    }
+
+    public void forEachRow(Grid grid, RowAction action) {
+        final int rows = grid.cellsNorth() * grid.cellsUp();
+        if (pool == null)
+            runRows(grid, action, 0, rows);
+        else {
+            final int threshold = Math.max(1, rows / (parallelism * TASKS_PER_THREAD));
+            pool.invoke(new RowsTask(grid, action, 0, rows, threshold));
+        }
+    }
+
+    private static void runRows(Grid grid, RowAction action, int fromRow, int toRow) {
+        for (int row = fromRow; row < toRow; row++) {
+            final int north = row % grid.cellsNorth();
+            final int up = row / grid.cellsNorth();
+            final int from = grid.index(0, north, up);
+            action.run(from, from + grid.cellsEast());
+        }
+    }
+
+    private static final class RowsTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 6283174532781735516L;
+
+        private final Grid grid;
+        private final RowAction action;
+        private final int fromRow;
+        private final int toRow;
+        private final int threshold;
+
+        RowsTask(Grid grid, RowAction action, int fromRow, int toRow, int threshold) {
+            this.grid = grid;
+            this.action = action;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= threshold)
+                runRows(grid, action, fromRow, toRow);
+            else {
+                final int middle = (fromRow + toRow) >>> 1;
+                invokeAll(new RowsTask(grid, action, fromRow, middle, threshold),
+                        new RowsTask(grid, action, middle, toRow, threshold));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Settings for treating the viscous term of a dense mesh implicitly (see
+ * {@link Mesh.Builder#implicitDiffusion(ImplicitDiffusion)}) so that the time
+ * step is no longer limited by viscosity. Each step first advances the
+ * velocity without the viscous term then solves
+ *
+ * <pre>
+ * (I - theta * dt * nu * L) v = v* + (1 - theta) * dt * nu * L v<sub>previous</sub>
+ * </pre>
+ *
+ * for each velocity component with Gauss-Seidel iteration, where
+ * <code>nu</code> is viscosity divided by density and <code>L</code> is the
+ * Laplacian of the component with the second derivative of {@link Solver}
+ * (zero across a free surface, an obstacle neighbour has zero velocity and a
+ * fluid boundary cell keeps its velocity). <code>theta</code> is 1 for
+ * backward Euler and 0.5 for Crank-Nicolson. The pressure is then found from
+ * the diffused velocity as usual.
+ *
+ * <p>
+ * The explicit scheme of {@link Solver} uses the sum over the velocity
+ * components of their second derivatives along an axis as the viscous term
+ * for that axis. The implicit stage uses the Laplacian of each component
+ * instead (which is what makes it a separate system per component) so results
+ * differ from explicit stepping by more than the time discretisation.
+ */
+public final class ImplicitDiffusion {
+
+    private final double theta;
+    private final double tolerance;
+    private final int maxIterations;
+
+    private ImplicitDiffusion(double theta, double tolerance, int maxIterations) {
+        this.theta = theta;
+        this.tolerance = tolerance;
+        this.maxIterations = maxIterations;
+    }
+
+    public static ImplicitDiffusion backwardEuler() {
+        return builder().build();
+    }
+
+    public static ImplicitDiffusion crankNicolson() {
+        return builder().theta(0.5).build();
+    }
+
+    public double theta() {
+        return theta;
+    }
+
+    public double tolerance() {
+        return tolerance;
+    }
+
+    public int maxIterations() {
+        return maxIterations;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static final class Builder {
+
+        private double theta = 1;
+        private double tolerance = 1e-10;
+        private int maxIterations = 1000;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the weight of the new velocity in the viscous term, 1 for
+         * backward Euler (the default) and 0.5 for Crank-Nicolson.
+         *
+         * @param theta
+         * @return this
+         */
+        public Builder theta(double theta) {
+            if (theta < 0.5 || theta > 1)
+                throw new IllegalArgumentException("theta must be >=0.5 and <=1");
+            this.theta = theta;
+            return this;
+        }
+
+        /**
+         * Iteration stops when no velocity changes by more than
+         * <code>tolerance</code> (m/s). Defaults to 1e-10.
+         *
+         * @param tolerance
+         * @return this
+         */
+        public Builder tolerance(double tolerance) {
+            if (tolerance <= 0)
+                throw new IllegalArgumentException("tolerance must be >0");
+            this.tolerance = tolerance;
+            return this;
+        }
+
+        /**
+         * An exception is thrown if not converged after this many iterations.
+         * Defaults to 1000.
+         *
+         * @param maxIterations
+         * @return this
+         */
+        public Builder maxIterations(int maxIterations) {
+            if (maxIterations < 1)
+                throw new IllegalArgumentException("maxIterations must be 1 or more");
+            this.maxIterations = maxIterations;
+            return this;
+        }
+
+        public ImplicitDiffusion build() {
+            return new ImplicitDiffusion(theta, tolerance, maxIterations);
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.github.davidmoten.jns;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link Mesh} whose cells are created on demand and cached. Stepping is lazy
+ * in that a cell of the next generation is only computed when it is asked for.
+ */
+class LazyMesh implements Mesh {
+
+    private static Logger log = LoggerFactory.getLogger(LazyMesh.class);
+
+    private static final Solver SOLVER = new Solver();
+
+    private final double cellSizeEast;
+    private final double cellSizeNorth;
+    private final double cellSizeUp;
+
+    private final ConcurrentHashMap<Indices, Cell> cells = new ConcurrentHashMap<>();
+    private final Function<Indices, CellData> creator;
+
+    LazyMesh(Function<Indices, CellData> creator, double cellSizeEast, double cellSizeNorth,
+            double cellSizeUp) {
+        this.creator = creator;
+        this.cellSizeEast = cellSizeEast;
+        this.cellSizeNorth = cellSizeNorth;
+        this.cellSizeUp = cellSizeUp;
+    }
+
+    @Override
+    public Collection<Cell> cells() {
+        return cells.values();
+    }
+
+    @Override
+    public Cell cell(int indexEast, int indexNorth, int indexUp) {
+        final Indices indices = new Indices(indexEast, indexNorth, indexUp);
+        if (cells.get(indices) == null) {
+            final CellData cellData = creator.apply(indices);
+            cells.putIfAbsent(indices, new MeshCell(this, indexEast, indexNorth, indexUp, cellData));
+        }
+        return cells.get(indices);
+    }
+
+    @Override
+    public double cellSizeEast() {
+        return cellSizeEast;
+    }
+
+    @Override
+    public double cellSizeNorth() {
+        return cellSizeNorth;
+    }
+
+    @Override
+    public double cellSizeUp() {
+        return cellSizeUp;
+    }
+
+    @Override
+    public Mesh stepMultiple(double timeStepSeconds, long numberOfSteps) {
+        Mesh m = this;
+        for (int i = 0; i < numberOfSteps; i++) {
+            log.debug("step {}", i);
+            m = m.step(timeStepSeconds);
+        }
+        return m;
+    }
+
+    @Override
+    public Mesh step(double timeStepSeconds) {
+        return next(this, timeStepSeconds);
+    }
+
+    /**
+     * Returns the generation after <code>m</code> whose cells are only computed
+     * (and then cached) when asked for. The returned mesh holds a reference to
+     * <code>m</code> so a chain of lazy generations keeps every earlier
+     * generation reachable.
+     * 
+     * @param m
+     *            previous generation
+     * @param timeStepSeconds
+     * @return next generation
+     */
+    static LazyMesh next(Mesh m, double timeStepSeconds) {
+        return new LazyMesh(i -> new CellData() {
+            final AtomicReference<VelocityPressure> vp = new AtomicReference<VelocityPressure>();
+
+            @Override
+            public CellType type() {
+                return m.cell(i).type();
+            }
+
+            @Override
+            public Vector position() {
+                return m.cell(i).position();
+            }
+
+            @Override
+            public double pressure() {
+                return velocityPressure().getPressure();
+            }
+
+            @Override
+            public Vector velocity() {
+                return velocityPressure().getVelocity();
+            }
+
+            @Override
+            public double density() {
+                return m.cell(i).density();
+            }
+
+            @Override
+            public double viscosity() {
+                return m.cell(i).viscosity();
+            }
+
+            private VelocityPressure velocityPressure() {
+                // retrieve or if not present calculate, cache and return
+                if (vp.get() == null) {
+                    vp.compareAndSet(null, SOLVER.step(m.cell(i), timeStepSeconds));
+                }
+                return vp.get();
+            }
+
+            @Override
+            public boolean isBoundary() {
+                return m.cell(i).isBoundary();
+            }
+
+        }, m.cellSizeEast(), m.cellSizeNorth(), m.cellSizeUp());
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.davidmoten.jns;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link Fields} held in a memory mapped file rather than on the heap.
+ * 
+ * <p>
+ * The file is a sequence of slabs, one per horizontal layer of the grid. A
+ * slab holds the pressures then the east, north and up velocities of its
+ * cells and is padded to a whole number of pages so that every slab starts on
+ * a page boundary. Stepping a mesh visits slabs in order so the operating
+ * system only needs to keep the few slabs around the current one in memory.
+ * Because a mapping is limited to 2GB the file is mapped in chunks of whole
+ * slabs.
+ * 
+ * <p>
+ * Values of a new instance are zero rather than NaN.
+ */
+public final class MappedFields implements Fields {
+
+    static final int PAGE_SIZE = 4096;
+    private static final long MAX_CHUNK_BYTES = 1L << 30;
+    private static final int QUANTITIES = 4;
+
+    private final int size;
+    private final int slabSize;
+    // number of doubles from the start of one slab to the next
+    private final int slabStride;
+    private final int slabsPerChunk;
+    private final DoubleBuffer[] chunks;
+
+    /**
+     * Constructor.
+     * 
+     * @param directory
+     *            where to create the file
+     * @param size
+     *            number of cells
+     * @param slabSize
+     *            number of cells in a horizontal layer
+     */
+    public MappedFields(Path directory, int size, int slabSize) {
+        this(directory, size, slabSize, MAX_CHUNK_BYTES);
+    }
+
+    MappedFields(Path directory, int size, int slabSize, long maxChunkBytes) {
+        if (slabSize < 1 || size % slabSize != 0)
+            throw new IllegalArgumentException("size must be a multiple of slabSize");
+        this.size = size;
+        this.slabSize = slabSize;
+        final long slabBytes = pageAligned((long) QUANTITIES * slabSize * Double.BYTES);
+        if (slabBytes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("slab too large to map: " + slabBytes);
+        this.slabStride = (int) (slabBytes / Double.BYTES);
+        this.slabsPerChunk = (int) Math.max(1, maxChunkBytes / slabBytes);
+        final int slabs = size / slabSize;
+        final List<ByteBuffer> buffers = map(directory, slabBytes * slabs, slabsPerChunk
+                * slabBytes);
+        this.chunks = new DoubleBuffer[buffers.size()];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = buffers.get(i).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    static long pageAligned(long bytes) {
+        return (bytes + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+    }
+
+    static List<ByteBuffer> map(Path directory, int bytes) {
+        return map(directory, bytes, bytes);
+    }
+
+    /**
+     * Maps a new temporary file of <code>bytes</code> bytes in chunks of at
+     * most <code>chunkBytes</code>. The file is deleted once mapped.
+     */
+    private static List<ByteBuffer> map(Path directory, long bytes, long chunkBytes) {
+        try {
+            final Path file = Files.createTempFile(directory, "fields-", ".bin");
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                final List<ByteBuffer> list = new ArrayList<>();
+                for (long position = 0; position < Math.max(bytes, 1); position += chunkBytes)
+                    list.add(channel.map(MapMode.READ_WRITE, position,
+                            Math.min(chunkBytes, Math.max(bytes, 1) - position)));
+                return list;
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double pressure(int index) {
+        return get(index, 0);
+    }
+
+    @Override
+    public double velocityEast(int index) {
+        return get(index, 1);
+    }
+
+    @Override
+    public double velocityNorth(int index) {
+        return get(index, 2);
+    }
+
+    @Override
+    public double velocityUp(int index) {
+        return get(index, 3);
+    }
+
+    private double get(int index, int quantity) {
+        final int slab = index / slabSize;
+        return chunks[slab / slabsPerChunk].get(offset(slab, index) + quantity * slabSize);
+    }
+
+    private int offset(int slab, int index) {
+        return (slab % slabsPerChunk) * slabStride + index - slab * slabSize;
+    }
+
+    @Override
+    public void set(int index, double pressure, double velocityEast, double velocityNorth,
+            double velocityUp) {
+        final int slab = index / slabSize;
+        final DoubleBuffer chunk = chunks[slab / slabsPerChunk];
+        final int offset = offset(slab, index);
+        chunk.put(offset, pressure);
+        chunk.put(offset + slabSize, velocityEast);
+        chunk.put(offset + 2 * slabSize, velocityNorth);
+        chunk.put(offset + 3 * slabSize, velocityUp);
+    }
+
+    @Override
+    public void copyAll(Fields fields) {
+        if (fields instanceof MappedFields) {
+            final MappedFields from = (MappedFields) fields;
+            if (from.size == size && from.slabSize == slabSize
+                    && from.slabsPerChunk == slabsPerChunk) {
+                for (int i = 0; i < chunks.length; i++) {
+                    final DoubleBuffer target = chunks[i].duplicate();
+                    target.clear();
+                    final DoubleBuffer source = from.chunks[i].duplicate();
+                    source.clear();
+                    target.put(source);
+                }
+                return;
+            }
+        }
+        Fields.super.copyAll(fields);
+    }
+
+}
@@ -1,59 +1,82 @@
 package com.github.davidmoten.jns;
 
+import java.nio.file.Path;
 import java.util.Collection;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Optional;
 import java.util.function.Function;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+public interface Mesh {
 
-public class Mesh {
+    Cell cell(int indexEast, int indexNorth, int indexUp);
 
-    private static Logger log = LoggerFactory.getLogger(Mesh.class);
+    default Cell cell(Indices ind) {
+        return cell(ind.east(), ind.north(), ind.up());
+    }
 
-    private final double cellSizeEast;
-    private final double cellSizeNorth;
-    private final double cellSizeUp;
+    Collection<Cell> cells();
 
-    private final ConcurrentHashMap<Indices, Cell> cells = new ConcurrentHashMap<>();
-    private final Function<Indices, CellData> creator;
+    double cellSizeEast();
 
-    private Mesh(Function<Indices, CellData> creator, double cellSizeEast, double cellSizeNorth,
-            double cellSizeUp) {
-        this.creator = creator;
-        this.cellSizeEast = cellSizeEast;
-        this.cellSizeNorth = cellSizeNorth;
-        this.cellSizeUp = cellSizeUp;
-    }
+    double cellSizeNorth();
 
-    public Collection<Cell> cells() {
-        return cells.values();
-    }
+    double cellSizeUp();
 
-    public Cell cell(int indexEast, int indexNorth, int indexUp) {
-        final Indices indices = new Indices(indexEast, indexNorth, indexUp);
-        if (cells.get(indices) == null) {
-            final CellData cellData = creator.apply(indices);
-            cells.putIfAbsent(indices, new MeshCell(this, indexEast, indexNorth, indexUp, cellData));
-        }
-        return cells.get(indices);
+    Mesh step(double timeStepSeconds);
+
+    Mesh stepMultiple(double timeStepSeconds, long numberOfSteps);
+
+    /**
+     * Returns the next generation computing each cell only when it is asked
+     * for. Useful when the values at a few points after a few steps are wanted
+     * without computing the whole mesh. The returned mesh retains this mesh.
+     * 
+     * @param timeStepSeconds
+     * @return next generation
+     */
+    default Mesh stepLazily(double timeStepSeconds) {
+        return LazyMesh.next(this, timeStepSeconds);
     }
 
-    public Cell cell(Indices ind) {
-        return cell(ind.east(), ind.north(), ind.up());
+    /**
+     * Returns the values of <code>cells</code> after <code>steps</code> steps
+     * evaluating only the cells that they depend on (see {@link PointQuery}).
+     * 
+     * @param cells
+     * @param timeStepSeconds
+     * @param steps
+     * @return values of the requested cells
+     */
+    default PointQuery.Result query(Collection<Indices> cells, double timeStepSeconds,
+            int steps) {
+        return PointQuery.evaluate(this, cells, timeStepSeconds, steps);
     }
 
-    public static Builder builder() {
+    static Builder builder() {
         return new Builder();
     }
 
-    public static class Builder {
+    static class Builder {
 
         private Function<Indices, CellData> creator;
         private double cellSizeEast;
         private double cellSizeNorth;
         private double cellSizeUp;
+        private Optional<Integer> cellsEast = Optional.empty();
+        private Optional<Integer> cellsNorth = Optional.empty();
+        private Optional<Integer> cellsUp = Optional.empty();
+        private boolean dense = false;
+        private int parallelism = 1;
+        private Optional<PressureSolver> pressureSolver = Optional.empty();
+        private Optional<Refinement> refinement = Optional.empty();
+        private DenseStorage storage = DenseStorage.heap();
+        private Optional<Path> checkpoint = Optional.empty();
+        private Optional<Double> activeTolerance = Optional.empty();
+        private Optional<Metrics> metrics = Optional.empty();
+        private Validation validation = Validation.PER_OPERATION;
+        private Optional<ImplicitDiffusion> diffusion = Optional.empty();
+        private Advection advection = Advection.CENTRAL;
+        private TimeIntegrator integrator = TimeIntegrator.EULER;
+        private boolean rowKernels = false;
 
         private Builder() {
         }
@@ -63,6 +86,24 @@ public class Mesh {
             return this;
         }
 
+        /**
+         * Sets the creator and, unless already specified, takes the number of
+         * cells in each direction from it.
+         * 
+         * @param creator
+         * @return this
+         */
+        public Builder creator(CellCreator creator) {
+            this.creator = creator;
+            if (!cellsEast.isPresent())
+                cellsEast = Optional.of(creator.eastSize());
+            if (!cellsNorth.isPresent())
+                cellsNorth = Optional.of(creator.northSize());
+            if (!cellsUp.isPresent())
+                cellsUp = Optional.of(creator.upSize());
+            return this;
+        }
+
         public Builder cellSize(double cellSize) {
             this.cellSizeEast = cellSize;
             this.cellSizeNorth = cellSize;
@@ -85,81 +126,282 @@ public class Mesh {
             return this;
         }
 
-        public Mesh build() {
-            return new Mesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp);
+        public Builder cellsEast(int cellsEast) {
+            this.cellsEast = Optional.of(cellsEast);
+            return this;
         }
-    }
 
-    public double cellSizeEast() {
-        return cellSizeEast;
-    }
+        public Builder cellsNorth(int cellsNorth) {
+            this.cellsNorth = Optional.of(cellsNorth);
+            return this;
+        }
 
-    public double cellSizeNorth() {
-        return cellSizeNorth;
-    }
+        public Builder cellsUp(int cellsUp) {
+            this.cellsUp = Optional.of(cellsUp);
+            return this;
+        }
 
-    public double cellSizeUp() {
-        return cellSizeUp;
-    }
+        /**
+         * Stores the mesh in flat primitive arrays rather than creating cells
+         * on demand. The number of cells in each direction must be known
+         * (either set explicitly or taken from a {@link CellCreator}).
+         * 
+         * @return this
+         */
+        public Builder dense() {
+            this.dense = true;
+            return this;
+        }
 
-    public Mesh stepMultiple(double timeStepSeconds, long numberOfSteps) {
-        Mesh m = this;
-        for (int i = 0; i < numberOfSteps; i++) {
-            log.info("step " + i);
-            m = m.step(timeStepSeconds);
+        /**
+         * Sets the number of threads used to step a dense mesh. The result of
+         * a step does not depend on the parallelism. Defaults to 1.
+         * 
+         * @param parallelism
+         * @return this
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1)
+                throw new IllegalArgumentException("parallelism must be 1 or more");
+            this.parallelism = parallelism;
+            return this;
         }
-        return m;
-    }
 
-    public Mesh step(double timeStepSeconds) {
-        final Mesh m = this;
-        return new Mesh(i -> new CellData() {
-            final Solver solver = new Solver();
-            final AtomicReference<VelocityPressure> vp = new AtomicReference<VelocityPressure>();
+        /**
+         * Solves the pressure of all cells of a dense mesh together with
+         * <code>pressureSolver</code> (for example
+         * {@link ConjugateGradientPressureSolver}) after the velocities are
+         * stepped. By default the pressure of each cell is found separately
+         * with Newton's method.
+         * 
+         * @param pressureSolver
+         * @return this
+         */
+        public Builder pressureSolver(PressureSolver pressureSolver) {
+            if (pressureSolver == null)
+                throw new NullPointerException("pressureSolver must not be null");
+            this.pressureSolver = Optional.of(pressureSolver);
+            return this;
+        }
 
-            @Override
-            public CellType type() {
-                return m.cell(i).type();
-            }
+        /**
+         * Sets where the values of a dense mesh are stored, for example
+         * {@link DenseStorage#mapped(java.nio.file.Path)} for meshes larger
+         * than the heap. Defaults to {@link DenseStorage#heap()}.
+         * 
+         * @param storage
+         * @return this
+         */
+        public Builder storage(DenseStorage storage) {
+            if (storage == null)
+                throw new NullPointerException("storage must not be null");
+            this.storage = storage;
+            return this;
+        }
 
-            @Override
-            public Vector position() {
-                return m.cell(i).position();
-            }
+        /**
+         * Divides and merges cells between steps where the flow needs fine
+         * resolution (see {@link AdaptiveMesh}). The number of cells in each
+         * direction of the base grid must be known.
+         * 
+         * @param refinement
+         * @return this
+         */
+        public Builder adaptive(Refinement refinement) {
+            if (refinement == null)
+                throw new NullPointerException("refinement must not be null");
+            this.refinement = Optional.of(refinement);
+            return this;
+        }
 
-            @Override
-            public double pressure() {
-                return velocityPressure().getPressure();
-            }
+        /**
+         * Only recomputes the cells of a dense mesh near cells that changed
+         * in the previous step, so that still water costs nothing to step.
+         * A cell is treated as changed if its pressure or any component of
+         * its velocity changed by more than <code>tolerance</code>. With a
+         * tolerance of zero the result is the same as stepping every cell.
+         * Cannot be combined with a pressure solver.
+         * 
+         * @param tolerance
+         * @return this
+         */
+        public Builder activeSet(double tolerance) {
+            if (tolerance < 0)
+                throw new IllegalArgumentException("tolerance must be >=0");
+            this.activeTolerance = Optional.of(tolerance);
+            return this;
+        }
 
-            @Override
-            public Vector velocity() {
-                return velocityPressure().getVelocity();
-            }
+        /**
+         * Records timings, Newton iteration counts and failures of every step
+         * of a dense mesh to <code>metrics</code>.
+         * 
+         * @param metrics
+         * @return this
+         */
+        public Builder metrics(Metrics metrics) {
+            if (metrics == null)
+                throw new NullPointerException("metrics must not be null");
+            this.metrics = Optional.of(metrics);
+            return this;
+        }
 
-            @Override
-            public double density() {
-                return m.cell(i).density();
-            }
+        /**
+         * Sets when a dense mesh checks computed values for NaN and infinity.
+         * The default is {@link Validation#PER_OPERATION}. Other meshes always
+         * check per operation.
+         * 
+         * @param validation
+         * @return this
+         */
+        public Builder validation(Validation validation) {
+            if (validation == null)
+                throw new NullPointerException("validation must not be null");
+            this.validation = validation;
+            return this;
+        }
 
-            @Override
-            public double viscosity() {
-                return m.cell(i).viscosity();
-            }
+        /**
+         * Applies the viscous term of a dense mesh implicitly (see
+         * {@link ImplicitDiffusion}) so that viscosity does not limit the time
+         * step. Cannot be combined with an active set.
+         * 
+         * @param diffusion
+         * @return this
+         */
+        public Builder implicitDiffusion(ImplicitDiffusion diffusion) {
+            if (diffusion == null)
+                throw new NullPointerException("diffusion must not be null");
+            this.diffusion = Optional.of(diffusion);
+            return this;
+        }
 
-            private VelocityPressure velocityPressure() {
-                // retrieve or if not present calculate, cache and return
-                if (vp.get() == null) {
-                    vp.compareAndSet(null, solver.step(m.cell(i), timeStepSeconds));
-                }
-                return vp.get();
-            }
+        /**
+         * Sets how a dense mesh applies the convective term. The default is
+         * {@link Advection#CENTRAL}. {@link Advection#SEMI_LAGRANGIAN} cannot
+         * be combined with an active set.
+         * 
+         * @param advection
+         * @return this
+         */
+        public Builder advection(Advection advection) {
+            if (advection == null)
+                throw new NullPointerException("advection must not be null");
+            this.advection = advection;
+            return this;
+        }
 
-            @Override
-            public boolean isBoundary() {
-                return m.cell(i).isBoundary();
+        /**
+         * Sets how a dense mesh advances each generation in time. The default
+         * is {@link TimeIntegrator#EULER}. Other integrators cannot be
+         * combined with an active set.
+         * 
+         * @param integrator
+         * @return this
+         */
+        public Builder timeIntegrator(TimeIntegrator integrator) {
+            if (integrator == null)
+                throw new NullPointerException("integrator must not be null");
+            this.integrator = integrator;
+            return this;
+        }
+
+        /**
+         * Advances the velocities of a dense mesh stored on the heap a row at
+         * a time with loops over the arrays of a row that the JIT compiler can
+         * vectorise, then finds the pressure of each cell as usual. The result
+         * is identical to stepping a cell at a time. Cannot be combined with
+         * an active set.
+         * 
+         * @return this
+         */
+        public Builder rowKernels() {
+            this.rowKernels = true;
+            return this;
+        }
+
+        /**
+         * Restores a dense mesh from a file written by
+         * {@link Checkpoint#write(DenseMesh, double, Path)}. The cells, cell
+         * sizes and values come from the file and the parallelism, pressure
+         * solver and storage from this builder.
+         * 
+         * @param file
+         * @return this
+         */
+        public Builder checkpoint(Path file) {
+            if (file == null)
+                throw new NullPointerException("file must not be null");
+            this.checkpoint = Optional.of(file);
+            return this;
+        }
+
+        public Mesh build() {
+            if (checkpoint.isPresent()) {
+                if (refinement.isPresent())
+                    throw new IllegalArgumentException("a checkpoint restores a dense mesh");
+                return Checkpoint.read(checkpoint.get(), denseSettings());
+            }
+            if (refinement.isPresent()) {
+                if (dense)
+                    throw new IllegalArgumentException("an adaptive mesh cannot be dense");
+                final Optional<String> option = denseOption();
+                if (option.isPresent())
+                    throw new IllegalArgumentException(
+                            option.get() + " cannot be used with an adaptive mesh");
+                if (!cellsEast.isPresent() || !cellsNorth.isPresent() || !cellsUp.isPresent())
+                    throw new IllegalArgumentException(
+                            "cellsEast, cellsNorth and cellsUp must be set for an adaptive mesh");
+                return AdaptiveMesh.create(creator, cellsEast.get(), cellsNorth.get(),
+                        cellsUp.get(), cellSizeEast, cellSizeNorth, cellSizeUp,
+                        refinement.get());
             }
+            if (dense) {
+                if (!cellsEast.isPresent() || !cellsNorth.isPresent() || !cellsUp.isPresent())
+                    throw new IllegalArgumentException(
+                            "cellsEast, cellsNorth and cellsUp must be set for a dense mesh");
+                return DenseMesh.create(creator, cellsEast.get(), cellsNorth.get(),
+                        cellsUp.get(), cellSizeEast, cellSizeNorth, cellSizeUp,
+                        denseSettings());
+            }
+            final Optional<String> option = denseOption();
+            if (option.isPresent())
+                throw new IllegalArgumentException(option.get() + " requires a dense mesh");
+            return new LazyMesh(creator, cellSizeEast, cellSizeNorth, cellSizeUp);
+        }
 
-        }, cellSizeEast, cellSizeNorth, cellSizeUp);
+        private DenseSettings denseSettings() {
+            return DenseSettings.builder().executor(GridExecutor.create(parallelism))
+                    .pressureSolver(pressureSolver).storage(storage)
+                    .activeTolerance(activeTolerance).metrics(metrics).validation(validation)
+                    .diffusion(diffusion).advection(advection).integrator(integrator)
+                    .rowKernels(rowKernels).build();
+        }
+
+        /**
+         * Returns the name of the first option set that only a dense mesh
+         * supports.
+         */
+        private Optional<String> denseOption() {
+            if (pressureSolver.isPresent())
+                return Optional.of("pressureSolver");
+            else if (activeTolerance.isPresent())
+                return Optional.of("activeSet");
+            else if (metrics.isPresent())
+                return Optional.of("metrics");
+            else if (validation != Validation.PER_OPERATION)
+                return Optional.of("validation");
+            else if (diffusion.isPresent())
+                return Optional.of("implicitDiffusion");
+            else if (advection != Advection.CENTRAL)
+                return Optional.of("advection");
+            else if (integrator != TimeIntegrator.EULER)
+                return Optional.of("timeIntegrator");
+            else if (rowKernels)
+                return Optional.of("rowKernels");
+            else
+                return Optional.empty();
+        }
     }
+
 }
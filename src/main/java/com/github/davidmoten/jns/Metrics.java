@@ -0,0 +1,159 @@
+package com.github.davidmoten.jns;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects measurements of the steps of a mesh (see
+ * {@link Mesh.Builder#metrics(Metrics)}), keeps running totals that can be
+ * read through JMX (see {@link #register(String)}) and passes the
+ * measurements of each step to {@link StepListener}s. A mesh without metrics
+ * takes no measurements at all.
+ */
+public final class Metrics implements MetricsMXBean {
+
+    private final List<StepListener> listeners = new CopyOnWriteArrayList<>();
+
+    // guarded by this
+    private long steps;
+    private long failedSteps;
+    private long cellsEvaluated;
+    private long lastStepNanos;
+    private long totalStepNanos;
+    private long velocityNanos;
+    private long pressureNanos;
+    private long[] newtonIterations = new long[0];
+    private long nonConvergences;
+    private long negativePressureRejections;
+    private long pressureSolverIterations;
+
+    public Metrics addListener(StepListener listener) {
+        if (listener == null)
+            throw new NullPointerException("listener must not be null");
+        listeners.add(listener);
+        return this;
+    }
+
+    public Metrics removeListener(StepListener listener) {
+        listeners.remove(listener);
+        return this;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * <code>com.github.davidmoten.jns:type=Metrics,name=</code><i>name</i>.
+     *
+     * @param name
+     * @return the registered name
+     */
+    public ObjectName register(String name) {
+        try {
+            final ObjectName objectName = new ObjectName(
+                    "com.github.davidmoten.jns:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (final JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Unregisters a name returned by {@link #register(String)}.
+     *
+     * @param objectName
+     */
+    public static void unregister(ObjectName objectName) {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (final JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    void record(StepMetrics m) {
+        synchronized (this) {
+            steps++;
+            if (m.failed())
+                failedSteps++;
+            cellsEvaluated += m.cellsEvaluated();
+            lastStepNanos = m.wallNanos();
+            totalStepNanos += m.wallNanos();
+            velocityNanos += m.velocityNanos();
+            pressureNanos += m.pressureNanos();
+            final long[] h = m.newtonIterations();
+            if (h.length > newtonIterations.length)
+                newtonIterations = Arrays.copyOf(newtonIterations, h.length);
+            for (int i = 0; i < h.length; i++)
+                newtonIterations[i] += h[i];
+            nonConvergences += m.nonConvergences();
+            negativePressureRejections += m.negativePressureRejections();
+            pressureSolverIterations += m.pressureSolverIterations();
+        }
+        for (final StepListener listener : listeners)
+            listener.stepped(m);
+    }
+
+    @Override
+    public synchronized long getSteps() {
+        return steps;
+    }
+
+    @Override
+    public synchronized long getFailedSteps() {
+        return failedSteps;
+    }
+
+    @Override
+    public synchronized long getCellsEvaluated() {
+        return cellsEvaluated;
+    }
+
+    @Override
+    public synchronized double getLastStepMillis() {
+        return lastStepNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getTotalStepMillis() {
+        return totalStepNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getVelocityMillis() {
+        return velocityNanos / 1e6;
+    }
+
+    @Override
+    public synchronized double getPressureMillis() {
+        return pressureNanos / 1e6;
+    }
+
+    @Override
+    public synchronized long[] getNewtonIterationHistogram() {
+        return newtonIterations.clone();
+    }
+
+    @Override
+    public synchronized long getNonConvergences() {
+        return nonConvergences;
+    }
+
+    @Override
+    public synchronized long getNegativePressureRejections() {
+        return negativePressureRejections;
+    }
+
+    @Override
+    public synchronized long getPressureSolverIterations() {
+        return pressureSolverIterations;
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Totals over all steps recorded by {@link Metrics}, exposed through JMX.
+ */
+public interface MetricsMXBean {
+
+    long getSteps();
+
+    long getFailedSteps();
+
+    long getCellsEvaluated();
+
+    double getLastStepMillis();
+
+    double getTotalStepMillis();
+
+    double getVelocityMillis();
+
+    double getPressureMillis();
+
+    /**
+     * Returns the number of cell pressure solves that took each number of
+     * Newton iterations (the index).
+     * 
+     * @return histogram
+     */
+    long[] getNewtonIterationHistogram();
+
+    long getNonConvergences();
+
+    long getNegativePressureRejections();
+
+    long getPressureSolverIterations();
+}
@@ -0,0 +1,367 @@
+package com.github.davidmoten.jns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Solves a {@link PoissonSystem} with geometric multigrid cycles so that the
+ * cost of a solve grows linearly with the number of cells.
+ *
+ * <p>
+ * Each coarser level merges blocks of two cells in each direction of the grid
+ * (directions with a single cell are not coarsened). Restriction sums the
+ * residuals of the cells of a block, prolongation adds the correction of a
+ * block to each of its cells (scaled to minimise the error in the energy norm)
+ * and the coarse operator is the sum of the
+ * entries of the fine operator over each pair of blocks (Galerkin). Because
+ * the coarse operator is built from the fine one, obstacle and unknown cells
+ * (mirrors) and fixed pressure cells are represented on every level without
+ * special treatment. Levels are smoothed with red-black Gauss-Seidel sweeps.
+ */
+public final class MultigridPressureSolver implements PressureSolver {
+
+    public static enum Cycle {
+        /**
+         * Visits each coarser level once per cycle.
+         */
+        V(1),
+        /**
+         * Visits each coarser level twice per cycle, more robust than V at
+         * about twice the cost on the coarse levels.
+         */
+        W(2);
+
+        private final int visits;
+
+        private Cycle(int visits) {
+            this.visits = visits;
+        }
+    }
+
+    private static final double DEFAULT_TOLERANCE = 1e-10;
+    private static final int DEFAULT_MAX_CYCLES = 200;
+    private static final int SMOOTHING_SWEEPS = 2;
+    private static final int COARSEST_SIZE = 64;
+
+    private final Cycle cycle;
+    private final double tolerance;
+    private final int maxCycles;
+
+    // levels of the most recently solved system, rebuilt if the system
+    // changes
+    private volatile Hierarchy hierarchy;
+
+    /**
+     * Constructor.
+     *
+     * @param cycle
+     *            V or W
+     * @param tolerance
+     *            cycles stop when no residual is larger than
+     *            <code>tolerance</code> times the largest term of the system
+     * @param maxCycles
+     *            an exception is thrown if not converged after this many
+     *            cycles
+     */
+    public MultigridPressureSolver(Cycle cycle, double tolerance, int maxCycles) {
+        if (cycle == null)
+            throw new NullPointerException("cycle must not be null");
+        if (tolerance <= 0)
+            throw new IllegalArgumentException("tolerance must be >0");
+        if (maxCycles < 1)
+            throw new IllegalArgumentException("maxCycles must be 1 or more");
+        this.cycle = cycle;
+        this.tolerance = tolerance;
+        this.maxCycles = maxCycles;
+    }
+
+    public MultigridPressureSolver(Cycle cycle) {
+        this(cycle, DEFAULT_TOLERANCE, DEFAULT_MAX_CYCLES);
+    }
+
+    public MultigridPressureSolver() {
+        this(Cycle.V);
+    }
+
+    @Override
+    public int solve(PoissonSystem system, Fields fields) {
+        final List<Level> levels = levels(system);
+        final Level fine = levels.get(0);
+        final Vectors[] v = new Vectors[levels.size()];
+        for (int l = 0; l < levels.size(); l++)
+            v[l] = new Vectors(levels.get(l).size);
+        final double[] x = v[0].x;
+        final double[] b = v[0].b;
+        final double[] r = v[0].r;
+        system.read(fields, x);
+        system.rightHandSide(fields, b);
+        double scale = max(b);
+        for (int u = 0; u < fine.size; u++)
+            scale = Math.max(scale, Math.abs(fine.diagonal[u] * x[u]));
+        final double limit = tolerance * scale;
+        int cycles = 0;
+        fine.residual(x, b, r);
+        while (max(r) > limit) {
+            if (cycles == maxCycles)
+                return Util.unexpected("pressure did not converge after " + cycles
+                        + " cycles, residual=" + max(r));
+            cycles++;
+            cycle(levels, 0, v);
+            fine.residual(x, b, r);
+        }
+        system.write(x, fields);
+        return cycles;
+    }
+
+    private void cycle(List<Level> levels, int l, Vectors[] v) {
+        final Level level = levels.get(l);
+        final Vectors fine = v[l];
+        if (l == levels.size() - 1) {
+            level.smooth(fine.x, fine.b, Math.max(50, 2 * level.size));
+            return;
+        }
+        final Vectors coarse = v[l + 1];
+        level.smooth(fine.x, fine.b, SMOOTHING_SWEEPS);
+        level.residual(fine.x, fine.b, fine.r);
+        Arrays.fill(coarse.b, 0);
+        Arrays.fill(coarse.x, 0);
+        for (int u = 0; u < level.size; u++)
+            coarse.b[level.parent[u]] += fine.r[u];
+        for (int visit = 0; visit < cycle.visits; visit++)
+            cycle(levels, l + 1, v);
+        // piecewise constant prolongation underestimates smooth errors so
+        // scale the correction to minimise the error in the energy norm
+        for (int u = 0; u < level.size; u++)
+            fine.e[u] = coarse.x[level.parent[u]];
+        level.multiply(fine.e, fine.ae);
+        double numerator = 0;
+        double denominator = 0;
+        for (int u = 0; u < level.size; u++) {
+            numerator += fine.e[u] * fine.r[u];
+            denominator += fine.e[u] * fine.ae[u];
+        }
+        final double alpha = denominator > 0 ? numerator / denominator : 1;
+        for (int u = 0; u < level.size; u++)
+            fine.x[u] += alpha * fine.e[u];
+        level.smooth(fine.x, fine.b, SMOOTHING_SWEEPS);
+    }
+
+    private List<Level> levels(PoissonSystem system) {
+        final Hierarchy h = hierarchy;
+        if (h != null && h.system == system)
+            return h.levels;
+        final List<Level> list = new ArrayList<>();
+        Level level = Level.from(system);
+        list.add(level);
+        while (level.size > COARSEST_SIZE) {
+            final Level coarse = level.coarsen();
+            if (coarse.size == level.size)
+                break;
+            list.add(coarse);
+            level = coarse;
+        }
+        hierarchy = new Hierarchy(system, list);
+        return list;
+    }
+
+    private static double max(double[] a) {
+        double max = 0;
+        for (final double value : a)
+            max = Math.max(max, Math.abs(value));
+        return max;
+    }
+
+    /**
+     * Work vectors for one level.
+     */
+    private static final class Vectors {
+        final double[] x;
+        final double[] b;
+        final double[] r;
+        final double[] e;
+        final double[] ae;
+
+        Vectors(int size) {
+            this.x = new double[size];
+            this.b = new double[size];
+            this.r = new double[size];
+            this.e = new double[size];
+            this.ae = new double[size];
+        }
+    }
+
+    private static final class Hierarchy {
+        final PoissonSystem system;
+        final List<Level> levels;
+
+        Hierarchy(PoissonSystem system, List<Level> levels) {
+            this.system = system;
+            this.levels = levels;
+        }
+    }
+
+    /**
+     * The operator on one level in the same form as {@link PoissonSystem}
+     * together with the position of each unknown in the level's box of cells.
+     */
+    static final class Level {
+
+        private static final int NONE = -1;
+        private static final int N = PoissonSystem.NEIGHBOURS;
+
+        final int size;
+        final int cellsEast;
+        final int cellsNorth;
+        final int cellsUp;
+        final int[] east;
+        final int[] north;
+        final int[] up;
+        final int[] neighbours;
+        final double[] weights;
+        final double[] diagonal;
+        // the part of the diagonal from faces with fixed pressure cells
+        final double[] fixed;
+        // unknown on the next coarser level of each unknown
+        int[] parent;
+
+        private Level(int size, int cellsEast, int cellsNorth, int cellsUp) {
+            this.size = size;
+            this.cellsEast = cellsEast;
+            this.cellsNorth = cellsNorth;
+            this.cellsUp = cellsUp;
+            this.east = new int[size];
+            this.north = new int[size];
+            this.up = new int[size];
+            this.neighbours = new int[size * N];
+            this.weights = new double[size * N];
+            this.diagonal = new double[size];
+            this.fixed = new double[size];
+        }
+
+        static Level from(PoissonSystem system) {
+            final Grid grid = system.grid();
+            final Level level = new Level(system.size(), grid.cellsEast(), grid.cellsNorth(),
+                    grid.cellsUp());
+            for (int u = 0; u < level.size; u++) {
+                final int index = system.index(u);
+                level.east[u] = grid.indexEast(index);
+                level.north[u] = grid.indexNorth(index);
+                level.up[u] = grid.indexUp(index);
+                level.diagonal[u] = system.diagonal(u);
+                double connected = 0;
+                for (int m = 0; m < N; m++) {
+                    level.neighbours[u * N + m] = system.neighbour(u, m);
+                    level.weights[u * N + m] = system.weight(u, m);
+                    if (system.neighbour(u, m) != NONE)
+                        connected += system.weight(u, m);
+                }
+                level.fixed[u] = level.diagonal[u] - connected;
+            }
+            return level;
+        }
+
+        Level coarsen() {
+            final int ce = coarser(cellsEast);
+            final int cn = coarser(cellsNorth);
+            final int cu = coarser(cellsUp);
+            final int[] numbers = new int[Grid.size(ce, cn, cu)];
+            Arrays.fill(numbers, NONE);
+            for (int u = 0; u < size; u++)
+                numbers[key(u, ce, cn)] = 0;
+            // number blocks in index order so results don't depend on the
+            // order of the fine unknowns
+            int count = 0;
+            for (int k = 0; k < numbers.length; k++)
+                if (numbers[k] != NONE)
+                    numbers[k] = count++;
+            final Level coarse = new Level(count, ce, cn, cu);
+            Arrays.fill(coarse.neighbours, NONE);
+            parent = new int[size];
+            for (int u = 0; u < size; u++) {
+                final int c = numbers[key(u, ce, cn)];
+                parent[u] = c;
+                coarse.east[c] = east[u] / (cellsEast > 1 ? 2 : 1);
+                coarse.north[c] = north[u] / (cellsNorth > 1 ? 2 : 1);
+                coarse.up[c] = up[u] / (cellsUp > 1 ? 2 : 1);
+            }
+            // faces inside a block cancel so the coarse diagonal is the sum
+            // of the faces leaving the block, built up without cancellation so
+            // that a block with no faces leaving it has a diagonal of exactly
+            // zero
+            for (int u = 0; u < size; u++) {
+                final int c = parent[u];
+                coarse.fixed[c] += fixed[u];
+                for (int m = 0; m < N; m++) {
+                    final int v = neighbours[u * N + m];
+                    if (v != NONE && parent[v] != c) {
+                        coarse.neighbours[c * N + m] = parent[v];
+                        coarse.weights[c * N + m] += weights[u * N + m];
+                    }
+                }
+            }
+            for (int c = 0; c < coarse.size; c++) {
+                double sum = coarse.fixed[c];
+                for (int m = 0; m < N; m++)
+                    sum += coarse.weights[c * N + m];
+                coarse.diagonal[c] = sum;
+            }
+            return coarse;
+        }
+
+        private static int coarser(int cells) {
+            return cells > 1 ? (cells + 1) / 2 : 1;
+        }
+
+        private int key(int u, int ce, int cn) {
+            final int e = cellsEast > 1 ? east[u] / 2 : east[u];
+            final int n = cellsNorth > 1 ? north[u] / 2 : north[u];
+            final int v = cellsUp > 1 ? up[u] / 2 : up[u];
+            return e + ce * (n + cn * v);
+        }
+
+        /**
+         * Red-black Gauss-Seidel. Cells of one colour only have neighbours of
+         * the other colour so each half sweep could run in any order.
+         */
+        void smooth(double[] x, double[] b, int sweeps) {
+            for (int sweep = 0; sweep < sweeps; sweep++)
+                for (int colour = 0; colour < 2; colour++)
+                    for (int u = 0; u < size; u++) {
+                        if (((east[u] + north[u] + up[u]) & 1) != colour)
+                            continue;
+                        // a block with no connections outside it only occurs
+                        // on a coarse level of a singular system where its
+                        // right hand side is zero
+                        if (diagonal[u] == 0)
+                            continue;
+                        double sum = b[u];
+                        for (int m = 0; m < N; m++) {
+                            final int v = neighbours[u * N + m];
+                            if (v != NONE)
+                                sum += weights[u * N + m] * x[v];
+                        }
+                        x[u] = sum / diagonal[u];
+                    }
+        }
+
+        void multiply(double[] x, double[] out) {
+            for (int u = 0; u < size; u++) {
+                double sum = diagonal[u] * x[u];
+                for (int m = 0; m < N; m++) {
+                    final int v = neighbours[u * N + m];
+                    if (v != NONE)
+                        sum -= weights[u * N + m] * x[v];
+                }
+                out[u] = sum;
+            }
+        }
+
+        void residual(double[] x, double[] b, double[] r) {
+            multiply(x, r);
+            for (int u = 0; u < size; u++)
+                r[u] = b[u] - r[u];
+        }
+    }
+
+}
@@ -1,24 +1,18 @@
 package com.github.davidmoten.jns;
 
 import java.util.Optional;
+import java.util.function.DoubleUnaryOperator;
 import java.util.function.Function;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 public class NewtonsMethod {
 
-    private static final Logger log = LoggerFactory.getLogger(NewtonsMethod.class);
-
     public static Optional<Double> solve(Function<Double, Double> f, double initialValue,
             double delta, double precision, int maxIterations) {
         double x = initialValue;
         checkParameters(f, delta, precision, maxIterations);
         double fx = f.apply(x);
         int i = 1;
-        log.debug("x={}, fx={}", x, fx);
         while (Math.abs(fx) > precision && i <= maxIterations) {
-            log.debug("x={}, fx={}", x, fx);
             final double gradient = (f.apply(x + delta) - fx) / delta;
             if (gradient == 0)
                 return Optional.empty();
@@ -33,7 +27,39 @@ public class NewtonsMethod {
             return Optional.empty();
     }
 
-    private static void checkParameters(Function<Double, Double> f, double h, double precision,
+    /**
+     * As {@link #solve(Function, double, double, double, int)} but without
+     * boxing and returning {@link Double#NaN} if a root could not be found.
+     * 
+     * @param f
+     * @param initialValue
+     * @param delta
+     * @param precision
+     * @param maxIterations
+     * @return root or NaN
+     */
+    public static double solveAsDouble(DoubleUnaryOperator f, double initialValue, double delta,
+            double precision, int maxIterations) {
+        checkParameters(f, delta, precision, maxIterations);
+        double x = initialValue;
+        double fx = f.applyAsDouble(x);
+        int i = 1;
+        while (Math.abs(fx) > precision && i <= maxIterations) {
+            final double gradient = (f.applyAsDouble(x + delta) - fx) / delta;
+            if (gradient == 0)
+                return Double.NaN;
+            else
+                x = x - fx / gradient;
+            fx = f.applyAsDouble(x);
+            i++;
+        }
+        if (Math.abs(fx) <= precision)
+            return x;
+        else
+            return Double.NaN;
+    }
+
+    private static void checkParameters(Object f, double h, double precision,
             int maxIterations) {
         if (f == null)
             throw new NullPointerException("f must not be null");
@@ -0,0 +1,68 @@
+package com.github.davidmoten.jns;
+
+import java.util.EnumMap;
+import java.util.Optional;
+
+/**
+ * The three dimensional version of {@link QuadTree}.
+ *
+ * @param <T>
+ *            value type
+ */
+public final class OctTree<T> implements RegionTree<T> {
+
+    private final Optional<T> value;
+    private final Optional<EnumMap<Position, OctTree<T>>> children;
+
+    public static enum Position {
+        DOWN_SW, DOWN_SE, DOWN_NW, DOWN_NE, UP_SW, UP_SE, UP_NW, UP_NE;
+
+        private static final Position[] VALUES = values();
+
+        /**
+         * Returns the position of the lower (0) or upper (1) half in each
+         * direction.
+         * 
+         * @param east
+         * @param north
+         * @param up
+         * @return position
+         */
+        public static Position of(int east, int north, int up) {
+            return VALUES[east + 2 * north + 4 * up];
+        }
+    }
+
+    private OctTree(Optional<T> value, Optional<EnumMap<Position, OctTree<T>>> children) {
+        this.value = value;
+        this.children = children;
+    }
+
+    public OctTree(T value) {
+        this(Optional.of(value), Optional.empty());
+    }
+
+    public OctTree(EnumMap<Position, OctTree<T>> children) {
+        this(Optional.empty(), Optional.of(children));
+    }
+
+    @Override
+    public boolean hasChildren() {
+        return children.isPresent();
+    }
+
+    public OctTree<T> child(Position position) {
+        return children.get().get(position);
+    }
+
+    @Override
+    public OctTree<T> child(int east, int north, int up) {
+        return child(Position.of(east, north, up));
+    }
+
+    @Override
+    public T value() {
+        return value.get();
+    }
+
+}
@@ -0,0 +1,313 @@
+package com.github.davidmoten.jns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+
+/**
+ * Computes the values of a few cells some steps ahead without stepping the
+ * whole mesh. Only the cells in the dependency cone of the requested cells are
+ * evaluated: the value of a fluid cell after a step depends on the cells up to
+ * {@link #REACH} cells away along each axis (see {@link Solver}) while obstacle,
+ * unknown and boundary cells never change. The cone is evaluated a generation
+ * at a time starting from <code>mesh</code> and each generation is released
+ * once the next one has been computed. The cells of each generation are
+ * picked out when it is evaluated from the distance of every cone cell to the
+ * requested cells, so only that one map is held for the whole cone. Results
+ * are the same as for {@link Mesh#stepLazily(double)}.
+ *
+ * <p>
+ * Cells are stepped with {@link Solver} so the mesh must step each cell in the
+ * same way: an {@link AdaptiveMesh} (whose cells vary in size) or a
+ * {@link DenseMesh} with a pressure solver, implicit diffusion,
+ * semi-Lagrangian advection or a multistage time integrator is rejected.
+ */
+public final class PointQuery {
+
+    static final int REACH = 2;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final Solver SOLVER = new Solver();
+
+    private PointQuery() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the values of <code>cells</code> after <code>steps</code> steps
+     * of <code>mesh</code>.
+     *
+     * @param mesh
+     *            the first generation
+     * @param cells
+     *            requested cells
+     * @param timeStepSeconds
+     * @param steps
+     * @param maxCells
+     *            an {@link IllegalArgumentException} is thrown if the
+     *            dependency cone needs more than this many cell values to be
+     *            held at once (in which case stepping the whole mesh is
+     *            likely to be cheaper)
+     * @param metrics
+     *            the measurements of each generation are recorded to it as a
+     *            step
+     * @return values of the requested cells and the number of cells evaluated
+     */
+    public static Result evaluate(Mesh mesh, Collection<Indices> cells, double timeStepSeconds,
+            int steps, int maxCells, Metrics metrics) {
+        if (metrics == null)
+            throw new NullPointerException("metrics must not be null");
+        return evaluate(mesh, cells, timeStepSeconds, steps, maxCells, Optional.of(metrics));
+    }
+
+    /**
+     * As {@link #evaluate(Mesh, Collection, double, int, int, Metrics)}
+     * without metrics.
+     */
+    public static Result evaluate(Mesh mesh, Collection<Indices> cells, double timeStepSeconds,
+            int steps, int maxCells) {
+        return evaluate(mesh, cells, timeStepSeconds, steps, maxCells, Optional.empty());
+    }
+
+    private static Result evaluate(Mesh mesh, Collection<Indices> cells, double timeStepSeconds,
+            int steps, int maxCells, Optional<Metrics> metrics) {
+        if (steps < 0)
+            throw new IllegalArgumentException("steps must be >=0");
+        if (mesh instanceof AdaptiveMesh)
+            throw new IllegalArgumentException("an adaptive mesh cannot be queried");
+        if (mesh instanceof DenseMesh && !((DenseMesh) mesh).stepsCellsIndependently())
+            throw new IllegalArgumentException("a query requires a mesh without a pressure "
+                    + "solver, implicit diffusion, semi-Lagrangian advection or a multistage "
+                    + "time integrator");
+        // generation k must evaluate the cells within steps - k reaches
+        final Map<Indices, Integer> distances = distances(mesh, cells, steps, maxCells);
+        final int[] coneSizes = coneSizes(distances, steps, maxCells);
+        long evaluated = 0;
+        Mesh previous = mesh;
+        for (int k = 1; k <= steps; k++) {
+            final StepRecorder recorder = metrics.isPresent()
+                    ? new StepRecorder(Solver.PRESSURE_MAX_ITERATIONS) : null;
+            final Map<Indices, CellData> next = new HashMap<>(coneSizes[k] * 2);
+            boolean failed = true;
+            try {
+                for (final Entry<Indices, Integer> entry : distances.entrySet()) {
+                    if (entry.getValue() <= steps - k) {
+                        final Indices i = entry.getKey();
+                        final Cell cell = previous.cell(i);
+                        next.put(i, new Snapshot(cell,
+                                SOLVER.step(cell, timeStepSeconds, recorder)));
+                        evaluated++;
+                    }
+                }
+                failed = false;
+            } finally {
+                if (recorder != null)
+                    metrics.get().record(recorder.finish(failed));
+            }
+            // generation k - 1 is no longer referenced
+            previous = view(mesh, next);
+        }
+        final Map<Indices, CellData> result = new HashMap<>();
+        for (final Indices i : cells)
+            result.put(i, previous.cell(i));
+        return new Result(result, evaluated);
+    }
+
+    /**
+     * As {@link #evaluate(Mesh, Collection, double, int, int)} without a limit
+     * on the size of the dependency cone.
+     */
+    public static Result evaluate(Mesh mesh, Collection<Indices> cells, double timeStepSeconds,
+            int steps) {
+        return evaluate(mesh, cells, timeStepSeconds, steps, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the number of stencil reaches from the requested cells to each
+     * changing cell within <code>steps - 1</code> reaches. Only paths through
+     * changing cells are followed.
+     */
+    private static Map<Indices, Integer> distances(Mesh mesh, Collection<Indices> cells,
+            int steps, int maxCells) {
+        final Map<Indices, Integer> distances = new LinkedHashMap<>();
+        if (steps == 0)
+            return distances;
+        List<Indices> frontier = new ArrayList<>();
+        for (final Indices i : cells)
+            if (!distances.containsKey(i) && changes(mesh, i)) {
+                distances.put(i, 0);
+                frontier.add(i);
+            }
+        checkMaxCells(distances.size(), maxCells);
+        for (int d = 1; d < steps; d++) {
+            final List<Indices> next = new ArrayList<>();
+            for (final Indices i : frontier)
+                for (final Indices j : stencil(i))
+                    if (!distances.containsKey(j) && changes(mesh, j)) {
+                        distances.put(j, d);
+                        next.add(j);
+                    }
+            // the whole map is evaluated in the first generation
+            checkMaxCells(distances.size(), maxCells);
+            frontier = next;
+        }
+        return distances;
+    }
+
+    /**
+     * Returns the number of cells evaluated in each generation (indexed from 1)
+     * after checking that no two consecutive generations hold more than
+     * <code>maxCells</code> values.
+     */
+    private static int[] coneSizes(Map<Indices, Integer> distances, int steps, int maxCells) {
+        final int[] sizes = new int[steps + 1];
+        for (final int d : distances.values())
+            sizes[steps - d]++;
+        // generation k evaluates the cells within steps - k reaches
+        for (int k = steps - 1; k >= 1; k--)
+            sizes[k] += sizes[k + 1];
+        for (int k = 1; k <= steps; k++)
+            // generation 0 is the mesh itself
+            checkMaxCells(sizes[k] + (k == 1 ? 0 : sizes[k - 1]), maxCells);
+        return sizes;
+    }
+
+    private static void checkMaxCells(int cells, int maxCells) {
+        if (cells > maxCells)
+            throw new IllegalArgumentException("dependency cone needs at least " + cells
+                    + " cells which is more than maxCells=" + maxCells);
+    }
+
+    private static List<Indices> stencil(Indices i) {
+        final List<Indices> list = new ArrayList<>(1 + 2 * REACH * DIRECTIONS.length);
+        list.add(i);
+        for (int r = 1; r <= REACH; r++) {
+            list.add(new Indices(i.east() - r, i.north(), i.up()));
+            list.add(new Indices(i.east() + r, i.north(), i.up()));
+            list.add(new Indices(i.east(), i.north() - r, i.up()));
+            list.add(new Indices(i.east(), i.north() + r, i.up()));
+            list.add(new Indices(i.east(), i.north(), i.up() - r));
+            list.add(new Indices(i.east(), i.north(), i.up() + r));
+        }
+        return list;
+    }
+
+    private static boolean changes(Mesh mesh, Indices i) {
+        final Cell cell = mesh.cell(i);
+        return cell.type() == CellType.FLUID && !cell.isBoundary();
+    }
+
+    /**
+     * Returns a generation with the values of the evaluated cells and the
+     * unchanging values of <code>mesh</code> for the others.
+     */
+    private static Mesh view(Mesh mesh, Map<Indices, CellData> values) {
+        return new LazyMesh(i -> {
+            final CellData c = values.get(i);
+            if (c != null)
+                return c;
+            else if (changes(mesh, i))
+                return Util.unexpected("cell outside of dependency cone: " + i);
+            else
+                return mesh.cell(i);
+        }, mesh.cellSizeEast(), mesh.cellSizeNorth(), mesh.cellSizeUp());
+    }
+
+    /**
+     * The values of the requested cells.
+     */
+    public static final class Result {
+
+        private final Map<Indices, CellData> cells;
+        private final long evaluatedCells;
+
+        Result(Map<Indices, CellData> cells, long evaluatedCells) {
+            this.cells = cells;
+            this.evaluatedCells = evaluatedCells;
+        }
+
+        /**
+         * Returns the values of a requested cell.
+         *
+         * @param indices
+         * @return values
+         */
+        public CellData cell(Indices indices) {
+            final CellData c = cells.get(indices);
+            if (c == null)
+                throw new IllegalArgumentException("cell was not requested: " + indices);
+            return c;
+        }
+
+        /**
+         * Returns the number of cells stepped over all generations to compute
+         * the requested cells.
+         *
+         * @return number of cells evaluated
+         */
+        public long evaluatedCells() {
+            return evaluatedCells;
+        }
+    }
+
+    private static final class Snapshot implements CellData {
+
+        private final CellType type;
+        private final Vector position;
+        private final double density;
+        private final double viscosity;
+        private final boolean isBoundary;
+        private final VelocityPressure vp;
+
+        Snapshot(Cell cell, VelocityPressure vp) {
+            this.type = cell.type();
+            this.position = cell.position();
+            this.density = cell.density();
+            this.viscosity = cell.viscosity();
+            this.isBoundary = cell.isBoundary();
+            this.vp = vp;
+        }
+
+        @Override
+        public CellType type() {
+            return type;
+        }
+
+        @Override
+        public Vector position() {
+            return position;
+        }
+
+        @Override
+        public double pressure() {
+            return vp.getPressure();
+        }
+
+        @Override
+        public Vector velocity() {
+            return vp.getVelocity();
+        }
+
+        @Override
+        public double density() {
+            return density;
+        }
+
+        @Override
+        public double viscosity() {
+            return viscosity;
+        }
+
+        @Override
+        public boolean isBoundary() {
+            return isBoundary;
+        }
+    }
+
+}
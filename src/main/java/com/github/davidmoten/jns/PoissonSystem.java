@@ -0,0 +1,270 @@
+package com.github.davidmoten.jns;
+
+import java.util.Arrays;
+
+/**
+ * The discrete pressure Poisson equation <code>A p = b</code> over the fluid
+ * cells of a {@link Grid}, assembled once from the cell types.
+ * 
+ * <p>
+ * The unknowns are the interior fluid cells that are not boundary cells. The
+ * pressure of a fluid boundary cell or a fluid halo cell is fixed (Dirichlet)
+ * and an obstacle or unknown neighbour is a hydrostatic mirror of the centre
+ * cell (Neumann) as {@link Solver} treats obstacles. Each face between two
+ * cells <code>d</code> apart has weight <code>1/(2d)<sup>2</sup></code>, which
+ * matches the second derivative used by {@link Solver} on a regular grid and
+ * makes <code>A</code> symmetric and positive (semi) definite.
+ * 
+ * <p>
+ * Unlike {@link Solver} which takes a one sided derivative at a free surface,
+ * an unknown neighbour is mirrored so that the operator stays symmetric. The
+ * velocity source term <code>b</code> is the same as {@link Solver}'s but uses
+ * the new velocity of every cell rather than of the centre cell only.
+ */
+public final class PoissonSystem {
+
+    private static final int NONE = -1;
+    static final int NEIGHBOURS = 6;
+
+    private final DenseSolver solver;
+    private final Grid grid;
+    // grid index of each unknown
+    private final int[] unknowns;
+    // unknown number of each grid index or NONE
+    private final int[] numbers;
+    // unknown numbers of the neighbours of each unknown or NONE
+    private final int[] neighbours;
+    private final double[] weights;
+    private final double[] diagonal;
+    // contribution of the hydrostatic mirrors to b
+    private final double[] constant;
+    private final int[] dirichletUnknown;
+    private final int[] dirichletIndex;
+    private final double[] dirichletWeight;
+
+    PoissonSystem(DenseSolver solver) {
+        this.solver = solver;
+        this.grid = solver.grid();
+        this.numbers = new int[grid.size()];
+        Arrays.fill(numbers, NONE);
+        int count = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (isUnknown(i))
+                numbers[i] = count++;
+        this.unknowns = new int[count];
+        this.neighbours = new int[count * NEIGHBOURS];
+        this.weights = new double[count * NEIGHBOURS];
+        this.diagonal = new double[count];
+        this.constant = new double[count];
+        final int[] dUnknown = new int[count * NEIGHBOURS];
+        final int[] dIndex = new int[count * NEIGHBOURS];
+        final double[] dWeight = new double[count * NEIGHBOURS];
+        int dCount = 0;
+        final Direction[] directions = Direction.values();
+        for (int i = 0; i < grid.size(); i++) {
+            final int u = numbers[i];
+            if (u == NONE)
+                continue;
+            unknowns[u] = i;
+            for (int m = 0; m < NEIGHBOURS; m++) {
+                final Direction d = directions[m / 2];
+                final int j = m % 2 == 0 ? i - grid.stride(d) : i + grid.stride(d);
+                final double distance = grid.position(j, d) - grid.position(i, d);
+                final double w = 1 / (4 * distance * distance);
+                neighbours[u * NEIGHBOURS + m] = numbers[j];
+                if (numbers[j] != NONE) {
+                    weights[u * NEIGHBOURS + m] = w;
+                    diagonal[u] += w;
+                } else if (grid.isFluid(j)) {
+                    diagonal[u] += w;
+                    dUnknown[dCount] = u;
+                    dIndex[dCount] = j;
+                    dWeight[dCount] = w;
+                    dCount++;
+                } else
+                    constant[u] += w * solver.mirrorOffset(i, j);
+            }
+        }
+        this.dirichletUnknown = Arrays.copyOf(dUnknown, dCount);
+        this.dirichletIndex = Arrays.copyOf(dIndex, dCount);
+        this.dirichletWeight = Arrays.copyOf(dWeight, dCount);
+    }
+
+    private boolean isUnknown(int i) {
+        if (!grid.isInterior(i) || !grid.isFluid(i) || grid.isBoundary(i))
+            return false;
+        // a cell without fluid neighbours keeps its pressure
+        for (final Direction d : Direction.values())
+            if (grid.isFluid(i - grid.stride(d)) || grid.isFluid(i + grid.stride(d)))
+                return true;
+        return false;
+    }
+
+    public Grid grid() {
+        return grid;
+    }
+
+    /**
+     * Returns the number of unknowns.
+     * 
+     * @return number of unknowns
+     */
+    public int size() {
+        return unknowns.length;
+    }
+
+    /**
+     * Returns the grid index of unknown <code>u</code>.
+     * 
+     * @param u
+     * @return grid index
+     */
+    public int index(int u) {
+        return unknowns[u];
+    }
+
+    /**
+     * Returns the unknown number of the cell at grid index <code>index</code>
+     * or -1 if its pressure is not solved for.
+     * 
+     * @param index
+     * @return unknown number or -1
+     */
+    public int unknown(int index) {
+        return numbers[index];
+    }
+
+    public double diagonal(int u) {
+        return diagonal[u];
+    }
+
+    /**
+     * Returns the unknown number of neighbour <code>m</code> (0 to 5, lower
+     * then upper for east, north and up) of unknown <code>u</code> or -1 if
+     * that neighbour is not an unknown.
+     * 
+     * @param u
+     * @param m
+     * @return unknown number or -1
+     */
+    public int neighbour(int u, int m) {
+        return neighbours[u * NEIGHBOURS + m];
+    }
+
+    /**
+     * Returns the weight of the face between unknown <code>u</code> and its
+     * neighbour <code>m</code>, being the negated off diagonal entry of
+     * <code>A</code>.
+     * 
+     * @param u
+     * @param m
+     * @return weight
+     */
+    public double weight(int u, int m) {
+        return weights[u * NEIGHBOURS + m];
+    }
+
+    /**
+     * Returns true if no cell has a fixed pressure in which case the
+     * pressure is determined only up to a constant.
+     * 
+     * @return true if singular
+     */
+    public boolean isSingular() {
+        return dirichletIndex.length == 0;
+    }
+
+    /**
+     * Sets <code>out</code> to <code>A x</code>.
+     * 
+     * @param x
+     * @param out
+     */
+    public void multiply(double[] x, double[] out) {
+        for (int u = 0; u < unknowns.length; u++) {
+            double sum = diagonal[u] * x[u];
+            final int base = u * NEIGHBOURS;
+            for (int m = 0; m < NEIGHBOURS; m++) {
+                final int v = neighbours[base + m];
+                if (v != NONE)
+                    sum -= weights[base + m] * x[v];
+            }
+            out[u] = sum;
+        }
+    }
+
+    /**
+     * Sets <code>b</code> from the velocities and fixed pressures in
+     * <code>fields</code>. If the system is singular the mean is removed from
+     * <code>b</code> so that a solution exists.
+     * 
+     * @param fields
+     * @param b
+     */
+    public void rightHandSide(Fields fields, double[] b) {
+        for (int u = 0; u < unknowns.length; u++) {
+            final int i = unknowns[u];
+            b[u] = solver.velocityTerm(fields, i, fields.velocityEast(i),
+                    fields.velocityNorth(i), fields.velocityUp(i)) + constant[u];
+        }
+        for (int k = 0; k < dirichletIndex.length; k++)
+            b[dirichletUnknown[k]] += dirichletWeight[k] * fields.pressure(dirichletIndex[k]);
+        if (isSingular() && unknowns.length > 0) {
+            double sum = 0;
+            for (int u = 0; u < unknowns.length; u++)
+                sum += b[u];
+            final double mean = sum / unknowns.length;
+            for (int u = 0; u < unknowns.length; u++)
+                b[u] -= mean;
+        }
+    }
+
+    /**
+     * Copies the pressures of the unknowns from <code>fields</code> to
+     * <code>x</code>.
+     * 
+     * @param fields
+     * @param x
+     */
+    public void read(Fields fields, double[] x) {
+        for (int u = 0; u < unknowns.length; u++)
+            x[u] = fields.pressure(unknowns[u]);
+    }
+
+    /**
+     * Sets the pressures of the unknowns in <code>fields</code> from
+     * <code>x</code> leaving velocities unchanged.
+     * 
+     * @param x
+     * @param fields
+     */
+    public void write(double[] x, Fields fields) {
+        for (int u = 0; u < unknowns.length; u++) {
+            final int i = unknowns[u];
+            fields.set(i, x[u], fields.velocityEast(i), fields.velocityNorth(i),
+                    fields.velocityUp(i));
+        }
+    }
+
+    /**
+     * Returns the largest absolute value of <code>b - A p</code> where
+     * <code>p</code> is the pressure in <code>fields</code>.
+     * 
+     * @param fields
+     * @return maximum residual
+     */
+    public double residual(Fields fields) {
+        final int n = unknowns.length;
+        final double[] x = new double[n];
+        final double[] b = new double[n];
+        final double[] ax = new double[n];
+        read(fields, x);
+        rightHandSide(fields, b);
+        multiply(x, ax);
+        double max = 0;
+        for (int u = 0; u < n; u++)
+            max = Math.max(max, Math.abs(b[u] - ax[u]));
+        return max;
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Solves the pressure of every cell of a {@link PoissonSystem} at once (the
+ * pressure stage of a step) as an alternative to finding the pressure of each
+ * cell separately with Newton's method.
+ */
+public interface PressureSolver {
+
+    /**
+     * Sets the pressure of every unknown cell of <code>system</code> in
+     * <code>fields</code>. On entry <code>fields</code> holds the new
+     * velocities and the pressures to start iterating from (normally those of
+     * the previous generation).
+     * 
+     * @param system
+     * @param fields
+     * @return the number of iterations used
+     */
+    int solve(PoissonSystem system, Fields fields);
+
+}
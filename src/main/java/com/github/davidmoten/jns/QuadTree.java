@@ -3,13 +3,28 @@ package com.github.davidmoten.jns;
 import java.util.EnumMap;
 import java.util.Optional;
 
-public final class QuadTree<T> {
+public final class QuadTree<T> implements RegionTree<T> {
 
     private final Optional<T> value;
     private final Optional<EnumMap<Position, QuadTree<T>>> children;
 
     public static enum Position {
-        NW, NE, SW, SE
+        NW, NE, SW, SE;
+
+        /**
+         * Returns the position of the lower (0) or upper (1) half in each
+         * direction.
+         * 
+         * @param east
+         * @param north
+         * @return position
+         */
+        public static Position of(int east, int north) {
+            if (north == 0)
+                return east == 0 ? SW : SE;
+            else
+                return east == 0 ? NW : NE;
+        }
     }
 
     private QuadTree(Optional<T> value, Optional<EnumMap<Position, QuadTree<T>>> children) {
@@ -25,6 +40,7 @@ public final class QuadTree<T> {
         this(Optional.empty(), Optional.of(children));
     }
 
+    @Override
     public boolean hasChildren() {
         return children.isPresent();
     }
@@ -33,6 +49,12 @@ public final class QuadTree<T> {
         return children.get().get(position);
     }
 
+    @Override
+    public QuadTree<T> child(int east, int north, int up) {
+        return child(Position.of(east, north));
+    }
+
+    @Override
     public T value() {
         return value.get();
     }
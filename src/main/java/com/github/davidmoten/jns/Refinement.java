@@ -0,0 +1,119 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Settings for an {@link AdaptiveMesh}. Between steps a fluid cell is divided
+ * when its refinement indicator exceeds the refine threshold and the cells of
+ * a divided cell are merged again when the indicator of each is below the
+ * coarsen threshold. The indicator is the magnitude of the vorticity or of the
+ * velocity gradient times the size of the cell (m/s) so it approximates the
+ * change in velocity across the cell.
+ */
+public final class Refinement {
+
+    public static enum Criterion {
+        VORTICITY, VELOCITY_GRADIENT;
+    }
+
+    private final Criterion criterion;
+    private final int maxLevel;
+    private final double refineThreshold;
+    private final double coarsenThreshold;
+    private final boolean refineUp;
+
+    private Refinement(Criterion criterion, int maxLevel, double refineThreshold,
+            double coarsenThreshold, boolean refineUp) {
+        this.criterion = criterion;
+        this.maxLevel = maxLevel;
+        this.refineThreshold = refineThreshold;
+        this.coarsenThreshold = coarsenThreshold;
+        this.refineUp = refineUp;
+    }
+
+    public Criterion criterion() {
+        return criterion;
+    }
+
+    public int maxLevel() {
+        return maxLevel;
+    }
+
+    public double refineThreshold() {
+        return refineThreshold;
+    }
+
+    public double coarsenThreshold() {
+        return coarsenThreshold;
+    }
+
+    public boolean refineUp() {
+        return refineUp;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+
+        private Criterion criterion = Criterion.VORTICITY;
+        private int maxLevel = 2;
+        private double refineThreshold = 0.1;
+        private double coarsenThreshold = 0.025;
+        private boolean refineUp = true;
+
+        private Builder() {
+        }
+
+        public Builder criterion(Criterion criterion) {
+            if (criterion == null)
+                throw new NullPointerException("criterion must not be null");
+            this.criterion = criterion;
+            return this;
+        }
+
+        /**
+         * Sets the number of times a cell of the base grid may be divided.
+         * Defaults to 2.
+         * 
+         * @param maxLevel
+         * @return this
+         */
+        public Builder maxLevel(int maxLevel) {
+            if (maxLevel < 0)
+                throw new IllegalArgumentException("maxLevel must be >=0");
+            this.maxLevel = maxLevel;
+            return this;
+        }
+
+        public Builder refineThreshold(double refineThreshold) {
+            this.refineThreshold = refineThreshold;
+            return this;
+        }
+
+        public Builder coarsenThreshold(double coarsenThreshold) {
+            this.coarsenThreshold = coarsenThreshold;
+            return this;
+        }
+
+        /**
+         * Divides cells horizontally only ({@link QuadTree}) rather than in
+         * all three directions ({@link OctTree}). Meshes with one cell in the
+         * up direction are always divided horizontally only.
+         * 
+         * @return this
+         */
+        public Builder horizontalOnly() {
+            this.refineUp = false;
+            return this;
+        }
+
+        public Refinement build() {
+            if (coarsenThreshold >= refineThreshold)
+                throw new IllegalArgumentException(
+                        "coarsenThreshold must be less than refineThreshold");
+            return new Refinement(criterion, maxLevel, refineThreshold, coarsenThreshold,
+                    refineUp);
+        }
+    }
+
+}
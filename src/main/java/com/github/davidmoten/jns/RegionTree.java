@@ -0,0 +1,28 @@
+package com.github.davidmoten.jns;
+
+/**
+ * A tree in which each node either holds a value or divides its region into
+ * two halves along each of some directions ({@link QuadTree} divides east and
+ * north, {@link OctTree} divides east, north and up).
+ *
+ * @param <T>
+ *            value type
+ */
+interface RegionTree<T> {
+
+    boolean hasChildren();
+
+    T value();
+
+    /**
+     * Returns the child in the lower (0) or upper (1) half of each direction.
+     * Directions that are not divided are ignored.
+     *
+     * @param east
+     * @param north
+     * @param up
+     * @return child
+     */
+    RegionTree<T> child(int east, int north, int up);
+
+}
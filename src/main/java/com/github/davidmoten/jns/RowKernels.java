@@ -0,0 +1,289 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Computes the derivatives of {@link DenseSolver} (and so of {@link Solver})
+ * for a whole row of a {@link DenseMesh} at a time. For {@link ArrayFields}
+ * the central differences of every cell of the row are first computed in a
+ * simple loop over the arrays (with the spacing terms precomputed for each
+ * position along an axis) that the JIT compiler can vectorise, then the cells
+ * whose stencil is not a plain central one (next to an obstacle or an unknown
+ * cell) are recomputed one at a time. Other {@link Fields} are computed one
+ * cell at a time. Results are numerically identical to {@link DenseSolver}.
+ * A {@link DenseMesh} built with {@link Mesh.Builder#rowKernels()} advances
+ * the velocities of each row this way.
+ *
+ * <p>
+ * Rows are given as for {@link GridExecutor.RowAction} and the value for the
+ * cell at <code>index</code> is written to <code>out[index - from]</code>.
+ * Values for non-fluid cells, and for boundary cells (which are never stepped)
+ * whose stencil {@link Solver} does not handle, are NaN.
+ */
+final class RowKernels {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    private static final int AXES = DIRECTIONS.length;
+
+    private final DenseSolver solver;
+    private final Grid grid;
+    private final boolean validate;
+    private final int[] strides;
+    // by axis then by position along the axis including the halo
+    private final double[][] squareWidth;
+    private final double[][] sqrH1;
+    private final double[][] sqrH2;
+    private final double[][] sqrH2MinusSqrH1;
+    private final double[][] denominator;
+
+    RowKernels(DenseSolver solver) {
+        this.solver = solver;
+        this.grid = solver.grid();
+        this.validate = solver.validatesPerOperation();
+        this.strides = new int[AXES];
+        this.squareWidth = new double[AXES][];
+        this.sqrH1 = new double[AXES][];
+        this.sqrH2 = new double[AXES][];
+        this.sqrH2MinusSqrH1 = new double[AXES][];
+        this.denominator = new double[AXES][];
+        for (final Direction d : DIRECTIONS) {
+            final int k = d.ordinal();
+            final int stride = grid.stride(d);
+            final int total = grid.cells(d) + 2 * Grid.HALO;
+            strides[k] = stride;
+            squareWidth[k] = new double[total];
+            sqrH1[k] = new double[total];
+            sqrH2[k] = new double[total];
+            sqrH2MinusSqrH1[k] = new double[total];
+            denominator[k] = new double[total];
+            // same arithmetic as Stencil.first and Stencil.second
+            for (int j = 1; j < total - 1; j++) {
+                final double a = grid.position((j - 1) * stride, d);
+                final double b = grid.position(j * stride, d);
+                final double c = grid.position((j + 1) * stride, d);
+                final double h = c - a;
+                final double h1 = b - a;
+                final double h2 = c - b;
+                squareWidth[k][j] = h * h;
+                sqrH1[k][j] = h1 * h1;
+                sqrH2[k][j] = h2 * h2;
+                sqrH2MinusSqrH1[k][j] = sqrH2[k][j] - sqrH1[k][j];
+                denominator[k][j] = sqrH1[k][j] * h2 + h1 * sqrH2[k][j];
+            }
+        }
+    }
+
+    /**
+     * Writes the second derivative of <code>quantity</code> (see
+     * {@link DenseSolver#PRESSURE}) in direction <code>k</code> for the cells
+     * of a row.
+     */
+    void second(Fields f, int quantity, int k, int from, int to, double[] out) {
+        final double[] a = array(f, quantity);
+        if (a != null) {
+            final int s = strides[k];
+            if (k == 0) {
+                final double[] hh = squareWidth[0];
+                for (int i = from; i < to; i++)
+                    out[i - from] = (a[i + 1] + a[i - 1] - 2 * a[i]) / hh[i - from + Grid.HALO];
+            } else {
+                final double hh = squareWidth[k][axisIndex(from, k)];
+                for (int i = from; i < to; i++)
+                    out[i - from] = (a[i + s] + a[i - s] - 2 * a[i]) / hh;
+            }
+        }
+        for (int i = from; i < to; i++) {
+            if (!grid.isFluid(i) || grid.isBoundary(i) && !solver.handles(i, k))
+                out[i - from] = Double.NaN;
+            else if (a == null || solver.stencil(i, k) != Stencil.CENTRAL)
+                out[i - from] = solver.second(f, i, k, quantity, value(f, i, quantity));
+            else if (validate)
+                Util.validate(out[i - from]);
+        }
+    }
+
+    /**
+     * Writes the first derivative of <code>quantity</code> in direction
+     * <code>k</code> for the cells of a row.
+     */
+    void first(Fields f, int quantity, int k, int from, int to, double[] out) {
+        final double[] a = array(f, quantity);
+        if (a != null) {
+            final int s = strides[k];
+            if (k == 0) {
+                final double[] d = sqrH2MinusSqrH1[0];
+                final double[] p = sqrH1[0];
+                final double[] q = sqrH2[0];
+                final double[] den = denominator[0];
+                for (int i = from; i < to; i++) {
+                    final int j = i - from + Grid.HALO;
+                    out[i - from] = (d[j] * a[i] + p[j] * a[i + 1] - q[j] * a[i - 1]) / den[j];
+                }
+            } else {
+                final int j = axisIndex(from, k);
+                final double d = sqrH2MinusSqrH1[k][j];
+                final double p = sqrH1[k][j];
+                final double q = sqrH2[k][j];
+                final double den = denominator[k][j];
+                for (int i = from; i < to; i++)
+                    out[i - from] = (d * a[i] + p * a[i + s] - q * a[i - s]) / den;
+            }
+        }
+        for (int i = from; i < to; i++) {
+            if (!grid.isFluid(i) || grid.isBoundary(i) && !solver.handles(i, k))
+                out[i - from] = Double.NaN;
+            else if (a == null || solver.stencil(i, k) != Stencil.CENTRAL)
+                out[i - from] = solver.first(f, i, k, quantity, value(f, i, quantity));
+            else if (validate)
+                Util.validate(out[i - from]);
+        }
+    }
+
+    /**
+     * Writes the sum over the velocity components of the second derivative in
+     * direction <code>k</code> (as used for the velocity Laplacian by
+     * {@link Solver}) for the cells of a row. <code>scratch</code> must be at
+     * least as long as the row.
+     */
+    void velocityLaplacian(Fields f, int k, int from, int to, double[] out, double[] scratch) {
+        second(f, DenseSolver.VELOCITY_EAST, k, from, to, out);
+        second(f, DenseSolver.VELOCITY_NORTH, k, from, to, scratch);
+        add(out, scratch, to - from);
+        second(f, DenseSolver.VELOCITY_UP, k, from, to, scratch);
+        add(out, scratch, to - from);
+    }
+
+    /**
+     * Writes the Laplacian of pressure for the cells of a row.
+     * <code>scratch</code> must be at least as long as the row.
+     */
+    void pressureLaplacian(Fields f, int from, int to, double[] out, double[] scratch) {
+        second(f, DenseSolver.PRESSURE, 0, from, to, out);
+        second(f, DenseSolver.PRESSURE, 1, from, to, scratch);
+        add(out, scratch, to - from);
+        second(f, DenseSolver.PRESSURE, 2, from, to, scratch);
+        add(out, scratch, to - from);
+    }
+
+    Workspace workspace() {
+        return new Workspace(grid.cellsEast());
+    }
+
+    /**
+     * Sets the velocity of each stepped cell of a row in <code>w</code> to
+     * its velocity in <code>f</code> after <code>timeStepSeconds</code> as per
+     * {@link DenseSolver#velocityAfterTime}.
+     */
+    void velocityAfterTime(Fields f, int from, int to, double timeStepSeconds, Workspace w) {
+        for (int i = from; i < to; i++) {
+            w.velocityEast[i - from] = f.velocityEast(i);
+            w.velocityNorth[i - from] = f.velocityNorth(i);
+            w.velocityUp[i - from] = f.velocityUp(i);
+        }
+        accelerate(f, from, to, timeStepSeconds, w);
+    }
+
+    /**
+     * Adds the change in velocity over <code>timeStepSeconds</code> of each
+     * stepped cell of a row in <code>f</code> to its velocity in
+     * <code>w</code> as per {@link DenseSolver#accelerate}.
+     */
+    void accelerate(Fields f, int from, int to, double timeStepSeconds, Workspace w) {
+        accelerate(f, 0, from, to, timeStepSeconds, w.velocityEast, w);
+        accelerate(f, 1, from, to, timeStepSeconds, w.velocityNorth, w);
+        accelerate(f, 2, from, to, timeStepSeconds, w.velocityUp, w);
+        if (validate)
+            for (int i = from; i < to; i++)
+                if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                    Util.validate(w.velocityEast[i - from]);
+                    Util.validate(w.velocityNorth[i - from]);
+                    Util.validate(w.velocityUp[i - from]);
+                }
+    }
+
+    private void accelerate(Fields f, int k, int from, int to, double timeStepSeconds,
+            double[] velocity, Workspace w) {
+        final boolean viscosity = solver.explicitViscosity();
+        final boolean advection = solver.explicitAdvection();
+        if (viscosity)
+            velocityLaplacian(f, k, from, to, w.laplacian, w.scratch);
+        first(f, DenseSolver.PRESSURE, k, from, to, w.pressureGradient);
+        if (advection) {
+            first(f, DenseSolver.VELOCITY_EAST, k, from, to, w.firstEast);
+            first(f, DenseSolver.VELOCITY_NORTH, k, from, to, w.firstNorth);
+            first(f, DenseSolver.VELOCITY_UP, k, from, to, w.firstUp);
+        }
+        for (int i = from; i < to; i++)
+            if (grid.isFluid(i) && !grid.isBoundary(i)) {
+                final int j = i - from;
+                final double jacobianTimesVelocity = advection
+                        ? (w.firstEast[j] * f.velocityEast(i)
+                                + w.firstNorth[j] * f.velocityNorth(i))
+                                + w.firstUp[j] * f.velocityUp(i)
+                        : 0;
+                velocity[j] = velocity[j] + solver.dvdt(k, viscosity ? w.laplacian[j] : 0,
+                        w.pressureGradient[j], jacobianTimesVelocity) * timeStepSeconds;
+            }
+    }
+
+    private static void add(double[] out, double[] values, int length) {
+        for (int i = 0; i < length; i++)
+            out[i] += values[i];
+    }
+
+    private int axisIndex(int index, int k) {
+        return grid.index(index, DIRECTIONS[k]) + Grid.HALO;
+    }
+
+    private static double[] array(Fields f, int quantity) {
+        if (!(f instanceof ArrayFields))
+            return null;
+        final ArrayFields a = (ArrayFields) f;
+        if (quantity == DenseSolver.PRESSURE)
+            return a.pressure;
+        else if (quantity == DenseSolver.VELOCITY_EAST)
+            return a.velocityEast;
+        else if (quantity == DenseSolver.VELOCITY_NORTH)
+            return a.velocityNorth;
+        else
+            return a.velocityUp;
+    }
+
+    private static double value(Fields f, int index, int quantity) {
+        if (quantity == DenseSolver.PRESSURE)
+            return f.pressure(index);
+        else if (quantity == DenseSolver.VELOCITY_EAST)
+            return f.velocityEast(index);
+        else if (quantity == DenseSolver.VELOCITY_NORTH)
+            return f.velocityNorth(index);
+        else
+            return f.velocityUp(index);
+    }
+
+    /**
+     * Mutable per thread values of the cells of a row.
+     */
+    static final class Workspace {
+
+        final double[] velocityEast;
+        final double[] velocityNorth;
+        final double[] velocityUp;
+        private final double[] laplacian;
+        private final double[] scratch;
+        private final double[] pressureGradient;
+        private final double[] firstEast;
+        private final double[] firstNorth;
+        private final double[] firstUp;
+
+        private Workspace(int length) {
+            this.velocityEast = new double[length];
+            this.velocityNorth = new double[length];
+            this.velocityUp = new double[length];
+            this.laplacian = new double[length];
+            this.scratch = new double[length];
+            this.pressureGradient = new double[length];
+            this.firstEast = new double[length];
+            this.firstNorth = new double[length];
+            this.firstUp = new double[length];
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Semi-Lagrangian advection over the cells of a {@link Grid}. The position of
+ * a fluid cell is traced back through the velocity field of the previous
+ * generation for one time step (using the velocity at the midpoint of the
+ * path) and the velocity at the point reached is the advected velocity of the
+ * cell.
+ *
+ * <p>
+ * Velocities between cell centres are interpolated trilinearly from the eight
+ * surrounding cells. An obstacle cell has zero velocity and cells of other
+ * types (air or outside the domain) are left out of the interpolation with the
+ * weights of the remaining cells rescaled. A path that ends in an obstacle
+ * cell is shortened until it does not and points beyond the outermost halo
+ * cells are moved onto them.
+ */
+final class SemiLagrangian {
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+    // times a path that ends in an obstacle is halved before giving up
+    private static final int MAX_SHORTENINGS = 4;
+
+    private final Grid grid;
+    // position of each layer along each axis, negated if decreasing
+    private final double[][] positions;
+    // 1 if positions increase with index along the axis, -1 otherwise
+    private final double[] signs;
+
+    SemiLagrangian(Grid grid) {
+        this.grid = grid;
+        this.positions = new double[DIRECTIONS.length][];
+        this.signs = new double[DIRECTIONS.length];
+        for (final Direction d : DIRECTIONS) {
+            final int k = d.ordinal();
+            final int n = grid.cells(d) + 2 * Grid.HALO;
+            final double[] p = new double[n];
+            for (int a = 0; a < n; a++)
+                p[a] = grid.position(a * grid.stride(d), d);
+            final double sign = p[1] < p[0] ? -1 : 1;
+            for (int a = 0; a < n; a++) {
+                p[a] *= sign;
+                if (a > 0 && p[a] <= p[a - 1])
+                    throw new IllegalArgumentException("semi-Lagrangian advection requires "
+                            + "positions that change monotonically along " + d);
+            }
+            positions[k] = p;
+            signs[k] = sign;
+        }
+    }
+
+    /**
+     * Sets the velocity fields of <code>w</code> to the velocity advected to
+     * the cell at <code>index</code> over <code>timeStepSeconds</code> from the
+     * velocities in <code>f</code>.
+     */
+    void advect(Fields f, int index, double timeStepSeconds, DenseSolver.Workspace w) {
+        // positions in the (possibly negated) axis coordinates
+        final double east = signs[0] * grid.position(index, Direction.EAST);
+        final double north = signs[1] * grid.position(index, Direction.NORTH);
+        final double up = signs[2] * grid.position(index, Direction.UP);
+        final double half = timeStepSeconds / 2;
+        // velocity at the midpoint of the path
+        final boolean found = sample(f, east - half * signs[0] * f.velocityEast(index),
+                north - half * signs[1] * f.velocityNorth(index),
+                up - half * signs[2] * f.velocityUp(index), w);
+        if (!found) {
+            w.velocityEast = f.velocityEast(index);
+            w.velocityNorth = f.velocityNorth(index);
+            w.velocityUp = f.velocityUp(index);
+        }
+        double dEast = timeStepSeconds * signs[0] * w.velocityEast;
+        double dNorth = timeStepSeconds * signs[1] * w.velocityNorth;
+        double dUp = timeStepSeconds * signs[2] * w.velocityUp;
+        for (int i = 0; i <= MAX_SHORTENINGS; i++) {
+            if (!isObstacle(east - dEast, north - dNorth, up - dUp)) {
+                if (sample(f, east - dEast, north - dNorth, up - dUp, w))
+                    return;
+                else
+                    break;
+            }
+            dEast /= 2;
+            dNorth /= 2;
+            dUp /= 2;
+        }
+        // stay put
+        w.velocityEast = f.velocityEast(index);
+        w.velocityNorth = f.velocityNorth(index);
+        w.velocityUp = f.velocityUp(index);
+    }
+
+    /**
+     * Sets the velocity fields of <code>w</code> to the velocity interpolated
+     * at the given point and returns true, or returns false if none of the
+     * surrounding cells is a fluid or obstacle cell.
+     */
+    private boolean sample(Fields f, double east, double north, double up,
+            DenseSolver.Workspace w) {
+        final int a0 = lower(positions[0], east);
+        final int b0 = lower(positions[1], north);
+        final int c0 = lower(positions[2], up);
+        final double tEast = fraction(positions[0], a0, east);
+        final double tNorth = fraction(positions[1], b0, north);
+        final double tUp = fraction(positions[2], c0, up);
+        double weights = 0;
+        double vEast = 0;
+        double vNorth = 0;
+        double vUp = 0;
+        for (int c = 0; c <= 1; c++)
+            for (int b = 0; b <= 1; b++)
+                for (int a = 0; a <= 1; a++) {
+                    final double weight = (a == 0 ? 1 - tEast : tEast)
+                            * (b == 0 ? 1 - tNorth : tNorth) * (c == 0 ? 1 - tUp : tUp);
+                    if (weight == 0)
+                        continue;
+                    final int i = index(a0 + a, b0 + b, c0 + c);
+                    if (grid.isFluid(i)) {
+                        weights += weight;
+                        vEast += weight * f.velocityEast(i);
+                        vNorth += weight * f.velocityNorth(i);
+                        vUp += weight * f.velocityUp(i);
+                    } else if (grid.type(i) == CellType.OBSTACLE)
+                        // zero velocity
+                        weights += weight;
+                }
+        if (weights == 0)
+            return false;
+        w.velocityEast = vEast / weights;
+        w.velocityNorth = vNorth / weights;
+        w.velocityUp = vUp / weights;
+        return true;
+    }
+
+    private boolean isObstacle(double east, double north, double up) {
+        return grid.type(index(nearest(positions[0], east), nearest(positions[1], north),
+                nearest(positions[2], up))) == CellType.OBSTACLE;
+    }
+
+    private int index(int a, int b, int c) {
+        return grid.index(a - Grid.HALO, b - Grid.HALO, c - Grid.HALO);
+    }
+
+    /**
+     * Returns the layer at or below <code>x</code> with a layer above it,
+     * clamped to the axis.
+     */
+    private static int lower(double[] p, double x) {
+        if (x <= p[0])
+            return 0;
+        if (x >= p[p.length - 1])
+            return p.length - 2;
+        int lo = 0;
+        int hi = p.length - 1;
+        // invariant p[lo] <= x < p[hi]
+        while (hi - lo > 1) {
+            final int mid = (lo + hi) >>> 1;
+            if (p[mid] <= x)
+                lo = mid;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the fraction of the way from layer <code>a</code> to layer
+     * <code>a + 1</code> of <code>x</code>, clamped to [0, 1].
+     */
+    private static double fraction(double[] p, int a, double x) {
+        final double t = (x - p[a]) / (p[a + 1] - p[a]);
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private static int nearest(double[] p, double x) {
+        final int a = lower(p, x);
+        return x - p[a] > p[a + 1] - x ? a + 1 : a;
+    }
+
+}
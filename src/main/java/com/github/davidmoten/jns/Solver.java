@@ -4,7 +4,6 @@ import static com.github.davidmoten.jns.CellType.FLUID;
 import static com.github.davidmoten.jns.CellType.OBSTACLE;
 import static com.github.davidmoten.jns.CellType.UNKNOWN;
 import static com.github.davidmoten.jns.NewtonsMethod.solve;
-import static com.github.davidmoten.jns.Util.pressureGradientDueToGravity;
 import static com.github.davidmoten.jns.Util.unexpected;
 import static com.github.davidmoten.jns.Util.validate;
 
@@ -15,36 +14,98 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Navier-Stokes equation solver for incompressible fluid.
+ * Navier-Stokes equation solver for incompressible fluid. A solver holds no
+ * state so one instance can be shared by any number of cells and threads.
  */
 public class Solver {
 
     private static Logger log = LoggerFactory.getLogger(Solver.class);
 
+    static final int PRESSURE_MAX_ITERATIONS = 15;
+
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    private static final ThreadLocal<Workspace> WORKSPACE = ThreadLocal
+            .withInitial(Workspace::new);
+
+    // if true second derivatives allow for unequal distances to the neighbours
+    private final boolean nonUniform;
+
+    public Solver() {
+        this(false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param nonUniform
+     *            if true the second derivative at a cell whose neighbours are
+     *            at unequal distances (as in an {@link AdaptiveMesh}) uses the
+     *            non-uniform three point form
+     */
+    Solver(boolean nonUniform) {
+        this.nonUniform = nonUniform;
+    }
+
     public VelocityPressure step(Cell cell, double timeStepSeconds) {
+        return step(cell, timeStepSeconds, null);
+    }
+
+    /**
+     * As {@link #step(Cell, double)} recording the measurements of the cell to
+     * <code>recorder</code> if it is not null.
+     */
+    VelocityPressure step(Cell cell, double timeStepSeconds, StepRecorder recorder) {
         if (cell.isBoundary()) {
             return new VelocityPressure(cell.velocity(), cell.pressure());
         }
-        log.debug("step {}", str(cell));
         // explicit time advance scheme as per Ferziger and Peric 7.3.2
-        final Vector v = getVelocityAfterTime(cell, timeStepSeconds);
-        log.debug("velocity={}", v);
-        final Function<Double, Double> f = getContinuityFunction(cell, v, timeStepSeconds);
-        final double p = solveForPressure(cell, f);
-        return new VelocityPressure(v, p);
+        if (recorder == null) {
+            final Vector v = getVelocityAfterTime(cell, timeStepSeconds);
+            final Function<Double, Double> f = getContinuityFunction(cell, v, timeStepSeconds);
+            final double p = solveForPressure(cell, f, null);
+            return new VelocityPressure(v, p);
+        } else {
+            final long t0 = System.nanoTime();
+            final Vector v = getVelocityAfterTime(cell, timeStepSeconds);
+            final long t1 = System.nanoTime();
+            final Function<Double, Double> f = getContinuityFunction(cell, v, timeStepSeconds);
+            final double p = solveForPressure(cell, f, recorder);
+            recorder.pressure(System.nanoTime() - t1);
+            recorder.velocity(t1 - t0);
+            recorder.cell();
+            return new VelocityPressure(v, p);
+        }
     }
 
-    private double solveForPressure(Cell cell, Function<Double, Double> continuityFunction) {
+    private double solveForPressure(Cell cell, Function<Double, Double> continuityFunction,
+            StepRecorder recorder) {
         // 10 Pa is probably reasonable given that pressures are normally
         // >100000Pa.
         final double delta = 100;// Pa
         // TODO what value for precision?
         final double precision = 10;
-        final int maxIterations = 15;
-        final Optional<Double> p = solve(continuityFunction, cell.pressure(), delta, precision,
-                maxIterations)
-                        // don't accept negative values
-                        .filter(d -> d >= 0);
+        final Function<Double, Double> f;
+        final int[] evaluations = new int[1];
+        if (recorder == null)
+            f = continuityFunction;
+        else
+            f = x -> {
+                evaluations[0]++;
+                return continuityFunction.apply(x);
+            };
+        final Optional<Double> root = solve(f, cell.pressure(), delta, precision,
+                PRESSURE_MAX_ITERATIONS);
+        // don't accept negative values
+        final Optional<Double> p = root.filter(d -> d >= 0);
+        if (recorder != null) {
+            // one evaluation to start then two per iteration
+            recorder.newtonIterations((evaluations[0] - 1) / 2);
+            if (!root.isPresent())
+                recorder.nonConvergence();
+            else if (!p.isPresent())
+                recorder.negativePressure();
+        }
         if (!p.isPresent()) {
             unexpected("could not find pressure at " + str(cell));
         }
@@ -53,44 +114,52 @@ public class Solver {
 
     // Visible for testing
     Vector getVelocityAfterTime(Cell cell, double timeSeconds) {
-        return cell.velocity().add(dvdt(cell).times(timeSeconds));
-    }
-
-    private Vector dvdt(Cell cell) {
-        log.debug("dvdt at {}", str(cell));
-        final Vector velocityLaplacian = getVelocityLaplacian(cell);
-        final Vector pressureGradient = getPressureGradient(cell);
-        final Matrix velocityJacobian = getVelocityJacobian(cell);
-        final Vector divergenceOfStress = velocityLaplacian.times(cell.viscosity())
-                .minus(pressureGradient).add(pressureGradientDueToGravity(cell));
-        final Vector result = divergenceOfStress.divideBy(cell.density())
-                .minus(velocityJacobian.times(cell.velocity()));
-        return result;
+        final Workspace cached = WORKSPACE.get();
+        // a neighbour in a lazily stepped mesh may step a cell of the previous
+        // generation on this thread while the cached workspace is in use
+        final Workspace w = cached.inUse ? new Workspace() : cached;
+        w.inUse = true;
+        try {
+            final Vec3 dvdt = dvdt(cell, w.dvdt, w.pressureGradient, w.jacobian);
+            // the only check for invalid values of the velocity update
+            return dvdt.times(timeSeconds).add(cell.velocity()).toVector();
+        } finally {
+            w.inUse = false;
+        }
     }
 
-    private Vector getVelocityLaplacian(Cell cell) {
-        return Vector.create(getVelocityLaplacian(cell, Direction.EAST),
+    /**
+     * Writes the rate of change of velocity of <code>cell</code> to
+     * <code>result</code> using <code>pressureGradient</code> and
+     * <code>jacobian</code> as workspace.
+     */
+    private Vec3 dvdt(Cell cell, Vec3 result, Vec3 pressureGradient, double[] jacobian) {
+        getVelocityLaplacian(cell, result);
+        getPressureGradient(cell, pressureGradient);
+        getVelocityJacobian(cell, jacobian);
+        // divergence of stress
+        result.times(cell.viscosity()).minus(pressureGradient).addTimes(Util.GRAVITY,
+                cell.density());
+        return result.divideBy(cell.density()).minusTimes(jacobian, cell.velocity());
+    }
+
+    private void getVelocityLaplacian(Cell cell, Vec3 out) {
+        out.set(getVelocityLaplacian(cell, Direction.EAST),
                 getVelocityLaplacian(cell, Direction.NORTH),
                 getVelocityLaplacian(cell, Direction.UP));
     }
 
     private double getVelocityLaplacian(Cell cell, Direction direction) {
-        return getVelocityGradient2nd(cell, direction).sum();
-    }
-
-    private Vector getVelocityGradient2nd(Cell cell, Direction direction) {
-        final Function<Direction, Function<Cell, Double>> velocity = d -> {
-            return c -> c.velocity().value(d);
-        };
-        final Function<Direction, Double> gradient =
-                // gradient in given direction
-                d -> getGradient(cell, direction, velocity.apply(d), DerivativeType.SECOND);
-
-        return Vector.create(gradient);
+        // sum of the second derivatives of the velocity components
+        return getGradient(cell, direction, c -> c.velocity().east(), DerivativeType.SECOND)
+                + getGradient(cell, direction, c -> c.velocity().north(), DerivativeType.SECOND)
+                + getGradient(cell, direction, c -> c.velocity().up(), DerivativeType.SECOND);
     }
 
-    private Vector getPressureGradient(Cell cell) {
-        return Vector.create(d -> getPressureGradient(cell, d));
+    private void getPressureGradient(Cell cell, Vec3 out) {
+        out.set(getPressureGradient(cell, Direction.EAST),
+                getPressureGradient(cell, Direction.NORTH),
+                getPressureGradient(cell, Direction.UP));
     }
 
     // Visible for testing
@@ -98,8 +167,13 @@ public class Solver {
         return getGradient(cell, direction, c -> c.pressure(), DerivativeType.FIRST);
     }
 
-    private Matrix getVelocityJacobian(Cell cell) {
-        return Matrixes.create(d -> getVelocityGradient(cell, d));
+    private void getVelocityJacobian(Cell cell, double[] out) {
+        for (final Direction d : DIRECTIONS) {
+            final int row = 3 * d.ordinal();
+            out[row] = getGradient(cell, d, c -> c.velocity().east(), DerivativeType.FIRST);
+            out[row + 1] = getGradient(cell, d, c -> c.velocity().north(), DerivativeType.FIRST);
+            out[row + 2] = getGradient(cell, d, c -> c.velocity().up(), DerivativeType.FIRST);
+        }
     }
 
     private Function<Double, Double> getContinuityFunction(Cell cell, Vector newVelocity,
@@ -115,14 +189,6 @@ public class Solver {
         return pressureLaplacian + Vector.create(f).sum();
     }
 
-    private double getContinuityFunction2(Cell cell) {
-        final double pressureLaplacian = getPressureLaplacian(cell);
-        log.info("pressureLaplacian={}", pressureLaplacian);
-        final Function<Direction, Double> f = d -> getGradient(cell, d, gradientDot(d),
-                DerivativeType.FIRST);
-        return pressureLaplacian + Vector.create(f).sum();
-    }
-
     private Function<Cell, Double> gradientDot(Direction d) {
         return cell -> getVelocityGradient(cell, d).dotProduct(cell.velocity());
     }
@@ -219,12 +285,13 @@ public class Solver {
             return unexpected();
     }
 
-    private static double getGradientFromFluid(Function<Cell, Double> f, Cell c1, Cell c2, Cell c3,
+    private double getGradientFromFluid(Function<Cell, Double> f, Cell c1, Cell c2, Cell c3,
             Direction d, DerivativeType derivativeType) {
         if (derivativeType == DerivativeType.FIRST) {
             return firstDerivativeSecondOrder(f, c1, c2, c3, d);
         } else if (derivativeType == DerivativeType.SECOND)
-            return secondDerivative(f, c1, c2, c3, d);
+            return nonUniform ? secondDerivativeNonUniform(f, c1, c2, c3, d)
+                    : secondDerivative(f, c1, c2, c3, d);
         else
             return unexpected();
     }
@@ -265,6 +332,26 @@ public class Solver {
                 / sqr(c3.position().value(d) - c1.position().value(d)));
     }
 
+    /**
+     * Returns the second derivative with neighbours at distances h1 below and
+     * h2 above, <code>2(h2 f1 - (h1 + h2) f2 + h1 f3) / (h1 h2 (h1 + h2))</code>,
+     * scaled like {@link #secondDerivative} (whose denominator is
+     * <code>(2h)&#178;</code> rather than <code>h&#178;</code>) so that the
+     * two agree exactly when h1 equals h2.
+     */
+    private static double secondDerivativeNonUniform(Function<Cell, Double> f, Cell c1,
+            Cell c2, Cell c3, Direction d) {
+        final double a = c1.position().value(d);
+        final double b = c2.position().value(d);
+        final double c = c3.position().value(d);
+        final double h1 = b - a;
+        final double h2 = c - b;
+        if (h1 == h2)
+            return secondDerivative(f, c1, c2, c3, d);
+        return validate((h2 * f.apply(c1) - (h1 + h2) * f.apply(c2) + h1 * f.apply(c3))
+                / (2 * h1 * h2 * (h1 + h2)));
+    }
+
     private static double sqr(double d) {
         return d * d;
     }
@@ -301,4 +388,16 @@ public class Solver {
                 .dotProduct(Util.pressureGradientDueToGravity(wrt));
         return p;
     }
+
+    /**
+     * Mutable per thread state used while finding the velocity of a cell.
+     */
+    private static final class Workspace {
+
+        final Vec3 dvdt = new Vec3();
+        final Vec3 pressureGradient = new Vec3();
+        final double[] jacobian = new double[9];
+        boolean inUse;
+    }
+
 }
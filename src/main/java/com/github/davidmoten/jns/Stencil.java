@@ -0,0 +1,118 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.CellType.FLUID;
+import static com.github.davidmoten.jns.CellType.OBSTACLE;
+import static com.github.davidmoten.jns.CellType.UNKNOWN;
+
+/**
+ * Byte codes for the cases of a three point stencil <code>(c1, c2, c3)</code>
+ * centred on a fluid cell <code>c2</code> in one direction, matching the
+ * cases handled by {@link Solver#transform(CellTriplet)}.
+ * <ul>
+ * <li>{@link #CENTRAL} uses all three points</li>
+ * <li>{@link #BACKWARD} uses c1 and c2 only (c3 is unknown)</li>
+ * <li>{@link #FORWARD} uses c2 and c3 only (c1 is unknown)</li>
+ * </ul>
+ * combined with {@link #MIRROR_LOWER} and {@link #MIRROR_UPPER} when c1 or c3
+ * is an obstacle to be replaced by a value relative to c2 (see
+ * {@link Solver#obstacleToValue(Cell, Cell)}).
+ */
+final class Stencil {
+
+    static final byte CENTRAL = 0;
+    static final byte BACKWARD = 1;
+    static final byte FORWARD = 2;
+    static final byte UNHANDLED = 3;
+    static final byte KIND_MASK = 3;
+    static final byte MIRROR_LOWER = 4;
+    static final byte MIRROR_UPPER = 8;
+
+    private Stencil() {
+        // prevent instantiation
+    }
+
+    /**
+     * Returns the stencil code for a fluid cell with neighbours of type
+     * <code>lower</code> and <code>upper</code> in one direction.
+     * 
+     * @param lower
+     *            type of c1
+     * @param upper
+     *            type of c3
+     * @return stencil code
+     */
+    static byte classify(CellType lower, CellType upper) {
+        if (upper == OBSTACLE) {
+            if (lower == FLUID)
+                return CENTRAL | MIRROR_UPPER;
+            else if (lower == UNKNOWN)
+                return FORWARD | MIRROR_UPPER;
+            else
+                return CENTRAL | MIRROR_LOWER | MIRROR_UPPER;
+        } else if (lower == OBSTACLE) {
+            if (upper == FLUID)
+                return CENTRAL | MIRROR_LOWER;
+            else
+                return BACKWARD | MIRROR_LOWER;
+        } else if (lower == FLUID)
+            return upper == FLUID ? CENTRAL : BACKWARD;
+        else if (upper == FLUID)
+            return FORWARD;
+        else
+            return UNHANDLED;
+    }
+
+    static int kind(byte code) {
+        return code & KIND_MASK;
+    }
+
+    static boolean usesLower(byte code) {
+        return kind(code) != FORWARD;
+    }
+
+    static boolean usesUpper(byte code) {
+        return kind(code) != BACKWARD;
+    }
+
+    static boolean mirrorLower(byte code) {
+        return (code & MIRROR_LOWER) != 0;
+    }
+
+    static boolean mirrorUpper(byte code) {
+        return (code & MIRROR_UPPER) != 0;
+    }
+
+    /**
+     * Returns the first derivative using the same formulae as {@link Solver}.
+     * Values and positions of points not used by the stencil are ignored. The
+     * result is not checked for NaN or infinity.
+     */
+    static double first(byte code, double f1, double f2, double f3, double a, double b,
+            double c) {
+        final int kind = kind(code);
+        if (kind == CENTRAL) {
+            final double h1 = b - a;
+            final double h2 = c - b;
+            final double sqrH1 = h1 * h1;
+            final double sqrH2 = h2 * h2;
+            return ((sqrH2 - sqrH1) * f2 + sqrH1 * f3 - sqrH2 * f1)
+                    / (sqrH1 * h2 + h1 * sqrH2);
+        } else if (kind == BACKWARD)
+            return (f2 - f1) / (b - a);
+        else
+            return (f3 - f2) / (c - b);
+    }
+
+    /**
+     * Returns the second derivative using the same formulae as {@link Solver}.
+     * One sided stencils have only two points so the second derivative is
+     * taken to be zero.
+     */
+    static double second(byte code, double f1, double f2, double f3, double a, double c) {
+        if (kind(code) == CENTRAL) {
+            final double h = c - a;
+            return (f3 + f1 - 2 * f2) / (h * h);
+        } else
+            return 0;
+    }
+}
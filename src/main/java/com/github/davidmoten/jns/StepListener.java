@@ -0,0 +1,15 @@
+package com.github.davidmoten.jns;
+
+/**
+ * Notified after each step of a mesh that records {@link Metrics}.
+ */
+public interface StepListener {
+
+    /**
+     * Called on the stepping thread once a step has finished (or failed).
+     * 
+     * @param metrics
+     *            measurements of the step
+     */
+    void stepped(StepMetrics metrics);
+}
@@ -0,0 +1,99 @@
+package com.github.davidmoten.jns;
+
+import java.util.Arrays;
+
+/**
+ * Measurements of one step of a mesh. Velocity and pressure times are summed
+ * over the threads that stepped the mesh so may exceed the wall time.
+ */
+public final class StepMetrics {
+
+    private final long wallNanos;
+    private final long velocityNanos;
+    private final long pressureNanos;
+    private final long cellsEvaluated;
+    private final long[] newtonIterations;
+    private final long nonConvergences;
+    private final long negativePressureRejections;
+    private final long pressureSolverIterations;
+    private final boolean failed;
+
+    StepMetrics(long wallNanos, long velocityNanos, long pressureNanos, long cellsEvaluated,
+            long[] newtonIterations, long nonConvergences, long negativePressureRejections,
+            long pressureSolverIterations, boolean failed) {
+        this.wallNanos = wallNanos;
+        this.velocityNanos = velocityNanos;
+        this.pressureNanos = pressureNanos;
+        this.cellsEvaluated = cellsEvaluated;
+        this.newtonIterations = newtonIterations;
+        this.nonConvergences = nonConvergences;
+        this.negativePressureRejections = negativePressureRejections;
+        this.pressureSolverIterations = pressureSolverIterations;
+        this.failed = failed;
+    }
+
+    public long wallNanos() {
+        return wallNanos;
+    }
+
+    public long velocityNanos() {
+        return velocityNanos;
+    }
+
+    public long pressureNanos() {
+        return pressureNanos;
+    }
+
+    public long cellsEvaluated() {
+        return cellsEvaluated;
+    }
+
+    /**
+     * Returns the number of cells whose pressure was found with each number
+     * of Newton iterations (the index). Empty if the pressure was solved for
+     * all cells together.
+     * 
+     * @return histogram
+     */
+    public long[] newtonIterations() {
+        return newtonIterations.clone();
+    }
+
+    public long nonConvergences() {
+        return nonConvergences;
+    }
+
+    public long negativePressureRejections() {
+        return negativePressureRejections;
+    }
+
+    /**
+     * Returns the iterations (or cycles) taken by the {@link PressureSolver},
+     * zero if there is none.
+     * 
+     * @return iterations
+     */
+    public long pressureSolverIterations() {
+        return pressureSolverIterations;
+    }
+
+    /**
+     * Returns true if the step threw an exception.
+     * 
+     * @return true if failed
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "StepMetrics [wallNanos=" + wallNanos + ", velocityNanos=" + velocityNanos
+                + ", pressureNanos=" + pressureNanos + ", cellsEvaluated=" + cellsEvaluated
+                + ", newtonIterations=" + Arrays.toString(newtonIterations)
+                + ", nonConvergences=" + nonConvergences + ", negativePressureRejections="
+                + negativePressureRejections + ", pressureSolverIterations="
+                + pressureSolverIterations + ", failed=" + failed + "]";
+    }
+
+}
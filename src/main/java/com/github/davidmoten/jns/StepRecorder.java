@@ -0,0 +1,61 @@
+package com.github.davidmoten.jns;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accumulates the measurements of one step from any number of threads.
+ */
+final class StepRecorder {
+
+    private final long start = System.nanoTime();
+    private final LongAdder velocityNanos = new LongAdder();
+    private final LongAdder pressureNanos = new LongAdder();
+    private final LongAdder cells = new LongAdder();
+    private final LongAdder[] newtonIterations;
+    private final LongAdder nonConvergences = new LongAdder();
+    private final LongAdder negativePressures = new LongAdder();
+    private final LongAdder pressureSolverIterations = new LongAdder();
+
+    StepRecorder(int maxNewtonIterations) {
+        this.newtonIterations = new LongAdder[maxNewtonIterations + 1];
+        for (int i = 0; i < newtonIterations.length; i++)
+            newtonIterations[i] = new LongAdder();
+    }
+
+    void cell() {
+        cells.increment();
+    }
+
+    void velocity(long nanos) {
+        velocityNanos.add(nanos);
+    }
+
+    void pressure(long nanos) {
+        pressureNanos.add(nanos);
+    }
+
+    void newtonIterations(int iterations) {
+        newtonIterations[Math.min(iterations, newtonIterations.length - 1)].increment();
+    }
+
+    void nonConvergence() {
+        nonConvergences.increment();
+    }
+
+    void negativePressure() {
+        negativePressures.increment();
+    }
+
+    void pressureSolverIterations(int iterations) {
+        pressureSolverIterations.add(iterations);
+    }
+
+    StepMetrics finish(boolean failed) {
+        final long[] histogram = new long[newtonIterations.length];
+        for (int i = 0; i < histogram.length; i++)
+            histogram[i] = newtonIterations[i].sum();
+        return new StepMetrics(System.nanoTime() - start, velocityNanos.sum(),
+                pressureNanos.sum(), cells.sum(), histogram, nonConvergences.sum(),
+                negativePressures.sum(), pressureSolverIterations.sum(), failed);
+    }
+}
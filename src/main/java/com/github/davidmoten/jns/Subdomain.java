@@ -0,0 +1,117 @@
+package com.github.davidmoten.jns;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The range of rows along {@link Direction#NORTH} of a {@link DenseMesh}
+ * owned by one process of a {@link Decomposition}, and the layout of rows
+ * sent between processes.
+ *
+ * <p>
+ * A block of rows is sent as the pressure and velocity of every cell (halo
+ * included) of the rows, layer by layer along {@link Direction#UP} with east
+ * varying fastest.
+ */
+final class Subdomain {
+
+    private static final int QUANTITIES = 4;
+
+    final int rank;
+    final int count;
+    // first global north index owned
+    final int fromNorth;
+    final int cellsNorth;
+
+    private Subdomain(int rank, int count, int fromNorth, int cellsNorth) {
+        this.rank = rank;
+        this.count = count;
+        this.fromNorth = fromNorth;
+        this.cellsNorth = cellsNorth;
+    }
+
+    /**
+     * Splits <code>cellsNorth</code> rows into <code>count</code> contiguous
+     * ranges whose sizes differ by at most one.
+     */
+    static Subdomain[] split(int cellsNorth, int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("count must be 1 or more");
+        if (cellsNorth / count < Grid.HALO)
+            throw new IllegalArgumentException("each of " + count
+                    + " subdomains must have at least " + Grid.HALO + " of the " + cellsNorth
+                    + " rows along NORTH");
+        final Subdomain[] subdomains = new Subdomain[count];
+        int from = 0;
+        for (int rank = 0; rank < count; rank++) {
+            final int rows = cellsNorth / count + (rank < cellsNorth % count ? 1 : 0);
+            subdomains[rank] = new Subdomain(rank, count, from, rows);
+            from += rows;
+        }
+        return subdomains;
+    }
+
+    static Subdomain create(int rank, int count, int fromNorth, int cellsNorth) {
+        return new Subdomain(rank, count, fromNorth, cellsNorth);
+    }
+
+    boolean hasLower() {
+        return rank > 0;
+    }
+
+    boolean hasUpper() {
+        return rank < count - 1;
+    }
+
+    /**
+     * Returns the number of bytes in a block of <code>rows</code> rows of
+     * <code>grid</code>.
+     */
+    static int bytes(Grid grid, int rows) {
+        return (grid.cellsEast() + 2 * Grid.HALO) * rows * (grid.cellsUp() + 2 * Grid.HALO)
+                * QUANTITIES * Double.BYTES;
+    }
+
+    /**
+     * Writes the rows of <code>f</code> from <code>north</code> (which may be
+     * in the halo) to <code>out</code>.
+     */
+    static void writeRows(Grid grid, Fields f, int north, int rows, DataOutput out)
+            throws IOException {
+        for (int up = -Grid.HALO; up < grid.cellsUp() + Grid.HALO; up++)
+            for (int n = north; n < north + rows; n++) {
+                final int from = grid.index(-Grid.HALO, n, up);
+                final int to = from + grid.cellsEast() + 2 * Grid.HALO;
+                for (int i = from; i < to; i++) {
+                    out.writeDouble(f.pressure(i));
+                    out.writeDouble(f.velocityEast(i));
+                    out.writeDouble(f.velocityNorth(i));
+                    out.writeDouble(f.velocityUp(i));
+                }
+            }
+    }
+
+    /**
+     * Reads rows written by {@link #writeRows} into <code>f</code> from
+     * <code>north</code>.
+     */
+    static void readRows(Grid grid, Fields f, int north, int rows, DataInput in)
+            throws IOException {
+        for (int up = -Grid.HALO; up < grid.cellsUp() + Grid.HALO; up++)
+            for (int n = north; n < north + rows; n++) {
+                final int from = grid.index(-Grid.HALO, n, up);
+                final int to = from + grid.cellsEast() + 2 * Grid.HALO;
+                for (int i = from; i < to; i++)
+                    f.set(i, in.readDouble(), in.readDouble(), in.readDouble(),
+                            in.readDouble());
+            }
+    }
+
+    @Override
+    public String toString() {
+        return "Subdomain[rank=" + rank + ", count=" + count + ", fromNorth=" + fromNorth
+                + ", cellsNorth=" + cellsNorth + "]";
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.github.davidmoten.jns;
+
+/**
+ * How a dense mesh advances a generation in time (see
+ * {@link Mesh.Builder#timeIntegrator(TimeIntegrator)}). Each scheme is written
+ * in Shu-Osher form as a sequence of forward Euler steps, where every step
+ * after the first is averaged with the generation being stepped:
+ *
+ * <pre>
+ * u<sub>1</sub> = E(u<sub>n</sub>)
+ * u<sub>s+1</sub> = a<sub>s</sub> u<sub>n</sub> + (1 - a<sub>s</sub>) E(u<sub>s</sub>)
+ * </pre>
+ *
+ * where <code>E</code> is a full step of the mesh (velocities then pressure)
+ * over the whole time step and the last <code>u</code> is the new generation.
+ * The averages are convex so each scheme is stable for the same time steps as
+ * forward Euler (strong stability preserving) while being second or third
+ * order accurate in time. Pressure is averaged with the velocities.
+ */
+public enum TimeIntegrator {
+
+    /**
+     * First order, one step per generation (as {@link Solver}).
+     */
+    EULER,
+
+    /**
+     * Heun's method, second order with two steps per generation.
+     */
+    SSP_RK2(0.5),
+
+    /**
+     * The third order scheme of Shu and Osher with three steps per generation.
+     */
+    SSP_RK3(0.75, 1.0 / 3);
+
+    // weight of the generation being stepped after each stage but the first
+    private final double[] previousWeights;
+
+    private TimeIntegrator(double... previousWeights) {
+        this.previousWeights = previousWeights;
+    }
+
+    /**
+     * Returns the number of forward Euler steps per generation.
+     */
+    int stages() {
+        return previousWeights.length + 1;
+    }
+
+    /**
+     * Returns the weight of the generation being stepped in the average that
+     * follows <code>stage</code> (counting from 1).
+     */
+    double previousWeight(int stage) {
+        return previousWeights[stage - 1];
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.github.davidmoten.jns;
+
+import java.util.Arrays;
+
+/**
+ * Steps a {@link Mesh} with the largest time step that the explicit scheme of
+ * {@link Solver} can take stably, recomputed after every generation. The
+ * stable step is the smaller of the advective (CFL) limit
+ *
+ * <pre>
+ * 1 / max(|vEast| / dEast + |vNorth| / dNorth + |vUp| / dUp)
+ * </pre>
+ *
+ * over the fluid cells and the viscous limit
+ *
+ * <pre>
+ * 1 / (viscosity / density * max(sum of 2 / (c - a)&#178;))
+ * </pre>
+ *
+ * multiplied by the safety factor, where the <code>d</code> are the cell
+ * sizes of the mesh (or of the smallest cell that an {@link AdaptiveMesh} can
+ * create) and the sum is of the weights of the second derivative of
+ * {@link Solver} (whose neighbours are at <code>a</code> and <code>c</code>)
+ * over the axes along which a stepped cell has a central stencil. An axis
+ * with a single cell (the up axis of a two dimensional mesh) has no central
+ * stencil so does not limit the time step. The viscous limit does not apply
+ * to a mesh with {@link ImplicitDiffusion} and the advective limit does not
+ * apply to a mesh with {@link Advection#SEMI_LAGRANGIAN} advection.
+ *
+ * <p>
+ * A mesh created with {@link Mesh.Builder} without {@link Mesh.Builder#dense()}
+ * or {@link Mesh.Builder#adaptive(Refinement)} computes its cells only when
+ * asked for so cannot be stepped by a controller.
+ */
+public final class TimeStepController {
+
+    private final double safetyFactor;
+    private final double minTimeStepSeconds;
+    private final double maxTimeStepSeconds;
+
+    private TimeStepController(double safetyFactor, double minTimeStepSeconds,
+            double maxTimeStepSeconds) {
+        this.safetyFactor = safetyFactor;
+        this.minTimeStepSeconds = minTimeStepSeconds;
+        this.maxTimeStepSeconds = maxTimeStepSeconds;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the largest stable time step for the next step of
+     * <code>mesh</code> within the safety factor and the maximum time step.
+     *
+     * @param mesh
+     * @return time step in seconds (infinite if nothing limits it)
+     * @throws IllegalStateException
+     *             if the time step is less than the minimum time step
+     */
+    public double timeStepSeconds(Mesh mesh) {
+        final double dEast;
+        final double dNorth;
+        final double dUp;
+        final double advectiveRate;
+        final double viscousWeight;
+        final Cell any;
+        if (mesh instanceof DenseMesh) {
+            final DenseMesh m = (DenseMesh) mesh;
+            dEast = m.cellSizeEast();
+            dNorth = m.cellSizeNorth();
+            dUp = m.cellSizeUp();
+            advectiveRate = m.advection() == Advection.SEMI_LAGRANGIAN ? 0
+                    : m.maxAdvectiveRate();
+            viscousWeight = m.hasImplicitDiffusion() ? 0 : m.maxViscousWeight();
+            any = m.cell(0, 0, 0);
+        } else if (mesh instanceof AdaptiveMesh) {
+            final Vector size = ((AdaptiveMesh) mesh).smallestCellSize();
+            dEast = size.east();
+            dNorth = size.north();
+            dUp = size.up();
+            double max = 0;
+            for (final Cell cell : mesh.cells())
+                if (cell.type() == CellType.FLUID) {
+                    final Vector v = cell.velocity();
+                    max = Math.max(max, Math.abs(v.east()) / dEast
+                            + Math.abs(v.north()) / dNorth + Math.abs(v.up()) / dUp);
+                }
+            advectiveRate = max;
+            viscousWeight = ((AdaptiveMesh) mesh).maxViscousWeight();
+            any = mesh.cell(0, 0, 0);
+        } else
+            throw new IllegalArgumentException(
+                    "time step control requires a dense or adaptive mesh");
+        final double viscousRate = any.viscosity() / any.density() * viscousWeight;
+        final double rate = Math.max(advectiveRate, viscousRate);
+        final double dt = Math.min(maxTimeStepSeconds, safetyFactor / rate);
+        if (dt < minTimeStepSeconds)
+            throw new IllegalStateException("stable time step " + dt
+                    + "s is less than minTimeStepSeconds=" + minTimeStepSeconds);
+        return dt;
+    }
+
+    /**
+     * Steps <code>mesh</code> until <code>durationSeconds</code> of simulated
+     * time have passed choosing each time step with
+     * {@link #timeStepSeconds(Mesh)}. The last step is shortened so that the
+     * run ends exactly at <code>durationSeconds</code>.
+     *
+     * @param mesh
+     * @param durationSeconds
+     * @return the last generation, the time reached and the time steps taken
+     */
+    public Run run(Mesh mesh, double durationSeconds) {
+        return run(mesh, durationSeconds, Long.MAX_VALUE);
+    }
+
+    /**
+     * As {@link #run(Mesh, double)} but stops after at most
+     * <code>maxSteps</code> steps.
+     *
+     * @param mesh
+     * @param durationSeconds
+     * @param maxSteps
+     * @return the last generation, the time reached and the time steps taken
+     */
+    public Run run(Mesh mesh, double durationSeconds, long maxSteps) {
+        if (mesh == null)
+            throw new NullPointerException("mesh must not be null");
+        if (durationSeconds < 0)
+            throw new IllegalArgumentException("durationSeconds must be >=0");
+        if (maxSteps < 0)
+            throw new IllegalArgumentException("maxSteps must be >=0");
+        Mesh m = mesh;
+        double t = 0;
+        double[] history = new double[16];
+        int steps = 0;
+        while (t < durationSeconds && steps < maxSteps) {
+            final double dt = Math.min(timeStepSeconds(m), durationSeconds - t);
+            m = m.step(dt);
+            if (steps == history.length)
+                history = Arrays.copyOf(history, steps * 2);
+            history[steps++] = dt;
+            // land exactly on the duration despite rounding
+            t = dt == durationSeconds - t ? durationSeconds : t + dt;
+        }
+        return new Run(m, t, Arrays.copyOf(history, steps));
+    }
+
+    /**
+     * The outcome of {@link TimeStepController#run(Mesh, double)}.
+     */
+    public static final class Run {
+
+        private final Mesh mesh;
+        private final double timeSeconds;
+        private final double[] timeStepsSeconds;
+
+        Run(Mesh mesh, double timeSeconds, double[] timeStepsSeconds) {
+            this.mesh = mesh;
+            this.timeSeconds = timeSeconds;
+            this.timeStepsSeconds = timeStepsSeconds;
+        }
+
+        /**
+         * Returns the last generation.
+         *
+         * @return mesh
+         */
+        public Mesh mesh() {
+            return mesh;
+        }
+
+        /**
+         * Returns the simulated time reached.
+         *
+         * @return time in seconds
+         */
+        public double timeSeconds() {
+            return timeSeconds;
+        }
+
+        public int steps() {
+            return timeStepsSeconds.length;
+        }
+
+        /**
+         * Returns the time step of each step in order.
+         *
+         * @return time steps in seconds
+         */
+        public double[] timeStepsSeconds() {
+            return timeStepsSeconds.clone();
+        }
+
+        @Override
+        public String toString() {
+            return "Run[timeSeconds=" + timeSeconds + ", steps=" + steps() + "]";
+        }
+    }
+
+    public static final class Builder {
+
+        private double safetyFactor = 0.5;
+        private double minTimeStepSeconds = 0;
+        private double maxTimeStepSeconds = Double.POSITIVE_INFINITY;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the fraction of the stable time step to take. Defaults to 0.5.
+         *
+         * @param safetyFactor
+         * @return this
+         */
+        public Builder safetyFactor(double safetyFactor) {
+            if (safetyFactor <= 0 || safetyFactor > 1)
+                throw new IllegalArgumentException("safetyFactor must be >0 and <=1");
+            this.safetyFactor = safetyFactor;
+            return this;
+        }
+
+        /**
+         * Sets the time step below which the run is abandoned as unstable.
+         * Defaults to 0.
+         *
+         * @param minTimeStepSeconds
+         * @return this
+         */
+        public Builder minTimeStepSeconds(double minTimeStepSeconds) {
+            if (minTimeStepSeconds < 0)
+                throw new IllegalArgumentException("minTimeStepSeconds must be >=0");
+            this.minTimeStepSeconds = minTimeStepSeconds;
+            return this;
+        }
+
+        public Builder maxTimeStepSeconds(double maxTimeStepSeconds) {
+            if (maxTimeStepSeconds <= 0)
+                throw new IllegalArgumentException("maxTimeStepSeconds must be >0");
+            this.maxTimeStepSeconds = maxTimeStepSeconds;
+            return this;
+        }
+
+        public TimeStepController build() {
+            if (minTimeStepSeconds > maxTimeStepSeconds)
+                throw new IllegalArgumentException(
+                        "minTimeStepSeconds must not be more than maxTimeStepSeconds");
+            return new TimeStepController(safetyFactor, minTimeStepSeconds,
+                    maxTimeStepSeconds);
+        }
+    }
+
+}
@@ -34,6 +34,14 @@ public class Util {
     }
 
     static Mesh createMeshForWhirlpool2D(int cellsEast, int cellsNorth) {
+        return Mesh //
+                .builder() //
+                .cellSize(1) //
+                .creator(createCellCreatorForWhirlpool2D(cellsEast, cellsNorth)) //
+                .build();
+    }
+
+    static CellCreator createCellCreatorForWhirlpool2D(int cellsEast, int cellsNorth) {
         int cellsUp = 1;
         final Function<Indices, CellType> typeFunction = i -> {
             // Floored bottom, obstacle sides, open north side
@@ -63,10 +71,7 @@ public class Util {
         final Function<Indices, Boolean> isBoundary = i -> {
             return i.north() == cellsNorth - 1;
         };
-        return Mesh //
-                .builder() //
-                .cellSize(1) //
-                .creator(CellCreator //
+        return CellCreator //
                 .builder() //
                 .cellsEast(cellsEast) //
                 .cellsNorth(cellsNorth) //
@@ -74,15 +79,15 @@ public class Util {
                 .typeFunction(typeFunction) //
                 .velocityFunction(velocityFunction) //
                 .isBoundaryFunction(isBoundary) //
-                .build()) //
                 .build();
     }
 
-    public static boolean isValid(Double d) {
-        return d != Double.NaN && d != Double.NEGATIVE_INFINITY && d != Double.POSITIVE_INFINITY;
+    public static boolean isValid(double d) {
+        // NaN is not equal to anything (including NaN) so must use isNaN
+        return !Double.isNaN(d) && !Double.isInfinite(d);
     }
 
-    public static double validate(Double d) {
+    public static double validate(double d) {
         if (isValid(d))
             return d;
         else
@@ -0,0 +1,26 @@
+package com.github.davidmoten.jns;
+
+/**
+ * When a dense mesh checks computed values for NaN and infinity (see
+ * {@link Mesh.Builder#validation(Validation)}).
+ */
+public enum Validation {
+
+    /**
+     * Values are not checked.
+     */
+    OFF,
+
+    /**
+     * Every derivative and every updated velocity is checked as it is computed
+     * (as {@link Solver} does).
+     */
+    PER_OPERATION,
+
+    /**
+     * The values of the new generation are checked in a single sweep after
+     * each step and the first invalid cell is reported with its indices.
+     */
+    END_OF_STEP;
+
+}
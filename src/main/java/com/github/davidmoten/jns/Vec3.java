@@ -0,0 +1,87 @@
+package com.github.davidmoten.jns;
+
+/**
+ * A mutable three dimensional vector used to accumulate the result of a
+ * calculation without creating a {@link Vector} for every intermediate value.
+ * Operations give exactly the same result as the corresponding operations of
+ * {@link Vector} but do not check for invalid values; call
+ * {@link #toVector()} once the calculation is complete.
+ */
+final class Vec3 {
+
+    double east;
+    double north;
+    double up;
+
+    Vec3 set(double east, double north, double up) {
+        this.east = east;
+        this.north = north;
+        this.up = up;
+        return this;
+    }
+
+    Vec3 add(Vector v) {
+        east += v.east();
+        north += v.north();
+        up += v.up();
+        return this;
+    }
+
+    Vec3 minus(Vec3 v) {
+        east -= v.east;
+        north -= v.north;
+        up -= v.up;
+        return this;
+    }
+
+    /**
+     * Adds <code>v</code> multiplied by <code>value</code>.
+     */
+    Vec3 addTimes(Vector v, double value) {
+        east += v.east() * value;
+        north += v.north() * value;
+        up += v.up() * value;
+        return this;
+    }
+
+    Vec3 times(double value) {
+        east *= value;
+        north *= value;
+        up *= value;
+        return this;
+    }
+
+    Vec3 divideBy(double value) {
+        if (value == 0)
+            throw new RuntimeException("cannot divide by 0");
+        east /= value;
+        north /= value;
+        up /= value;
+        return this;
+    }
+
+    /**
+     * Subtracts the product of the 3x3 matrix <code>m</code> (rows east, north
+     * then up each ordered east, north, up) and <code>v</code>.
+     */
+    Vec3 minusTimes(double[] m, Vector v) {
+        east -= m[0] * v.east() + m[1] * v.north() + m[2] * v.up();
+        north -= m[3] * v.east() + m[4] * v.north() + m[5] * v.up();
+        up -= m[6] * v.east() + m[7] * v.north() + m[8] * v.up();
+        return this;
+    }
+
+    /**
+     * Returns the current value as a {@link Vector} (which checks that it is
+     * valid).
+     */
+    Vector toVector() {
+        return Vector.create(east, north, up);
+    }
+
+    @Override
+    public String toString() {
+        return "Vec3 [east=" + east + ", north=" + north + ", up=" + up + "]";
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ActiveSetTest {
+
+    @Test
+    public void testZeroToleranceSameAsSteppingEveryCell() {
+        final DenseMesh all = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final DenseMesh active = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().activeSet(0).build();
+        DenseMeshTest.checkSameCells(all.stepMultiple(1, 4), active.stepMultiple(1, 4), 10, 10,
+                1, 0);
+    }
+
+    @Test
+    public void testStillWaterStopsChanging() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(10, 10, 10)).dense().activeSet(1e-6).build();
+        assertTrue(mesh.changedCells() > 0);
+        final DenseMesh next = mesh.stepMultiple(1, 2);
+        assertEquals(0, next.changedCells());
+        DenseMeshTest.checkSameCells(mesh, next.step(1), 10, 10, 10, 1e-6);
+    }
+
+    @Test
+    public void testDisturbanceSpreadsFromItsSource() {
+        final DenseMesh still = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(20, 20, 1)).dense().activeSet(1e-6).build();
+        // settle then disturb one cell in the middle
+        final DenseMesh settled = still.stepMultiple(1, 2);
+        assertEquals(0, settled.changedCells());
+        final DenseMesh disturbed = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(i -> {
+                    final Cell c = settled.cell(i.east(), i.north(), i.up());
+                    if (i.east() == 10 && i.north() == 10 && i.up() == 0)
+                        return disturb(c);
+                    else
+                        return c;
+                }).cellsEast(20).cellsNorth(20).cellsUp(1).dense().activeSet(1e-6).build();
+        // the set grows as the disturbance spreads then shrinks as it dies away
+        DenseMesh m = disturbed;
+        int most = 0;
+        int stepOfMost = 0;
+        for (int step = 1; step <= 80; step++) {
+            m = m.step(1);
+            checkChangedWithinReach(m, step);
+            if (m.changedCells() > most) {
+                most = m.changedCells();
+                stepOfMost = step;
+            }
+        }
+        assertTrue(stepOfMost > 1);
+        assertTrue(most < 400);
+        assertTrue(m.changedCells() > 0);
+        assertTrue(m.changedCells() < most);
+        // reusing the flags of discarded generations gives the same result
+        final DenseMesh multiple = disturbed.stepMultiple(1, 80);
+        assertEquals(m.changedCells(), multiple.changedCells());
+        DenseMeshTest.checkSameCells(m, multiple, 20, 20, 1, 0);
+    }
+
+    private static void checkChangedWithinReach(DenseMesh mesh, int steps) {
+        final Grid grid = mesh.grid();
+        for (int i = 0; i < grid.size(); i++)
+            if (mesh.changed(i)) {
+                assertTrue(Math.abs(grid.indexEast(i) - 10) <= PointQuery.REACH * steps);
+                assertTrue(Math.abs(grid.indexNorth(i) - 10) <= PointQuery.REACH * steps);
+            }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActiveSetRequiresDenseMesh() {
+        Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 1)).activeSet(0).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActiveSetCannotBeUsedWithPressureSolver() {
+        Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 1)).dense().activeSet(0)
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+    }
+
+    private static CellData disturb(Cell c) {
+        return new CellData() {
+            @Override
+            public CellType type() {
+                return c.type();
+            }
+
+            @Override
+            public Vector position() {
+                return c.position();
+            }
+
+            @Override
+            public Vector velocity() {
+                return Vector.create(0.01, 0, 0);
+            }
+
+            @Override
+            public double pressure() {
+                return c.pressure();
+            }
+
+            @Override
+            public double density() {
+                return c.density();
+            }
+
+            @Override
+            public double viscosity() {
+                return c.viscosity();
+            }
+
+            @Override
+            public boolean isBoundary() {
+                return c.isBoundary();
+            }
+        };
+    }
+
+}
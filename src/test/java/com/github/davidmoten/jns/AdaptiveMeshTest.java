@@ -0,0 +1,225 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createMesh;
+import static com.github.davidmoten.jns.TestingUtil.createMeshForWhirlpool2DTenByTen;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collection;
+
+import org.junit.Test;
+
+public class AdaptiveMeshTest {
+
+    private static final double PRECISION = 0.000001;
+
+    @Test
+    public void testUnrefinedStillWaterSameAsLazyMesh() {
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10))
+                .adaptive(Refinement.builder().build()).build();
+        assertEquals(1000, mesh.cells().size());
+        DenseMeshTest.checkSameCells(createMesh().step(1), mesh.step(1), 10, 10, 10, 0);
+    }
+
+    @Test
+    public void testUnrefinedWhirlpoolSameAsLazyMesh() {
+        final Mesh mesh = createWhirlpool(Refinement.builder().maxLevel(0).build());
+        DenseMeshTest.checkSameCells(createMeshForWhirlpool2DTenByTen().stepMultiple(0.1, 3),
+                mesh.stepMultiple(0.1, 3), 10, 10, 1, 0);
+    }
+
+    @Test
+    public void testWhirlpoolIsRefinedBelowMovingBoundaryOnly() {
+        final Mesh mesh = createWhirlpool(Refinement.builder().maxLevel(2).build())
+                .stepMultiple(0.1, 2);
+        final Collection<Cell> cells = mesh.cells();
+        // far fewer cells than refining everywhere
+        assertTrue(cells.size() < 10 * 10 * 16 / 5);
+        // the upper half of the row below the moving boundary is finest
+        assertEquals(2, level(mesh.cell(5, 9, 0).south()));
+        assertEquals(1, level(mesh.cell(5, 8, 0)));
+        assertEquals(0, level(mesh.cell(5, 2, 0)));
+        assertEquals(0, level(mesh.cell(5, 9, 0)));
+        for (final Cell cell : cells)
+            if (cell.type() == CellType.FLUID)
+                assertTrue(cell.pressure() > 0);
+    }
+
+    @Test
+    public void testNeighboursAcrossLevels() {
+        final Mesh mesh = createWhirlpool(Refinement.builder().maxLevel(2).build());
+        final Cell boundary = mesh.cell(5, 9, 0);
+        // the finer neighbour on the facing face nearest the lower corner
+        final Cell fine = boundary.south();
+        assertEquals(2, level(fine));
+        assertEquals(8.375, fine.position().north(), PRECISION);
+        assertEquals(4.625, fine.position().east(), PRECISION);
+        // back to the coarser cell
+        assertEquals(boundary, fine.north());
+        // same level then coarser then the base cell below
+        assertEquals(8.125, fine.south().position().north(), PRECISION);
+        assertEquals(1, level(fine.south().south()));
+        assertEquals(7.75, fine.south().south().position().north(), PRECISION);
+        assertEquals(0, level(fine.south().south().south()));
+        assertEquals(fine.east().east(), fine.neighbour(Direction.EAST, 2));
+        assertEquals(fine.south().south().south(), fine.neighbour(Direction.NORTH, -3));
+        assertEquals(4.875, fine.east().position().east(), PRECISION);
+    }
+
+    @Test
+    public void testOctTreeRefinesInThreeDimensions() {
+        final CellCreator creator = CellCreator.builder().cellsEast(4).cellsNorth(4).cellsUp(4)
+                .velocityFunction(i -> i.up() == 3 ? Vector.create(1, 0, 0) : Vector.ZERO)
+                .isBoundaryFunction(i -> i.up() == 3).build();
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(creator)
+                .adaptive(Refinement.builder().maxLevel(1).build()).build();
+        assertEquals(1, level(mesh.cell(1, 1, 2)));
+        assertEquals(0, level(mesh.cell(1, 1, 0)));
+        // each refined cell becomes 8
+        assertEquals(4 * 4 * 4 + 16 * 7, mesh.cells().size());
+        assertTrue(mesh.step(0.1).cell(1, 1, 3).down().velocity().magnitude() > 0);
+    }
+
+    @Test
+    public void testHorizontalOnlyRefinementUsesQuadTree() {
+        final CellCreator creator = CellCreator.builder().cellsEast(4).cellsNorth(4).cellsUp(4)
+                .velocityFunction(i -> i.up() == 3 ? Vector.create(1, 0, 0) : Vector.ZERO)
+                .isBoundaryFunction(i -> i.up() == 3).build();
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(creator)
+                .adaptive(Refinement.builder().maxLevel(1).horizontalOnly().build()).build();
+        assertEquals(4 * 4 * 4 + 16 * 3, mesh.cells().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCoarsenThresholdMustBeLessThanRefineThreshold() {
+        Refinement.builder().refineThreshold(0.1).coarsenThreshold(0.1).build();
+    }
+
+    @Test
+    public void testDenseOnlyOptionNamedWhenAdaptive() {
+        try {
+            Mesh.builder().cellSize(1).creator(new CellCreator(5, 5, 1))
+                    .adaptive(Refinement.builder().build())
+                    .timeIntegrator(TimeIntegrator.SSP_RK2).build();
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals("timeIntegrator cannot be used with an adaptive mesh", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testRefinedCellsSteppedAsOnUniformlyFineMesh() {
+        // refines the upper rows only so that cells next to the coarse rows
+        // and next to the outside have neighbours at uneven distances
+        final AdaptiveMesh mesh = (AdaptiveMesh) Mesh.builder().cellSize(1)
+                .creator(createShear(8, 1, 0))
+                .adaptive(Refinement.builder().maxLevel(1)
+                        .criterion(Refinement.Criterion.VELOCITY_GRADIENT).refineThreshold(0.01)
+                        .coarsenThreshold(0).build())
+                .build();
+        final Mesh fine = Mesh.builder().cellSize(0.5).creator(createShear(16, 0.5, -0.25))
+                .build();
+        final Solver solver = new Solver();
+        int refined = 0;
+        for (final Cell cell : mesh.cells())
+            if (level(cell) == 1 && cell.type() == CellType.FLUID) {
+                refined++;
+                final Cell other = fine.cell((int) Math.round(2 * cell.position().east() + 0.5),
+                        (int) Math.round(2 * cell.position().north() + 0.5), 0);
+                assertEquals(cell.position(), other.position());
+                // a quadratic field has exact second derivatives on both meshes
+                final VelocityPressure a = mesh.step(new ShearCell(cell), 1);
+                final VelocityPressure b = solver.step(new ShearCell(other), 1);
+                assertEquals(b.getPressure(), a.getPressure(), PRECISION);
+                assertEquals(0, a.getVelocity().minus(b.getVelocity()).magnitude(), 1e-12);
+            }
+        assertTrue(refined > 0 && refined < 16 * 16);
+    }
+
+    /**
+     * Returns a creator of a layer of cells of the given spacing whose
+     * velocity is {@link ShearCell#velocity(Vector)}, fluid outside the box
+     * along NORTH (and not stepped) and unknown outside it along EAST.
+     */
+    private static CellCreator createShear(int cells, double spacing, double offset) {
+        return CellCreator.builder().cellsEast(cells).cellsNorth(cells).cellsUp(1)
+                .positionFunction(i -> Vector.create(i.east() * spacing + offset,
+                        i.north() * spacing + offset, i.up()))
+                .typeFunction(i -> i.up() < 0 ? CellType.OBSTACLE
+                        : i.up() > 0 || i.east() < 0 || i.east() >= cells ? CellType.UNKNOWN
+                                : CellType.FLUID)
+                .velocityFunction(i -> ShearCell.velocity(Vector.create(0,
+                        i.north() * spacing + offset, 0)))
+                .isBoundaryFunction(i -> i.north() < 0 || i.north() >= cells).build();
+    }
+
+    /**
+     * A cell (and its neighbours) with the velocity of a smooth shear at its
+     * position instead of its stored velocity (a refined cell holds the
+     * velocity of the cell it was divided from).
+     */
+    private static final class ShearCell implements Cell {
+
+        private final Cell cell;
+
+        ShearCell(Cell cell) {
+            this.cell = cell;
+        }
+
+        static Vector velocity(Vector position) {
+            final double north = position.north();
+            return Vector.create(0.001 * north * north, 0.002 * north * north, 0);
+        }
+
+        @Override
+        public CellType type() {
+            return cell.type();
+        }
+
+        @Override
+        public Vector position() {
+            return cell.position();
+        }
+
+        @Override
+        public double pressure() {
+            return cell.pressure();
+        }
+
+        @Override
+        public Vector velocity() {
+            return velocity(cell.position());
+        }
+
+        @Override
+        public double density() {
+            return cell.density();
+        }
+
+        @Override
+        public double viscosity() {
+            return cell.viscosity();
+        }
+
+        @Override
+        public boolean isBoundary() {
+            return cell.isBoundary();
+        }
+
+        @Override
+        public Cell neighbour(Direction direction, int count) {
+            return new ShearCell(cell.neighbour(direction, count));
+        }
+    }
+
+    private static int level(Cell cell) {
+        return ((AdaptiveCell) cell).level();
+    }
+
+    private static Mesh createWhirlpool(Refinement refinement) {
+        return Mesh.builder().cellSize(1).creator(Util.createCellCreatorForWhirlpool2D(10, 10))
+                .adaptive(refinement).build();
+    }
+
+}
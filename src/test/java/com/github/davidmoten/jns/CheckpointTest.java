@@ -0,0 +1,113 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRestoredMeshStepsTheSameAsOriginal() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 2);
+        final Path file = file();
+        Checkpoint.write(mesh, 0.1, file);
+        final DenseMesh restored = Checkpoint.read(file);
+        DenseMeshTest.checkSameCells(mesh, restored, 10, 10, 1, 0);
+        DenseMeshTest.checkSameCells(mesh.stepMultiple(0.1, 3), restored.stepMultiple(0.1, 3),
+                10, 10, 1, 0);
+    }
+
+    @Test
+    public void testReadRowsSameAsRowsOfMesh() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 2);
+        final Path file = file();
+        Checkpoint.write(mesh, 0.1, file);
+        final DenseMesh rows = Checkpoint.readRows(file, 3, 4, DenseSettings.defaults());
+        assertEquals(4, rows.grid().cellsNorth());
+        // the halo rows either side come from the neighbouring rows
+        for (int north = -Grid.HALO; north < 4 + Grid.HALO; north++)
+            for (int east = -Grid.HALO; east < 10 + Grid.HALO; east++)
+                for (int up = -Grid.HALO; up < 1 + Grid.HALO; up++) {
+                    final Cell x = mesh.cell(east, north + 3, up);
+                    final Cell y = rows.cell(east, north, up);
+                    assertEquals(x.type(), y.type());
+                    assertEquals(x.position(), y.position());
+                    if (x.type() == CellType.FLUID) {
+                        assertEquals(x.pressure(), y.pressure(), 0);
+                        assertEquals(x.velocity(), y.velocity());
+                    }
+                }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadRowsOutsideCheckpointNotAllowed() {
+        final Path file = file();
+        Checkpoint.write(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.1, file);
+        Checkpoint.readRows(file, 8, 4, DenseSettings.defaults());
+    }
+
+    @Test
+    public void testHeader() {
+        final Path file = file();
+        Checkpoint.write(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.25, file);
+        final Checkpoint.Header h = Checkpoint.header(file);
+        assertEquals(10, h.cellsEast());
+        assertEquals(10, h.cellsNorth());
+        assertEquals(1, h.cellsUp());
+        assertEquals(1, h.cellSizeEast(), 0);
+        assertEquals(0.25, h.timeStepSeconds(), 0);
+        assertEquals(1025, h.density(), 0);
+    }
+
+    @Test
+    public void testRestoreWithBuilderSettings() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen().step(0.1);
+        final Path file = file();
+        Checkpoint.write(mesh, 0.1, file);
+        final Mesh restored = Mesh.builder().checkpoint(file).parallelism(2)
+                .storage(DenseStorage.mapped(folder.getRoot().toPath())).build();
+        DenseMeshTest.checkSameCells(mesh.stepMultiple(0.1, 2), restored.stepMultiple(0.1, 2),
+                10, 10, 1, 0);
+    }
+
+    @Test
+    public void testWriteAsyncReplacesExistingCheckpoint() throws Exception {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final Path file = file();
+        Checkpoint.write(mesh, 0.1, file);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final DenseMesh next = mesh.step(0.1);
+            assertEquals(file, Checkpoint.writeAsync(next, 0.2, file, executor).get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(0.2, Checkpoint.header(file).timeStepSeconds(), 0);
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotACheckpoint() throws IOException {
+        final Path file = file();
+        Files.write(file, new byte[100]);
+        Checkpoint.read(file);
+    }
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve("mesh.checkpoint");
+    }
+
+}
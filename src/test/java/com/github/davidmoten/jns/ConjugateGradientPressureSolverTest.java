@@ -0,0 +1,102 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ConjugateGradientPressureSolverTest {
+
+    private static final double PRECISION = 0.00001;
+
+    @Test
+    public void testSystemIsSymmetric() {
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(
+                createWhirlpool(10).grid()));
+        final Random random = new Random(1);
+        final double[] x = new double[system.size()];
+        final double[] y = new double[system.size()];
+        for (int u = 0; u < system.size(); u++) {
+            x[u] = random.nextDouble();
+            y[u] = random.nextDouble();
+        }
+        final double[] ax = new double[system.size()];
+        final double[] ay = new double[system.size()];
+        system.multiply(x, ax);
+        system.multiply(y, ay);
+        double xay = 0;
+        double yax = 0;
+        for (int u = 0; u < system.size(); u++) {
+            xay += x[u] * ay[u];
+            yax += y[u] * ax[u];
+        }
+        assertEquals(xay, yax, 1e-12);
+    }
+
+    @Test
+    public void testHydrostaticPressureSatisfiesSystem() {
+        final DenseMesh mesh = createDenseMesh();
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(mesh.grid()));
+        assertEquals(1000, system.size());
+        assertTrue(system.isSingular());
+        assertEquals(0, system.residual(mesh.fields()), 1e-8);
+        assertEquals(0, new ConjugateGradientPressureSolver().solve(system, mesh.fields()));
+    }
+
+    @Test
+    public void testStillWaterDoesNotChange() {
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10))
+                .dense().pressureSolver(new ConjugateGradientPressureSolver()).build();
+        DenseMeshTest.checkSameCells(mesh, mesh.stepMultiple(1, 3), 10, 10, 10, PRECISION);
+    }
+
+    @Test
+    public void testSolutionSatisfiesSystem() {
+        final DenseMesh mesh = createWhirlpool(30).step(0.1);
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(mesh.grid()));
+        assertFalse(system.isSingular());
+        final Fields fields = new ArrayFields(mesh.grid().size());
+        fields.copyAll(mesh.fields());
+        assertEquals(0, system.residual(fields), 1e-4);
+        final Random random = new Random(1);
+        for (int u = 0; u < system.size(); u++) {
+            final int i = system.index(u);
+            fields.set(i, fields.pressure(i) + random.nextDouble() * 100,
+                    fields.velocityEast(i), fields.velocityNorth(i), fields.velocityUp(i));
+        }
+        assertTrue(system.residual(fields) > 1);
+        final int iterations = new ConjugateGradientPressureSolver().solve(system, fields);
+        assertTrue(iterations > 0);
+        assertTrue(iterations < system.size());
+        assertEquals(0, system.residual(fields), 1e-4);
+        // warm start from the solution needs no more iterations
+        assertEquals(0, new ConjugateGradientPressureSolver().solve(system, fields));
+    }
+
+    @Test
+    public void testWhirlpoolSteps() {
+        final Mesh mesh = createWhirlpool(30).stepMultiple(0.1, 5);
+        // the moving boundary drags the fluid below it
+        assertTrue(mesh.cell(15, 28, 0).velocity().east() > 0);
+        for (int east = 1; east < 29; east++)
+            for (int north = 1; north < 29; north++)
+                assertTrue(mesh.cell(east, north, 0).pressure() > 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPressureSolverRequiresDenseMesh() {
+        Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10))
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+    }
+
+    private static DenseMesh createWhirlpool(int size) {
+        return (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(size, size)).dense()
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class DecompositionTest {
+
+    @Test
+    public void testTwoProcessesSameAsOneProcess() {
+        checkSameAsOneProcess(2);
+    }
+
+    @Test
+    public void testThreeProcessesSameAsOneProcess() {
+        checkSameAsOneProcess(3);
+    }
+
+    @Test
+    public void testValidationOfMeshAppliedInEachProcess() {
+        final DenseMesh mesh = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().validation(Validation.END_OF_STEP)
+                .build();
+        checkSameAsOneProcess(mesh, 2);
+    }
+
+    @Test
+    public void testValidationOffReachesEachProcess() {
+        final DenseMesh mesh = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().validation(Validation.OFF)
+                .build();
+        final int index = mesh.grid().index(4, 4, 0);
+        mesh.fields().set(index, mesh.fields().pressure(index), Double.NaN, 0, 0);
+        try {
+            Decomposition.builder().build().run(mesh, 0.1, 1);
+            fail();
+        } catch (final RuntimeException e) {
+            // per operation validation would have failed on the NaN itself
+            assertTrue(e.getMessage(), e.getMessage().contains("could not find pressure"));
+        }
+    }
+
+    private static void checkSameAsOneProcess(int processes) {
+        checkSameAsOneProcess(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), processes);
+    }
+
+    private static void checkSameAsOneProcess(DenseMesh mesh, int processes) {
+        final Decomposition.Run run = Decomposition.builder().processes(processes).build()
+                .run(mesh, 0.1, 5);
+        assertEquals(5, run.steps());
+        final DenseMesh expected = mesh.stepMultiple(0.1, 5);
+        final DenseMesh actual = run.mesh();
+        final Grid grid = mesh.grid();
+        int fluid = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i)) {
+                fluid++;
+                assertEquals(expected.fields().pressure(i), actual.fields().pressure(i), 0);
+                assertEquals(expected.fields().velocityEast(i), actual.fields().velocityEast(i),
+                        0);
+                assertEquals(expected.fields().velocityNorth(i),
+                        actual.fields().velocityNorth(i), 0);
+                assertEquals(expected.fields().velocityUp(i), actual.fields().velocityUp(i), 0);
+            }
+        assertTrue(fluid > 0);
+        for (final double residual : run.residuals())
+            assertTrue(residual > 0);
+    }
+
+    @Test
+    public void testStopsWhenResidualWithinTolerance() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(6, 6, 3)).dense().build();
+        final Decomposition.Run run = Decomposition.builder().processes(2).tolerance(1e-9)
+                .build().run(mesh, 1, 100);
+        assertEquals(1, run.steps());
+        assertTrue(run.residuals()[0] <= 1e-9);
+    }
+
+    @Test
+    public void testFailureOfSubdomainReported() {
+        // too fast for the time step so the pressure cannot be found
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(CellCreator.builder().cellsEast(10).cellsNorth(10).cellsUp(1)
+                        .velocityFunction(i -> Vector.create(-(i.north() - 4.5),
+                                i.east() - 4.5, 0))
+                        .build())
+                .dense().build();
+        try {
+            Decomposition.builder().build().run(mesh, 0.5, 20);
+            fail();
+        } catch (final RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("subdomain"));
+            assertTrue(e.getMessage(), e.getMessage().contains("could not find pressure"));
+        }
+    }
+
+    @Test
+    public void testSplitCoversRows() {
+        final Subdomain[] subdomains = Subdomain.split(11, 3);
+        assertEquals(0, subdomains[0].fromNorth);
+        assertEquals(4, subdomains[0].cellsNorth);
+        assertEquals(4, subdomains[1].fromNorth);
+        assertEquals(4, subdomains[1].cellsNorth);
+        assertEquals(8, subdomains[2].fromNorth);
+        assertEquals(3, subdomains[2].cellsNorth);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooManyProcessesNotAllowed() {
+        Decomposition.builder().processes(6).build()
+                .run(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testActiveSetNotAllowed() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(6, 6, 3)).dense().activeSet(1e-9).build();
+        Decomposition.builder().build().run(mesh, 0.1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPressureSolverNotAllowed() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(6, 6, 3)).dense()
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+        Decomposition.builder().build().run(mesh, 0.1, 1);
+    }
+}
@@ -0,0 +1,112 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static com.github.davidmoten.jns.TestingUtil.createDenseMeshForWhirlpool2DTenByTen;
+import static com.github.davidmoten.jns.TestingUtil.createMesh;
+import static com.github.davidmoten.jns.TestingUtil.createMeshForWhirlpool2DTenByTen;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class DenseMeshTest {
+
+    private static final double PRECISION = 0.00001;
+
+    @Test
+    public void testDenseMeshHasSameCellsAsLazyMesh() {
+        checkSameCells(createMesh(), createDenseMesh(), 10, 10, 10, 0);
+    }
+
+    @Test
+    public void testNeighbourIsFoundByIndexArithmetic() {
+        final Mesh mesh = createDenseMesh();
+        final Cell cell = mesh.cell(5, 5, 0);
+        assertEquals(CellType.FLUID, cell.type());
+        assertEquals(CellType.OBSTACLE, cell.down().type());
+        assertEquals(mesh.cell(6, 5, 0), cell.east());
+        assertEquals(mesh.cell(5, 4, 0), cell.south());
+        assertEquals(Util.pressureAtDepth(8), cell.up().pressure(), PRECISION);
+    }
+
+    @Test
+    public void testStepStillWaterSameAsLazyMesh() {
+        checkSameCells(createMesh().step(1), createDenseMesh().step(1), 10, 10, 10, 0);
+    }
+
+    @Test
+    public void testStepWhirlpoolSameAsLazyMesh() {
+        checkSameCells(createMeshForWhirlpool2DTenByTen().stepMultiple(1, 3),
+                createDenseMeshForWhirlpool2DTenByTen().stepMultiple(1, 3), 10, 10, 1, 0);
+    }
+
+    @Test
+    public void testStepMultipleSameAsRepeatedStep() {
+        final DenseMesh mesh = createDenseMeshForWhirlpool2DTenByTen();
+        checkSameCells(mesh.step(1).step(1).step(1).step(1), mesh.stepMultiple(1, 4), 10, 10, 1,
+                0);
+    }
+
+    @Test
+    public void testStepMultipleDoesNotModifyOriginalMesh() {
+        final DenseMesh mesh = createDenseMeshForWhirlpool2DTenByTen();
+        final Mesh after = mesh.stepMultiple(1, 3);
+        checkSameCells(createMeshForWhirlpool2DTenByTen(), mesh, 10, 10, 1, 0);
+        checkSameCells(createMeshForWhirlpool2DTenByTen().stepMultiple(1, 3), after, 10, 10, 1,
+                0);
+    }
+
+    @Test
+    public void testStepLazilySameAsStep() {
+        final DenseMesh mesh = createDenseMeshForWhirlpool2DTenByTen();
+        final Cell a = mesh.stepLazily(1).stepLazily(1).cell(5, 7, 0);
+        final Cell b = mesh.stepMultiple(1, 2).cell(5, 7, 0);
+        assertEquals(a.pressure(), b.pressure(), 0);
+        assertEquals(a.velocity(), b.velocity());
+    }
+
+    @Test
+    public void testLazyMeshCanBeMaterialised() {
+        final Mesh lazy = createMeshForWhirlpool2DTenByTen().step(1);
+        final Mesh dense = Mesh.builder().cellSize(1).creator(lazy::cell).cellsEast(10)
+                .cellsNorth(10).cellsUp(1).dense().build();
+        checkSameCells(lazy, dense, 10, 10, 1, 0);
+    }
+
+    @Test
+    public void testParallelStepSameAsSequentialStep() {
+        final Mesh sequential = Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(30, 30)).dense().build();
+        final Mesh parallel = Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(30, 30)).dense().parallelism(4)
+                .build();
+        checkSameCells(sequential.stepMultiple(1, 3), parallel.stepMultiple(1, 3), 30, 30, 1, 0);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testCellOutsideOfHaloThrowsException() {
+        createDenseMesh().cell(-Grid.HALO - 1, 0, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDenseMeshWithoutSizesThrowsException() {
+        Mesh.builder().cellSize(1).creator(i -> null).dense().build();
+    }
+
+    static void checkSameCells(Mesh a, Mesh b, int cellsEast, int cellsNorth, int cellsUp,
+            double precision) {
+        for (int east = 0; east < cellsEast; east++)
+            for (int north = 0; north < cellsNorth; north++)
+                for (int up = 0; up < cellsUp; up++) {
+                    final Cell x = a.cell(east, north, up);
+                    final Cell y = b.cell(east, north, up);
+                    assertEquals(x.type(), y.type());
+                    assertEquals(x.position(), y.position());
+                    if (x.type() == CellType.FLUID) {
+                        assertEquals(x.pressure(), y.pressure(), precision);
+                        assertEquals(x.velocity().east(), y.velocity().east(), precision);
+                        assertEquals(x.velocity().north(), y.velocity().north(), precision);
+                        assertEquals(x.velocity().up(), y.velocity().up(), precision);
+                    }
+                }
+    }
+}
@@ -0,0 +1,117 @@
+package com.github.davidmoten.jns;
+
+import static com.github.davidmoten.jns.TestingUtil.createDenseMesh;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DenseSolverTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameAsSolverForStillWater() {
+        checkSameAsSolver(createDenseMesh(), 1);
+    }
+
+    @Test
+    public void testSameAsSolverForStillWater2D() {
+        checkSameAsSolver((DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(10, 10, 1)).dense().build(), 1);
+    }
+
+    @Test
+    public void testSameAsSolverForWhirlpool() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense().build();
+        checkSameAsSolver(mesh.stepMultiple(0.1, 3), 0.1);
+    }
+
+    @Test
+    public void testStepDoesNotAllocate() {
+        final DenseMesh mesh = ((DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(30, 30)).dense().build())
+                        .stepMultiple(0.1, 2);
+        final Grid grid = mesh.grid();
+        final DenseSolver solver = new DenseSolver(grid);
+        final DenseSolver.Workspace w = solver.workspace();
+        final Fields next = new ArrayFields(grid.size());
+        // warm up
+        sweep(mesh, solver, w, next, 20);
+        final com.sun.management.ThreadMXBean bean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final long threadId = Thread.currentThread().getId();
+        final long before = bean.getThreadAllocatedBytes(threadId);
+        final long cells = sweep(mesh, solver, w, next, 20);
+        final long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes for " + cells + " cells",
+                allocated < cells);
+    }
+
+    @Test
+    public void testStencilCodesAreCachedForEveryFluidCell() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense().build();
+        final Grid grid = mesh.grid();
+        final DenseSolver solver = new DenseSolver(grid);
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i) && grid.isInterior(i))
+                for (final Direction d : Direction.values())
+                    assertEquals(Stencil.classify(grid.type(i - grid.stride(d)),
+                            grid.type(i + grid.stride(d))), solver.stencil(i, d.ordinal()));
+    }
+
+    @Test
+    public void testStencilCodesInMappedStorageSameAsOnHeap() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense().build();
+        final Grid grid = mesh.grid();
+        final DenseSolver heap = new DenseSolver(grid);
+        final DenseSolver mapped = new DenseSolver(grid,
+                DenseStorage.mapped(folder.getRoot().toPath()), Validation.PER_OPERATION, true,
+                true);
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i) && grid.isInterior(i))
+                for (final Direction d : Direction.values())
+                    assertEquals(heap.stencil(i, d.ordinal()), mapped.stencil(i, d.ordinal()));
+    }
+
+    private static long sweep(DenseMesh mesh, DenseSolver solver, DenseSolver.Workspace w,
+            Fields next, int times) {
+        final Grid grid = mesh.grid();
+        long count = 0;
+        for (int n = 0; n < times; n++)
+            for (int i = 0; i < grid.size(); i++)
+                if (grid.isFluid(i) && grid.isInterior(i)) {
+                    solver.step(mesh.fields(), i, 0.1, next, w);
+                    count++;
+                }
+        return count;
+    }
+
+    private static void checkSameAsSolver(DenseMesh mesh, double timeStepSeconds) {
+        final Solver solver = new Solver();
+        final Grid grid = mesh.grid();
+        final DenseSolver denseSolver = new DenseSolver(grid);
+        final DenseSolver.Workspace w = denseSolver.workspace();
+        final Fields next = new ArrayFields(grid.size());
+        for (int i = 0; i < grid.size(); i++) {
+            if (grid.isFluid(i) && grid.isInterior(i)) {
+                final Cell cell = mesh.cell(grid.indexEast(i), grid.indexNorth(i),
+                        grid.indexUp(i));
+                final VelocityPressure vp = solver.step(cell, timeStepSeconds);
+                denseSolver.step(mesh.fields(), i, timeStepSeconds, next, w);
+                assertEquals(vp.getPressure(), next.pressure(i), 0);
+                assertEquals(vp.getVelocity().east(), next.velocityEast(i), 0);
+                assertEquals(vp.getVelocity().north(), next.velocityNorth(i), 0);
+                assertEquals(vp.getVelocity().up(), next.velocityUp(i), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.github.davidmoten.jns.GenerationWriter.Format;
+
+public class GenerationWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesRawGenerations() throws IOException {
+        DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final Path[] files = new Path[3];
+        try (GenerationWriter writer = new GenerationWriter(directory(), Format.RAW, 1)) {
+            for (int i = 0; i < files.length; i++) {
+                files[i] = writer.write(mesh);
+                mesh = mesh.step(0.1);
+            }
+        }
+        assertEquals("generation-000002.raw", files[2].getFileName().toString());
+        final ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(files[2])).order(
+                ByteOrder.LITTLE_ENDIAN);
+        final int n = 10 * 10;
+        assertEquals(4 * n * Float.BYTES, b.capacity());
+        final DenseMesh written = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 2);
+        final int cell = 3 + 10 * 8;
+        final Cell c = written.cell(3, 8, 0);
+        assertEquals((float) c.pressure(), b.getFloat(cell * Float.BYTES), 0);
+        assertEquals((float) c.velocity().east(), b.getFloat((n + cell) * Float.BYTES), 0);
+        assertEquals((float) c.velocity().north(), b.getFloat((2 * n + cell) * Float.BYTES), 0);
+        assertEquals((float) c.velocity().up(), b.getFloat((3 * n + cell) * Float.BYTES), 0);
+    }
+
+    @Test
+    public void testWritesVtkImageData() throws IOException {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final Path file;
+        try (GenerationWriter writer = new GenerationWriter(directory(), Format.VTK, 4)) {
+            file = writer.write(mesh);
+        }
+        final byte[] bytes = Files.readAllBytes(file);
+        final String text = new String(bytes, StandardCharsets.US_ASCII);
+        assertTrue(text.contains("WholeExtent=\"0 9 0 9 0 0\""));
+        assertTrue(text.endsWith("</VTKFile>\n"));
+        final int start = text.indexOf("<AppendedData encoding=\"raw\">\n_") + 31;
+        final ByteBuffer b = ByteBuffer.wrap(bytes, start, bytes.length - start).slice()
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final int n = 100;
+        assertEquals(n * Float.BYTES, b.getLong(0));
+        final int cell = 4 + 10 * 5;
+        assertEquals((float) mesh.cell(4, 5, 0).pressure(),
+                b.getFloat(Long.BYTES + cell * Float.BYTES), 0);
+        final int types = Long.BYTES + n * Float.BYTES;
+        assertEquals(n, b.getLong(types));
+        assertEquals(CellType.FLUID.ordinal(), b.get(types + Long.BYTES + cell));
+        final int velocities = types + Long.BYTES + n;
+        assertEquals(3 * n * Float.BYTES, b.getLong(velocities));
+        assertEquals((float) mesh.cell(4, 5, 0).velocity().north(),
+                b.getFloat(velocities + Long.BYTES + (3 * cell + 1) * Float.BYTES), 0);
+    }
+
+    @Test(expected = UncheckedIOException.class)
+    public void testCloseThrowsIfWriteFailed() {
+        try (GenerationWriter writer = new GenerationWriter(directory().resolve("missing"),
+                Format.RAW, 1)) {
+            writer.write(TestingUtil.createDenseMeshForWhirlpool2DTenByTen());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCannotWriteAfterClose() {
+        final GenerationWriter writer = new GenerationWriter(directory(), Format.RAW, 1);
+        writer.close();
+        writer.write(TestingUtil.createDenseMeshForWhirlpool2DTenByTen());
+    }
+
+    private Path directory() {
+        return folder.getRoot().toPath();
+    }
+
+}
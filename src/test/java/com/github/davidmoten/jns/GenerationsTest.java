@@ -0,0 +1,75 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import rx.observers.TestSubscriber;
+import rx.schedulers.Schedulers;
+
+import com.github.davidmoten.jns.Generations.Generation;
+
+public class GenerationsTest {
+
+    @Test
+    public void testEmitsEachGeneration() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final List<Generation> list = Generations.from(mesh, 0.1, 3).toList().toBlocking()
+                .single();
+        assertEquals(4, list.size());
+        assertEquals(0, list.get(0).number());
+        assertTrue(mesh == list.get(0).mesh());
+        assertEquals(0.3, list.get(3).timeSeconds(), 1e-12);
+        DenseMeshTest.checkSameCells(mesh.stepMultiple(0.1, 3), list.get(3).mesh(), 10, 10, 1,
+                0);
+    }
+
+    @Test
+    public void testStopsSteppingWhenUnsubscribed() {
+        final List<Generation> list = Generations
+                .from(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.1).take(3)
+                .toList().toBlocking().single();
+        assertEquals(2, list.get(2).number());
+    }
+
+    @Test
+    public void testLatestDeliversLastGenerationToSlowConsumer() {
+        final TestSubscriber<Generation> ts = new TestSubscriber<>();
+        Generations.from(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.1, 30)
+                .lift(Generations.<Generation> latest(Schedulers.newThread()))
+                .doOnNext(g -> sleep(20)).subscribe(ts);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertNoErrors();
+        final List<Generation> list = ts.getOnNextEvents();
+        assertTrue(list.size() < 31);
+        assertEquals(30, list.get(list.size() - 1).number());
+        for (int i = 1; i < list.size(); i++)
+            assertTrue(list.get(i).number() > list.get(i - 1).number());
+    }
+
+    @Test
+    public void testDropWhileBusy() {
+        final TestSubscriber<Generation> ts = new TestSubscriber<>();
+        Generations.from(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 0.1, 30)
+                .lift(Generations.<Generation> dropWhileBusy(Schedulers.newThread()))
+                .doOnNext(g -> sleep(20)).subscribe(ts);
+        ts.awaitTerminalEvent(10, TimeUnit.SECONDS);
+        ts.assertNoErrors();
+        final List<Generation> list = ts.getOnNextEvents();
+        assertEquals(0, list.get(0).number());
+        assertTrue(list.size() < 31);
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (final InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+
+public class GridExecutorTest {
+
+    @Test
+    public void testSequentialVisitsEveryInteriorCellOnce() {
+        checkVisitsEveryInteriorCellOnce(GridExecutor.sequential());
+    }
+
+    @Test
+    public void testParallelVisitsEveryInteriorCellOnce() {
+        checkVisitsEveryInteriorCellOnce(GridExecutor.create(4));
+    }
+
+    @Test
+    public void testExecutorsAreSharedPerParallelism() {
+        assertSame(GridExecutor.create(3), GridExecutor.create(3));
+        assertSame(GridExecutor.sequential(), GridExecutor.create(1));
+        assertEquals(3, GridExecutor.create(3).parallelism());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelismZeroThrowsException() {
+        GridExecutor.create(0);
+    }
+
+    private static void checkVisitsEveryInteriorCellOnce(GridExecutor executor) {
+        final Grid grid = ((DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(7, 5, 3)).dense().build()).grid();
+        final AtomicIntegerArray visits = new AtomicIntegerArray(grid.size());
+        executor.forEachRow(grid, (from, to) -> {
+            for (int i = from; i < to; i++)
+                visits.incrementAndGet(i);
+        });
+        for (int i = 0; i < grid.size(); i++)
+            assertEquals(grid.isInterior(i) ? 1 : 0, visits.get(i));
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class ImplicitDiffusionTest {
+
+    private static final double VISCOSITY = 3000;
+    // well above the explicit viscous limit of about 0.057s
+    private static final double TIME_STEP = 0.2;
+
+    @Test
+    public void testStillWaterStaysStill() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(5, 5, 5)).dense()
+                .implicitDiffusion(ImplicitDiffusion.backwardEuler()).build();
+        final Mesh next = mesh.step(1);
+        for (final Cell cell : next.cells())
+            if (cell.type() == CellType.FLUID)
+                assertEquals(0, cell.velocity().magnitude(), 1e-12);
+    }
+
+    @Test
+    public void testExplicitViscousWhirlpoolIsUnstableAtLargeTimeStep() {
+        try {
+            whirlpool(Mesh.builder()).stepMultiple(TIME_STEP, 20);
+            fail();
+        } catch (final RuntimeException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBackwardEulerViscousWhirlpoolIsStableAtLargeTimeStep() {
+        checkStable(ImplicitDiffusion.backwardEuler());
+    }
+
+    @Test
+    public void testCrankNicolsonViscousWhirlpoolIsStableAtLargeTimeStep() {
+        checkStable(ImplicitDiffusion.crankNicolson());
+    }
+
+    private static void checkStable(ImplicitDiffusion diffusion) {
+        final DenseMesh mesh = whirlpool(Mesh.builder().implicitDiffusion(diffusion))
+                .stepMultiple(TIME_STEP, 20);
+        final Grid grid = mesh.grid();
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i)) {
+                final double speed = Math.abs(mesh.fields().velocityEast(i))
+                        + Math.abs(mesh.fields().velocityNorth(i))
+                        + Math.abs(mesh.fields().velocityUp(i));
+                assertTrue(Util.isValid(speed));
+                assertTrue(speed < 5);
+            }
+    }
+
+    @Test
+    public void testTimeStepNotLimitedByViscosity() {
+        final DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(new CellCreator(5, 5, 5)).dense()
+                .implicitDiffusion(ImplicitDiffusion.backwardEuler()).build();
+        assertTrue(mesh.hasImplicitDiffusion());
+        assertEquals(Double.POSITIVE_INFINITY,
+                TimeStepController.builder().build().timeStepSeconds(mesh), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThetaBelowHalfNotAllowed() {
+        ImplicitDiffusion.builder().theta(0.4);
+    }
+
+    private static DenseMesh whirlpool(Mesh.Builder builder) {
+        return (DenseMesh) builder.cellSize(1).cellsEast(10).cellsNorth(10).cellsUp(1)
+                .creator(withViscosity(Util.createCellCreatorForWhirlpool2D(10, 10), VISCOSITY))
+                .dense().build();
+    }
+
+    private static Function<Indices, CellData> withViscosity(Function<Indices, CellData> creator,
+            double viscosity) {
+        return i -> {
+            final CellData data = creator.apply(i);
+            return new CellData() {
+
+                @Override
+                public CellType type() {
+                    return data.type();
+                }
+
+                @Override
+                public Vector position() {
+                    return data.position();
+                }
+
+                @Override
+                public double pressure() {
+                    return data.pressure();
+                }
+
+                @Override
+                public Vector velocity() {
+                    return data.velocity();
+                }
+
+                @Override
+                public double density() {
+                    return data.density();
+                }
+
+                @Override
+                public double viscosity() {
+                    return viscosity;
+                }
+
+                @Override
+                public boolean isBoundary() {
+                    return data.isBoundary();
+                }
+            };
+        };
+    }
+}
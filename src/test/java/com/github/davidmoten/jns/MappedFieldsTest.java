@@ -0,0 +1,80 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedFieldsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testValuesAreStoredAcrossChunks() {
+        // 3 slabs of 1000 cells each a page aligned 32768 bytes, 2 per chunk
+        final Fields fields = new MappedFields(directory(), 3000, 1000, 65536);
+        for (int i = 0; i < fields.size(); i++)
+            fields.set(i, i, i + 0.25, i + 0.5, i + 0.75);
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(i, fields.pressure(i), 0);
+            assertEquals(i + 0.25, fields.velocityEast(i), 0);
+            assertEquals(i + 0.5, fields.velocityNorth(i), 0);
+            assertEquals(i + 0.75, fields.velocityUp(i), 0);
+        }
+    }
+
+    @Test
+    public void testCopyAll() {
+        final Fields a = new MappedFields(directory(), 3000, 1000, 65536);
+        for (int i = 0; i < a.size(); i++)
+            a.set(i, i, -i, 2 * i, 3 * i);
+        final Fields b = new MappedFields(directory(), 3000, 1000, 65536);
+        b.copyAll(a);
+        final Fields c = new ArrayFields(3000);
+        c.copyAll(b);
+        for (int i = 0; i < a.size(); i++) {
+            assertEquals(i, c.pressure(i), 0);
+            assertEquals(3 * i, c.velocityUp(i), 0);
+        }
+    }
+
+    @Test
+    public void testSlabsArePageAligned() {
+        assertEquals(0, MappedFields.pageAligned(0));
+        assertEquals(4096, MappedFields.pageAligned(1));
+        assertEquals(4096, MappedFields.pageAligned(4096));
+        assertEquals(8192, MappedFields.pageAligned(4097));
+    }
+
+    @Test
+    public void testFilesAreDeletedOnceMapped() {
+        new MappedFields(directory(), 3000, 1000);
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSizeMustBeWholeSlabs() {
+        new MappedFields(directory(), 3001, 1000);
+    }
+
+    @Test
+    public void testMappedMeshSameAsHeapMesh() {
+        final Mesh heap = Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense().build();
+        final Mesh mapped = Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense()
+                .storage(DenseStorage.mapped(directory())).build();
+        DenseMeshTest.checkSameCells(heap, mapped, 10, 10, 1, 0);
+        DenseMeshTest.checkSameCells(heap.stepMultiple(0.1, 3), mapped.stepMultiple(0.1, 3), 10,
+                10, 1, 0);
+    }
+
+    private Path directory() {
+        return folder.getRoot().toPath();
+    }
+
+}
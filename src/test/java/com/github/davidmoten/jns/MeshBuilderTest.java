@@ -0,0 +1,72 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.function.UnaryOperator;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link Mesh.Builder} rejects the options of a dense mesh on a
+ * lazy mesh and the options that cannot be combined with an active set.
+ */
+public class MeshBuilderTest {
+
+    @Test
+    public void testImplicitDiffusionRequiresDenseMesh() {
+        checkRequiresDenseMesh(b -> b.implicitDiffusion(ImplicitDiffusion.backwardEuler()),
+                "implicitDiffusion");
+    }
+
+    @Test
+    public void testImplicitDiffusionNotAllowedWithActiveSet() {
+        checkNotAllowedWithActiveSet(
+                b -> b.implicitDiffusion(ImplicitDiffusion.backwardEuler()),
+                "implicit diffusion");
+    }
+
+    @Test
+    public void testSemiLagrangianAdvectionRequiresDenseMesh() {
+        checkRequiresDenseMesh(b -> b.advection(Advection.SEMI_LAGRANGIAN), "advection");
+    }
+
+    @Test
+    public void testSemiLagrangianAdvectionNotAllowedWithActiveSet() {
+        checkNotAllowedWithActiveSet(b -> b.advection(Advection.SEMI_LAGRANGIAN),
+                "semi-Lagrangian advection");
+    }
+
+    @Test
+    public void testTimeIntegratorRequiresDenseMesh() {
+        checkRequiresDenseMesh(b -> b.timeIntegrator(TimeIntegrator.SSP_RK2), "timeIntegrator");
+    }
+
+    @Test
+    public void testTimeIntegratorNotAllowedWithActiveSet() {
+        checkNotAllowedWithActiveSet(b -> b.timeIntegrator(TimeIntegrator.SSP_RK2),
+                "a multistage time integrator");
+    }
+
+    private static void checkRequiresDenseMesh(UnaryOperator<Mesh.Builder> option,
+            String name) {
+        try {
+            option.apply(Mesh.builder().cellSize(1).creator(new CellCreator(5, 5, 5))).build();
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals(name + " requires a dense mesh", e.getMessage());
+        }
+    }
+
+    private static void checkNotAllowedWithActiveSet(UnaryOperator<Mesh.Builder> option,
+            String description) {
+        try {
+            option.apply(Mesh.builder().cellSize(1).creator(new CellCreator(5, 5, 5)).dense()
+                    .activeSet(1e-9)).build();
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals("an active set cannot be used with " + description, e.getMessage());
+        }
+    }
+
+}
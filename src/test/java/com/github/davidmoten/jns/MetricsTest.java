@@ -0,0 +1,86 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void testListenerReceivesMeasurementsOfEachStep() {
+        final Metrics metrics = new Metrics();
+        final List<StepMetrics> list = new CopyOnWriteArrayList<>();
+        metrics.addListener(list::add);
+        final DenseMesh mesh = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().metrics(metrics).build();
+        mesh.stepMultiple(0.1, 3);
+        assertEquals(3, list.size());
+        for (final StepMetrics m : list) {
+            assertFalse(m.failed());
+            assertTrue(m.cellsEvaluated() > 0);
+            assertTrue(m.wallNanos() > 0);
+            assertTrue(m.pressureNanos() > 0);
+            long sum = 0;
+            for (final long count : m.newtonIterations())
+                sum += count;
+            // every stepped cell found its pressure with Newton's method
+            assertEquals(m.cellsEvaluated(), sum);
+            assertEquals(0, m.pressureSolverIterations());
+        }
+        assertEquals(3, metrics.getSteps());
+        assertEquals(3 * list.get(0).cellsEvaluated(), metrics.getCellsEvaluated());
+        assertEquals(0, metrics.getFailedSteps());
+    }
+
+    @Test
+    public void testSameResultWithMetrics() {
+        final DenseMesh plain = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final DenseMesh measured = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().metrics(new Metrics()).build();
+        DenseMeshTest.checkSameCells(plain.stepMultiple(0.1, 2), measured.stepMultiple(0.1, 2),
+                10, 10, 1, 0);
+    }
+
+    @Test
+    public void testPressureSolverIterationsAreRecorded() {
+        final Metrics metrics = new Metrics();
+        final DenseMesh mesh = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .pressureSolver(new ConjugateGradientPressureSolver()).metrics(metrics).build();
+        mesh.step(0.1);
+        assertEquals(1, metrics.getSteps());
+        assertTrue(metrics.getPressureSolverIterations() > 0);
+        assertTrue(metrics.getCellsEvaluated() > 0);
+    }
+
+    @Test
+    public void testRegisterWithJmx() throws Exception {
+        final Metrics metrics = new Metrics();
+        final DenseMesh mesh = (DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen().metrics(metrics).build();
+        final ObjectName name = metrics.register("test");
+        try {
+            mesh.step(0.1);
+            assertEquals(1L,
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Steps"));
+        } finally {
+            Metrics.unregister(name);
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMetricsRequireDenseMesh() {
+        Mesh.builder().cellSize(1).creator(new CellCreator(5, 5, 1)).metrics(new Metrics())
+                .build();
+    }
+
+}
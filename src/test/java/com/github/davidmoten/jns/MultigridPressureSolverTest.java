@@ -0,0 +1,90 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.davidmoten.jns.MultigridPressureSolver.Cycle;
+
+public class MultigridPressureSolverTest {
+
+    private static final double PRECISION = 0.00001;
+
+    @Test
+    public void testStillWaterDoesNotChange() {
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10))
+                .dense().pressureSolver(new MultigridPressureSolver()).build();
+        DenseMeshTest.checkSameCells(mesh, mesh.stepMultiple(1, 3), 10, 10, 10, PRECISION);
+    }
+
+    @Test
+    public void testVCycleSolutionSatisfiesSystem() {
+        checkSolutionSatisfiesSystem(Cycle.V);
+    }
+
+    @Test
+    public void testWCycleSolutionSatisfiesSystem() {
+        checkSolutionSatisfiesSystem(Cycle.W);
+    }
+
+    @Test
+    public void testSameAsConjugateGradient() {
+        final Mesh a = createWhirlpool(30, new MultigridPressureSolver()).stepMultiple(0.1, 3);
+        final Mesh b = createWhirlpool(30, new ConjugateGradientPressureSolver()).stepMultiple(
+                0.1, 3);
+        DenseMeshTest.checkSameCells(a, b, 30, 30, 1, 0.001);
+    }
+
+    @Test
+    public void testCyclesDoNotGrowWithGridSize() {
+        final int small = cycles(32);
+        final int large = cycles(128);
+        assertTrue(small + ", " + large, large <= 2 * small);
+    }
+
+    @Test
+    public void testSingularSystem() {
+        final DenseMesh mesh = TestingUtil.createDenseMesh();
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(mesh.grid()));
+        final Fields fields = perturbed(system, mesh.fields());
+        new MultigridPressureSolver().solve(system, fields);
+        assertEquals(0, system.residual(fields), 1e-4);
+    }
+
+    private static void checkSolutionSatisfiesSystem(Cycle cycle) {
+        final DenseMesh mesh = createWhirlpool(30, new MultigridPressureSolver(cycle)).step(0.1);
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(mesh.grid()));
+        assertEquals(0, system.residual(mesh.fields()), 1e-4);
+        final Fields fields = perturbed(system, mesh.fields());
+        assertTrue(new MultigridPressureSolver(cycle).solve(system, fields) > 0);
+        assertEquals(0, system.residual(fields), 1e-4);
+    }
+
+    private static int cycles(int size) {
+        final DenseMesh mesh = createWhirlpool(size, new MultigridPressureSolver());
+        final PoissonSystem system = new PoissonSystem(new DenseSolver(mesh.grid()));
+        return new MultigridPressureSolver().solve(system, perturbed(system, mesh.fields()));
+    }
+
+    private static Fields perturbed(PoissonSystem system, Fields original) {
+        final Fields fields = new ArrayFields(original.size());
+        fields.copyAll(original);
+        final Random random = new Random(1);
+        for (int u = 0; u < system.size(); u++) {
+            final int i = system.index(u);
+            fields.set(i, fields.pressure(i) + random.nextDouble() * 1000,
+                    fields.velocityEast(i), fields.velocityNorth(i), fields.velocityUp(i));
+        }
+        return fields;
+    }
+
+    private static DenseMesh createWhirlpool(int size, PressureSolver pressureSolver) {
+        return (DenseMesh) Mesh.builder().cellSize(1)
+                .creator(Util.createCellCreatorForWhirlpool2D(size, size)).dense()
+                .pressureSolver(pressureSolver).build();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class PointQueryTest {
+
+    @Test
+    public void testQueryStillWaterSameAsSteppingWholeMesh() {
+        final Indices i = new Indices(5, 5, 5);
+        final PointQuery.Result result = TestingUtil.createMesh().query(
+                Collections.singleton(i), 1, 2);
+        final Cell expected = TestingUtil.createMesh().stepMultiple(1, 2).cell(i);
+        assertEquals(expected.pressure(), result.cell(i).pressure(), 0);
+        assertEquals(expected.velocity(), result.cell(i).velocity());
+        // the cell itself after the second step and its stencil after the
+        // first
+        assertEquals(1 + 13, result.evaluatedCells());
+    }
+
+    @Test
+    public void testQueryWhirlpoolSameAsSteppingWholeMesh() {
+        final Indices a = new Indices(5, 9, 0);
+        final Indices b = new Indices(2, 3, 0);
+        final PointQuery.Result result = TestingUtil.createMeshForWhirlpool2DTenByTen().query(
+                Arrays.asList(a, b), 0.1, 3);
+        final Mesh expected = TestingUtil.createMeshForWhirlpool2DTenByTen().stepMultiple(0.1,
+                3);
+        for (final Indices i : Arrays.asList(a, b)) {
+            assertEquals(expected.cell(i).pressure(), result.cell(i).pressure(), 0);
+            assertEquals(expected.cell(i).velocity(), result.cell(i).velocity());
+        }
+        assertTrue(result.evaluatedCells() < 3 * 100);
+    }
+
+    @Test
+    public void testQueryRecordsMetricsForEachGeneration() {
+        final Indices i = new Indices(5, 5, 5);
+        final Metrics metrics = new Metrics();
+        final PointQuery.Result result = PointQuery.evaluate(TestingUtil.createMesh(),
+                Collections.singleton(i), 1, 2, Integer.MAX_VALUE, metrics);
+        assertEquals(2, metrics.getSteps());
+        assertEquals(result.evaluatedCells(), metrics.getCellsEvaluated());
+        long sum = 0;
+        for (final long count : metrics.getNewtonIterationHistogram())
+            sum += count;
+        assertEquals(result.evaluatedCells(), sum);
+        assertEquals(0, metrics.getNonConvergences());
+    }
+
+    @Test
+    public void testQueryDenseMesh() {
+        final Indices i = new Indices(4, 4, 0);
+        final PointQuery.Result result = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .query(Collections.singleton(i), 0.1, 2);
+        final Cell expected = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 2).cell(i);
+        assertEquals(expected.pressure(), result.cell(i).pressure(), 0);
+        assertEquals(expected.velocity(), result.cell(i).velocity());
+    }
+
+    @Test
+    public void testZeroStepsReturnsCurrentValues() {
+        final Indices i = new Indices(5, 5, 5);
+        final PointQuery.Result result = TestingUtil.createMesh().query(
+                Collections.singleton(i), 1, 0);
+        assertEquals(Util.pressureAtDepth(4), result.cell(i).pressure(), 0.00001);
+        assertEquals(0, result.evaluatedCells());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConeLargerThanMaxCellsThrows() {
+        PointQuery.evaluate(TestingUtil.createMesh(), Collections.singleton(new Indices(5, 5,
+                5)), 1, 3, 20);
+    }
+
+    @Test
+    public void testConeOfMaxCellsAllowed() {
+        // both generations are held while the second is evaluated
+        final PointQuery.Result result = PointQuery.evaluate(TestingUtil.createMesh(),
+                Collections.singleton(new Indices(5, 5, 5)), 1, 2, 1 + 13);
+        assertEquals(1 + 13, result.evaluatedCells());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConeOfOneMoreThanMaxCellsThrows() {
+        PointQuery.evaluate(TestingUtil.createMesh(), Collections.singleton(new Indices(5, 5,
+                5)), 1, 2, 13);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequestedCellsMoreThanMaxCellsThrows() {
+        PointQuery.evaluate(TestingUtil.createMesh(), Arrays.asList(new Indices(5, 5, 5),
+                new Indices(5, 5, 4), new Indices(5, 5, 3)), 1, 1, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultistageTimeIntegratorNotAllowed() {
+        Mesh.builder().cellSize(1).creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense()
+                .timeIntegrator(TimeIntegrator.SSP_RK3).build()
+                .query(Collections.singleton(new Indices(4, 4, 0)), 0.1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPressureSolverNotAllowed() {
+        Mesh.builder().cellSize(1).creator(Util.createCellCreatorForWhirlpool2D(10, 10)).dense()
+                .pressureSolver(new ConjugateGradientPressureSolver()).build()
+                .query(Collections.singleton(new Indices(4, 4, 0)), 0.1, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAdaptiveMeshNotAllowed() {
+        Mesh.builder().cellSize(1).creator(Util.createCellCreatorForWhirlpool2D(10, 10))
+                .adaptive(Refinement.builder().build()).build()
+                .query(Collections.singleton(new Indices(4, 4, 0)), 0.1, 1);
+    }
+
+}
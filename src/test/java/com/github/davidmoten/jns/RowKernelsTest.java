@@ -0,0 +1,185 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RowKernelsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameAsDenseSolverForStillWater() {
+        checkSameAsDenseSolver(TestingUtil.createDenseMesh());
+    }
+
+    @Test
+    public void testSameAsDenseSolverForWhirlpool() {
+        checkSameAsDenseSolver(TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 3));
+    }
+
+    @Test
+    public void testSameAsDenseSolverForMappedFields() {
+        checkSameAsDenseSolver(((DenseMesh) TestingUtil
+                .createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .storage(DenseStorage.mapped(folder.getRoot().toPath())).build())
+                        .stepMultiple(0.1, 3));
+    }
+
+    @Test
+    public void testPressureGradientSameAsSolver() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen()
+                .stepMultiple(0.1, 3);
+        final Mesh lazy = TestingUtil.createMeshForWhirlpool2DTenByTen().stepMultiple(0.1, 3);
+        final Grid grid = mesh.grid();
+        final RowKernels kernels = new RowKernels(new DenseSolver(grid));
+        final Solver solver = new Solver();
+        final double[] out = new double[grid.cellsEast()];
+        int checked = 0;
+        for (int north = 0; north < grid.cellsNorth(); north++) {
+            final int from = grid.index(0, north, 0);
+            for (final Direction d : Direction.values()) {
+                kernels.first(mesh.fields(), DenseSolver.PRESSURE, d.ordinal(), from,
+                        from + grid.cellsEast(), out);
+                for (int east = 0; east < grid.cellsEast(); east++) {
+                    final Cell cell = lazy.cell(east, north, 0);
+                    if (cell.type() == CellType.FLUID && !cell.isBoundary()) {
+                        assertEquals(solver.getPressureGradient(cell, d), out[east], 0);
+                        checked++;
+                    }
+                }
+            }
+        }
+        assertTrue(checked > 0);
+    }
+
+    @Test
+    public void testStepSameWithRowKernels() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen());
+    }
+
+    @Test
+    public void testStepSameWithRowKernelsInParallelWithMetrics() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .parallelism(3).metrics(new Metrics()));
+    }
+
+    @Test
+    public void testStepSameWithRowKernelsAndPressureSolver() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .pressureSolver(new ConjugateGradientPressureSolver()));
+    }
+
+    @Test
+    public void testStepSameWithRowKernelsAndImplicitDiffusion() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .implicitDiffusion(ImplicitDiffusion.backwardEuler()));
+    }
+
+    @Test
+    public void testStepSameWithRowKernelsAndSemiLagrangianAdvection() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .advection(Advection.SEMI_LAGRANGIAN));
+    }
+
+    @Test
+    public void testStepSameWithRowKernelsAndTimeIntegrator() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .timeIntegrator(TimeIntegrator.SSP_RK3));
+    }
+
+    @Test
+    public void testStepOfMappedFieldsSameWithRowKernels() {
+        checkStepSameWithRowKernels(TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .storage(DenseStorage.mapped(folder.getRoot().toPath())));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRowKernelsWithActiveSetNotAllowed() {
+        TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen().activeSet(0).rowKernels()
+                .build();
+    }
+
+    private static void checkStepSameWithRowKernels(Mesh.Builder builder) {
+        final DenseMesh expected = ((DenseMesh) builder.build()).stepMultiple(0.1, 3);
+        final DenseMesh actual = ((DenseMesh) builder.rowKernels().build()).stepMultiple(0.1,
+                3);
+        final Grid grid = expected.grid();
+        for (int i = 0; i < grid.size(); i++) {
+            assertEquals(expected.fields().pressure(i), actual.fields().pressure(i), 0);
+            assertEquals(expected.fields().velocityEast(i), actual.fields().velocityEast(i), 0);
+            assertEquals(expected.fields().velocityNorth(i), actual.fields().velocityNorth(i),
+                    0);
+            assertEquals(expected.fields().velocityUp(i), actual.fields().velocityUp(i), 0);
+        }
+    }
+
+    private static void checkSameAsDenseSolver(DenseMesh mesh) {
+        final Grid grid = mesh.grid();
+        final Fields f = mesh.fields();
+        final DenseSolver solver = new DenseSolver(grid);
+        final RowKernels kernels = new RowKernels(solver);
+        final int n = grid.cellsEast();
+        final double[] out = new double[n];
+        final double[] scratch = new double[n];
+        int checked = 0;
+        for (int up = 0; up < grid.cellsUp(); up++)
+            for (int north = 0; north < grid.cellsNorth(); north++) {
+                final int from = grid.index(0, north, up);
+                final int to = from + n;
+                for (int k = 0; k < 3; k++)
+                    for (int q = 0; q < 4; q++) {
+                        kernels.second(f, q, k, from, to, out);
+                        for (int i = from; i < to; i++)
+                            if (grid.isFluid(i))
+                                assertEquals(solver.second(f, i, k, q, value(f, i, q)),
+                                        out[i - from], 0);
+                        kernels.first(f, q, k, from, to, out);
+                        for (int i = from; i < to; i++)
+                            if (grid.isFluid(i)) {
+                                assertEquals(solver.first(f, i, k, q, value(f, i, q)),
+                                        out[i - from], 0);
+                                checked++;
+                            }
+                    }
+                kernels.pressureLaplacian(f, from, to, out, scratch);
+                for (int i = from; i < to; i++)
+                    if (grid.isFluid(i)) {
+                        final double p = f.pressure(i);
+                        assertEquals((solver.second(f, i, 0, DenseSolver.PRESSURE, p)
+                                + solver.second(f, i, 1, DenseSolver.PRESSURE, p))
+                                + solver.second(f, i, 2, DenseSolver.PRESSURE, p), out[i - from],
+                                0);
+                    }
+                for (int k = 0; k < 3; k++) {
+                    kernels.velocityLaplacian(f, k, from, to, out, scratch);
+                    for (int i = from; i < to; i++)
+                        if (grid.isFluid(i))
+                            assertEquals((solver.second(f, i, k, DenseSolver.VELOCITY_EAST,
+                                    f.velocityEast(i))
+                                    + solver.second(f, i, k, DenseSolver.VELOCITY_NORTH,
+                                            f.velocityNorth(i)))
+                                    + solver.second(f, i, k, DenseSolver.VELOCITY_UP,
+                                            f.velocityUp(i)), out[i - from], 0);
+                }
+            }
+        assertTrue(checked > 0);
+    }
+
+    private static double value(Fields f, int index, int quantity) {
+        if (quantity == DenseSolver.PRESSURE)
+            return f.pressure(index);
+        else if (quantity == DenseSolver.VELOCITY_EAST)
+            return f.velocityEast(index);
+        else if (quantity == DenseSolver.VELOCITY_NORTH)
+            return f.velocityNorth(index);
+        else
+            return f.velocityUp(index);
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.function.Function;
+
+import org.junit.Test;
+
+public class SemiLagrangianTest {
+
+    private static final double PRECISION = 1e-12;
+
+    @Test
+    public void testUniformFlowIsUnchanged() {
+        final DenseMesh mesh = dense(i -> Vector.create(1, 0.5, 0));
+        final DenseSolver.Workspace w = advect(mesh, 5, 5, 5, 0.5);
+        assertEquals(1, w.velocityEast, PRECISION);
+        assertEquals(0.5, w.velocityNorth, PRECISION);
+        assertEquals(0, w.velocityUp, PRECISION);
+    }
+
+    @Test
+    public void testLinearFlowIsInterpolatedExactly() {
+        final double rate = 0.1;
+        final double dt = 1.5;
+        final DenseMesh mesh = dense(i -> Vector.create(rate * i.east(), 0, 0));
+        final DenseSolver.Workspace w = advect(mesh, 6, 5, 5, dt);
+        final double east = 6;
+        // velocity at the midpoint of the path
+        final double mid = rate * (east - dt / 2 * rate * east);
+        assertEquals(rate * (east - dt * mid), w.velocityEast, PRECISION);
+        assertEquals(0, w.velocityNorth, PRECISION);
+    }
+
+    @Test
+    public void testPathIntoObstacleIsShortened() {
+        // flowing up so the path goes back into the floor
+        final DenseMesh mesh = dense(i -> Vector.create(0, 0, 1));
+        final DenseSolver.Workspace w = advect(mesh, 5, 5, 0, 10);
+        assertTrue(Util.isValid(w.velocityUp));
+        assertTrue(w.velocityUp >= 0 && w.velocityUp <= 1);
+    }
+
+    @Test
+    public void testVortexStableAboveCflLimit() {
+        final CellCreator creator = vortex(0.1);
+        final double cfl = TimeStepController.builder().safetyFactor(1).build()
+                .timeStepSeconds(Mesh.builder().cellSize(1).creator(creator).dense().build());
+        final double dt = 3;
+        assertTrue(dt > 2 * cfl);
+        DenseMesh mesh = (DenseMesh) Mesh.builder().cellSize(1).creator(creator).dense()
+                .advection(Advection.SEMI_LAGRANGIAN).build();
+        mesh = mesh.stepMultiple(dt, 20);
+        final Grid grid = mesh.grid();
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i)) {
+                final double speed = Math.abs(mesh.fields().velocityEast(i))
+                        + Math.abs(mesh.fields().velocityNorth(i))
+                        + Math.abs(mesh.fields().velocityUp(i));
+                assertTrue(Util.isValid(speed));
+                assertTrue(speed <= 0.9 + PRECISION);
+            }
+    }
+
+    @Test
+    public void testTimeStepNotLimitedByAdvection() {
+        final Mesh mesh = Mesh.builder().cellSize(1).creator(vortex(0.1)).dense()
+                .advection(Advection.SEMI_LAGRANGIAN).build();
+        final double kinematicViscosity = Util.SEAWATER_MEAN_VISCOSITY
+                / Util.SEAWATER_MEAN_DENSITY_KG_PER_M3;
+        // only the viscous limit
+        assertEquals(1 / (kinematicViscosity * 2 * 2 / (2 * 2)), TimeStepController.builder()
+                .safetyFactor(1).build().timeStepSeconds(mesh), PRECISION);
+    }
+
+    private static DenseMesh dense(Function<Indices, Vector> velocity) {
+        return (DenseMesh) Mesh.builder().cellSize(1).creator(CellCreator.builder()
+                .cellsEast(10).cellsNorth(10).cellsUp(10).velocityFunction(velocity).build())
+                .dense().build();
+    }
+
+    private static DenseSolver.Workspace advect(DenseMesh mesh, int east, int north, int up,
+            double timeStepSeconds) {
+        final DenseSolver.Workspace w = new DenseSolver(mesh.grid()).workspace();
+        new SemiLagrangian(mesh.grid()).advect(mesh.fields(),
+                mesh.grid().index(east, north, up), timeStepSeconds, w);
+        return w;
+    }
+
+    private static CellCreator vortex(double rate) {
+        return CellCreator.builder().cellsEast(10).cellsNorth(10).cellsUp(1)
+                .velocityFunction(i -> Vector.create(-(i.north() - 4.5) * rate,
+                        (i.east() - 4.5) * rate, 0))
+                .build();
+    }
+}
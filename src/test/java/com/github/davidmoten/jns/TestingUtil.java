@@ -13,4 +13,18 @@ class TestingUtil {
     static Mesh createMeshForWhirlpool2DTenByTen() {
         return Util.createMeshForWhirlpool2D(10, 10);
     }
+
+    static DenseMesh createDenseMesh() {
+        return (DenseMesh) Mesh.builder().cellSize(1).creator(new CellCreator(10, 10, 10)).dense()
+                .build();
+    }
+
+    static DenseMesh createDenseMeshForWhirlpool2DTenByTen() {
+        return (DenseMesh) createDenseMeshBuilderForWhirlpool2DTenByTen().build();
+    }
+
+    static Mesh.Builder createDenseMeshBuilderForWhirlpool2DTenByTen() {
+        return Mesh.builder().cellSize(1).creator(Util.createCellCreatorForWhirlpool2D(10, 10))
+                .dense();
+    }
 }
@@ -0,0 +1,93 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeIntegratorTest {
+
+    private static final double DURATION = 1;
+
+    @Test
+    public void testStages() {
+        assertEquals(1, TimeIntegrator.EULER.stages());
+        assertEquals(2, TimeIntegrator.SSP_RK2.stages());
+        assertEquals(3, TimeIntegrator.SSP_RK3.stages());
+    }
+
+    @Test
+    public void testEulerConvergesAtFirstOrder() {
+        checkOrder(TimeIntegrator.EULER, 1);
+    }
+
+    @Test
+    public void testSspRk2ConvergesAtSecondOrder() {
+        checkOrder(TimeIntegrator.SSP_RK2, 2);
+    }
+
+    @Test
+    public void testSspRk3ConvergesAtThirdOrder() {
+        checkOrder(TimeIntegrator.SSP_RK3, 3);
+    }
+
+    @Test
+    public void testHigherOrderIsMoreAccurateAtSameTimeStep() {
+        for (final double timeStep : new double[] { 0.2, 0.1 }) {
+            final double euler = error(run(TimeIntegrator.EULER, timeStep), Reference.MESH);
+            final double rk2 = error(run(TimeIntegrator.SSP_RK2, timeStep), Reference.MESH);
+            final double rk3 = error(run(TimeIntegrator.SSP_RK3, timeStep), Reference.MESH);
+            assertTrue("euler=" + euler + ", rk2=" + rk2, rk2 < euler);
+            assertTrue("rk2=" + rk2 + ", rk3=" + rk3, rk3 < rk2);
+        }
+    }
+
+    private static void checkOrder(TimeIntegrator integrator, int order) {
+        final DenseMesh reference = Reference.MESH;
+        final double coarse = error(run(integrator, 0.2), reference);
+        final double fine = error(run(integrator, 0.1), reference);
+        // halving the time step divides the error by about 2^order
+        final double ratio = coarse / fine;
+        assertTrue("ratio=" + ratio, ratio > Math.pow(2, order) * 0.8);
+        assertTrue("ratio=" + ratio, ratio < Math.pow(2, order) * 1.25);
+    }
+
+    @Test
+    public void testStepMultipleSameAsRepeatedStep() {
+        final DenseMesh mesh = create(TimeIntegrator.SSP_RK3);
+        final DenseMesh multiple = mesh.stepMultiple(0.1, 3);
+        final DenseMesh repeated = mesh.step(0.1).step(0.1).step(0.1);
+        assertEquals(0, error(multiple, repeated), 0);
+    }
+
+    private static DenseMesh create(TimeIntegrator integrator) {
+        return (DenseMesh) TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen()
+                .timeIntegrator(integrator).build();
+    }
+
+    private static DenseMesh run(TimeIntegrator integrator, double timeStepSeconds) {
+        return create(integrator).stepMultiple(timeStepSeconds,
+                Math.round(DURATION / timeStepSeconds));
+    }
+
+    private static double error(DenseMesh a, DenseMesh b) {
+        final Grid grid = a.grid();
+        double max = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i))
+                max = Math.max(max, Math.abs(a.fields().velocityEast(i)
+                        - b.fields().velocityEast(i))
+                        + Math.abs(a.fields().velocityNorth(i) - b.fields().velocityNorth(i))
+                        + Math.abs(a.fields().velocityUp(i) - b.fields().velocityUp(i)));
+        return max;
+    }
+
+    /**
+     * Holds the result of {@link TimeIntegrator#SSP_RK3} with a much smaller
+     * time step, computed once when first used.
+     */
+    private static final class Reference {
+
+        static final DenseMesh MESH = run(TimeIntegrator.SSP_RK3, 0.0125);
+    }
+}
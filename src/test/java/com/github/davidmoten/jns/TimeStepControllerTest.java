@@ -0,0 +1,109 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TimeStepControllerTest {
+
+    private static final double PRECISION = 1e-12;
+
+    @Test
+    public void testStillWaterLimitedByViscosity() {
+        final double dt = TimeStepController.builder().safetyFactor(0.5).build()
+                .timeStepSeconds(TestingUtil.createDenseMesh());
+        final double kinematicViscosity = Util.SEAWATER_MEAN_VISCOSITY
+                / Util.SEAWATER_MEAN_DENSITY_KG_PER_M3;
+        // central along three axes with neighbours 2m apart
+        assertEquals(0.5 / (kinematicViscosity * 3 * 2 / (2 * 2)), dt, PRECISION);
+    }
+
+    @Test
+    public void testMaxTimeStep() {
+        assertEquals(0.01, TimeStepController.builder().maxTimeStepSeconds(0.01).build()
+                .timeStepSeconds(TestingUtil.createDenseMesh()), 0);
+    }
+
+    @Test
+    public void testWhirlpoolLimitedByVelocity() {
+        final DenseMesh mesh = TestingUtil.createDenseMeshForWhirlpool2DTenByTen();
+        final double dt = TimeStepController.builder().safetyFactor(1).build()
+                .timeStepSeconds(mesh);
+        final Grid grid = mesh.grid();
+        double max = 0;
+        for (int i = 0; i < grid.size(); i++)
+            if (grid.isFluid(i))
+                max = Math.max(max, Math.abs(mesh.fields().velocityEast(i))
+                        + Math.abs(mesh.fields().velocityNorth(i))
+                        + Math.abs(mesh.fields().velocityUp(i)));
+        assertTrue(max > 0);
+        // the single layer along UP does not limit the viscous time step
+        assertEquals(Math.min(1 / max, 1 / (30.0 / 1025 * 2 * 2 / (2 * 2))), dt, PRECISION);
+    }
+
+    @Test
+    public void testRunReachesDuration() {
+        final TimeStepController.Run run = TimeStepController.builder().build()
+                .run(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 1);
+        assertEquals(1, run.timeSeconds(), 0);
+        assertEquals(run.steps(), run.timeStepsSeconds().length);
+        double sum = 0;
+        for (final double dt : run.timeStepsSeconds()) {
+            assertTrue(dt > 0);
+            sum += dt;
+        }
+        assertEquals(1, sum, PRECISION);
+        assertTrue(run.mesh() instanceof DenseMesh);
+    }
+
+    @Test
+    public void testRunStopsAfterMaxSteps() {
+        final TimeStepController.Run run = TimeStepController.builder().build()
+                .run(TestingUtil.createDenseMeshForWhirlpool2DTenByTen(), 1000, 2);
+        assertEquals(2, run.steps());
+        assertEquals(run.timeStepsSeconds()[0] + run.timeStepsSeconds()[1], run.timeSeconds(),
+                0);
+    }
+
+    @Test
+    public void testAdaptiveMeshUsesSmallestCell() {
+        final Mesh mesh = Mesh.builder().cellSize(1).cellsEast(4).cellsNorth(4).cellsUp(4)
+                .creator(new CellCreator(4, 4, 4))
+                .adaptive(Refinement.builder().maxLevel(1).build()).build();
+        final double dt = TimeStepController.builder().safetyFactor(1).build()
+                .timeStepSeconds(mesh);
+        assertEquals(1 / (30.0 / 1025 * 3 * 2 / (1 * 1)), dt, PRECISION);
+    }
+
+    @Test
+    public void testAdaptiveMeshWithOneLayerNotLimitedAlongUp() {
+        final Mesh mesh = Mesh.builder().cellSize(1).cellsEast(4).cellsNorth(4).cellsUp(1)
+                .creator(new CellCreator(4, 4, 1))
+                .adaptive(Refinement.builder().maxLevel(1).horizontalOnly().build()).build();
+        final double dt = TimeStepController.builder().safetyFactor(1).build()
+                .timeStepSeconds(mesh);
+        assertEquals(1 / (30.0 / 1025 * 2 * 2 / (1 * 1)), dt, PRECISION);
+    }
+
+    @Test
+    public void testViscousWeightOfDenseMeshSkipsAxesWithOneLayer() {
+        // 2 / (2 * 2) for each axis with a central stencil
+        final DenseMesh mesh = TestingUtil.createDenseMesh();
+        assertEquals(1.5, mesh.maxViscousWeight(), PRECISION);
+        assertEquals(1.0, TestingUtil.createDenseMeshForWhirlpool2DTenByTen().maxViscousWeight(),
+                PRECISION);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBelowMinTimeStepThrows() {
+        TimeStepController.builder().minTimeStepSeconds(1000).build()
+                .timeStepSeconds(TestingUtil.createDenseMesh());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLazyMeshNotSupported() {
+        TimeStepController.builder().build().timeStepSeconds(TestingUtil.createMesh());
+    }
+
+}
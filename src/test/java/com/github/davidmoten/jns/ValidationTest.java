@@ -0,0 +1,88 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class ValidationTest {
+
+    @Test
+    public void testIsValidRejectsNaNAndInfinity() {
+        assertFalse(Util.isValid(Double.NaN));
+        assertFalse(Util.isValid(Double.POSITIVE_INFINITY));
+        assertFalse(Util.isValid(Double.NEGATIVE_INFINITY));
+        assertTrue(Util.isValid(0));
+        assertTrue(Util.isValid(-Double.MAX_VALUE));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testValidateRejectsNaN() {
+        Util.validate(Double.NaN);
+    }
+
+    @Test
+    public void testOffSameAsPerOperation() {
+        checkSameAsPerOperation(Validation.OFF);
+    }
+
+    @Test
+    public void testEndOfStepSameAsPerOperation() {
+        checkSameAsPerOperation(Validation.END_OF_STEP);
+    }
+
+    @Test
+    public void testEndOfStepReportsFirstInvalidCell() {
+        // a pressure solver does not check for convergence per cell so the
+        // invalid values reach the end of the step
+        final DenseMesh mesh = (DenseMesh) whirlpool(Validation.END_OF_STEP)
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+        final Grid grid = mesh.grid();
+        final int index = grid.index(4, 4, 0);
+        mesh.fields().set(index, mesh.fields().pressure(index), Double.NaN, 0, 0);
+        try {
+            mesh.step(0.1);
+            fail();
+        } catch (final RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("invalid value at Indices"));
+        }
+    }
+
+    @Test
+    public void testEndOfStepInParallelReportsSameCell() {
+        assertEquals(invalidStepMessage(1), invalidStepMessage(4));
+    }
+
+    private static String invalidStepMessage(int parallelism) {
+        final DenseMesh mesh = (DenseMesh) whirlpool(Validation.END_OF_STEP)
+                .parallelism(parallelism)
+                .pressureSolver(new ConjugateGradientPressureSolver()).build();
+        final int index = mesh.grid().index(4, 4, 0);
+        mesh.fields().set(index, mesh.fields().pressure(index), Double.NaN, 0, 0);
+        try {
+            mesh.step(0.1);
+            throw new AssertionError();
+        } catch (final RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testValidationRequiresDenseMesh() {
+        Mesh.builder().cellSize(1).creator(new CellCreator(5, 5, 1))
+                .validation(Validation.OFF).build();
+    }
+
+    private static void checkSameAsPerOperation(Validation validation) {
+        DenseMeshTest.checkSameCells(
+                whirlpool(Validation.PER_OPERATION).build().stepMultiple(0.1, 3),
+                whirlpool(validation).build().stepMultiple(0.1, 3), 10, 10, 1, 0);
+    }
+
+    private static Mesh.Builder whirlpool(Validation validation) {
+        return TestingUtil.createDenseMeshBuilderForWhirlpool2DTenByTen().validation(validation);
+    }
+
+}
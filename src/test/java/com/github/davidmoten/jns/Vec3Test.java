@@ -0,0 +1,37 @@
+package com.github.davidmoten.jns;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class Vec3Test {
+
+    private static final Vector A = Vector.create(0.1, -2.7, 3.3);
+    private static final Vector B = Vector.create(1.9, 0.3, -0.7);
+    private static final Vector C = Vector.create(-4.1, 0.05, 2.2);
+
+    @Test
+    public void testSameAsVector() {
+        final Vector expected = A.times(1.7).minus(B).add(C.times(998.2)).divideBy(3.1);
+        final Vec3 pressureGradient = new Vec3().set(B.east(), B.north(), B.up());
+        final Vector actual = new Vec3().set(A.east(), A.north(), A.up()).times(1.7)
+                .minus(pressureGradient).addTimes(C, 998.2).divideBy(3.1).toVector();
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testMinusTimesSameAsMatrix() {
+        final Vector expected = A.minus(Matrixes.createWithRows(A, B, C).times(B));
+        final double[] m = { A.east(), A.north(), A.up(), B.east(), B.north(), B.up(),
+                C.east(), C.north(), C.up() };
+        final Vector actual = new Vec3().set(A.east(), A.north(), A.up()).minusTimes(m, B)
+                .toVector();
+        assertEquals(expected, actual);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void testDivideByZeroThrows() {
+        new Vec3().set(1, 2, 3).divideBy(0);
+    }
+
+}